@@ -0,0 +1,121 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class SkillTargetImpl implements benchmarks.SkillTarget {
+
+    @Override
+    public void useLocalResources() {
+        AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore());
+        AlexaHandler.setLogger(StructuredLogger.discarding(0.0));
+        // The benchmarks replay the same directive, which the dedupe window would otherwise answer from memory
+        AlexaHandler.setDeduplicator(new DirectiveDeduplicator(0, 0));
+        AlexaHandler.setChangeReportPublisher(ChangeReportPublisher.disabled());
+    }
+
+    @Override
+    public void useFaultInjectedStore(long latencyMillis, long jitterMillis, double failureRate) {
+        AlexaHandler.setDeviceStateStore(ResilientDeviceStateStore.fromEnvironment(
+                new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore())
+                        .withLatency(latencyMillis, jitterMillis)
+                        .withFailureRate(failureRate)));
+    }
+
+    @Override
+    public void handle(InputStream inputStream, OutputStream outputStream) {
+        AlexaHandler.handler(inputStream, outputStream, null);
+    }
+
+    @Override
+    public String getRequest(InputStream inputStream) throws IOException {
+        return AlexaHandler.getRequest(inputStream);
+    }
+
+    @Override
+    public Object parseDirective(InputStream inputStream) throws IOException {
+        return Directive.parse(inputStream);
+    }
+
+    @Override
+    public void writeResponse(int endpoints, int properties, OutputStream outputStream) throws IOException {
+        AlexaResponse ar = new AlexaResponse("Alexa.Discovery", "Discover.Response");
+        JSONObject supported = new JSONObject().put("supported", new JSONArray().put(new JSONObject().put("name", "powerState")));
+        for (int i = 0; i < endpoints; i++) {
+            JSONArray capabilities = new JSONArray();
+            capabilities.put(ar.BuildPayloadEndpointCapability("AlexaInterface", "Alexa", "3", null));
+            capabilities.put(ar.BuildPayloadEndpointCapability("AlexaInterface", "Alexa.PowerController", "3", supported));
+            ar.AddPayloadEndpoint("Sample Switch " + i, "sample-switch-" + i, capabilities);
+        }
+        for (int i = 0; i < properties; i++)
+            ar.AddContextProperty("Alexa.PowerController", "powerState", (i & 1) == 0 ? "ON" : "OFF", 200);
+        ar.writeTo(outputStream);
+    }
+
+    @Override
+    public boolean sendDeviceState(String endpointId, String state, String value) {
+        return AlexaHandler.sendDeviceState(endpointId, state, value);
+    }
+
+    @Override
+    public Object buildEndpointRegistry(int endpoints) {
+        EndpointRegistry registry = new EndpointRegistry();
+        JSONArray capabilities = AlexaHandler.getEndpointCatalogue().getEndpoints().get(0).getCapabilities();
+        for (int i = 0; i < endpoints; i++) {
+            int handle = registry.register("sample-switch-" + i, "Sample Switch " + i, capabilities);
+            registry.setPowerState(handle, (i & 1) == 0 ? EndpointRegistry.ON : EndpointRegistry.OFF, System.currentTimeMillis());
+        }
+        return registry;
+    }
+
+    @Override
+    public Object buildEndpointCatalogue(int endpoints) {
+        List<EndpointCatalogue.Endpoint> catalogue = new ArrayList<>(endpoints);
+        InMemoryDeviceStateStore store = new InMemoryDeviceStateStore();
+        String capabilities = AlexaHandler.getEndpointCatalogue().getEndpoints().get(0).getCapabilities().toString();
+        for (int i = 0; i < endpoints; i++) {
+            catalogue.add(new EndpointCatalogue.Endpoint("Sample Switch " + i, "sample-switch-" + i, new JSONArray(capabilities)));
+            store.setDeviceState("sample-switch-" + i, "powerState", (i & 1) == 0 ? "ON" : "OFF");
+        }
+        return new Object[] { catalogue, store };
+    }
+
+    @Override
+    public void useEndpointRegistry(int endpoints) {
+        AlexaHandler.setEndpointRegistry((EndpointRegistry) buildEndpointRegistry(endpoints));
+    }
+
+    @Override
+    public int readPowerState(String endpointId) {
+        EndpointRegistry registry = AlexaHandler.getEndpointRegistry();
+        int handle = registry.handleOf(endpointId);
+        return handle < 0 ? EndpointRegistry.UNKNOWN : registry.getPowerState(handle);
+    }
+
+    @Override
+    public void useCapabilities(String... namespaces) {
+        AlexaHandler.setRouter(AlexaHandler.createRouter(namespaces));
+    }
+
+    @Override
+    public Object findHandler(String namespace, String name) {
+        return AlexaHandler.getRouter().find(namespace, name);
+    }
+}
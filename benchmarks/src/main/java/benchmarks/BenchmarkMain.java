@@ -0,0 +1,34 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the JMH benchmarks with the GC profiler always enabled, so every run reports allocation rates
+// (gc.alloc.rate.norm is the number of bytes allocated per operation). Accepts the usual JMH options.
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
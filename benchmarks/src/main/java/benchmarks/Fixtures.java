@@ -0,0 +1,55 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+package benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Loads the directive samples bundled from src/test/resources/sample_messages.
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static byte[] load(String path) {
+        try (InputStream inputStream = Fixtures.class.getResourceAsStream("/sample_messages/" + path)) {
+            if (inputStream == null)
+                throw new IllegalArgumentException("Fixture not found: " + path);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1)
+                buffer.write(chunk, 0, read);
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String forNamespace(String namespace) {
+        switch (namespace) {
+            case "Alexa":
+                return "ReportState/ReportState.request.json";
+            case "Alexa.Authorization":
+                return "Authorization/Authorization.AcceptGrant.request.json";
+            case "Alexa.Discovery":
+                return "Discovery/Discovery.request.json";
+            case "Alexa.PowerController":
+                return "PowerController/PowerController.TurnOn.request.json";
+            default:
+                throw new IllegalArgumentException("No fixture for " + namespace);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end AlexaHandler.handler for each supported namespace, against the in-memory store.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerBenchmark {
+
+    @Param({"Alexa", "Alexa.Authorization", "Alexa.Discovery", "Alexa.PowerController"})
+    public String namespace;
+
+    private SkillTarget target;
+    private byte[] request;
+    private ResettableOutputStream response;
+
+    @Setup
+    public void setUp() {
+        target = SkillTarget.load();
+        target.useLocalResources();
+        request = Fixtures.load(Fixtures.forNamespace(namespace));
+        response = new ResettableOutputStream(4096);
+    }
+
+    @Benchmark
+    public int handler() {
+        response.reset();
+        target.handle(new ByteArrayInputStream(request), response);
+        return response.length();
+    }
+}
@@ -0,0 +1,196 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a corpus of directives through AlexaHandler.handler from several threads at a target rate,
+// against the in-memory store with injected latency and failures, and writes a JSON report.
+// Latency is measured from each request's scheduled start, so a stalled handler shows up in the
+// percentiles instead of quietly lowering the offered rate.
+public class LoadTest {
+
+    private static final byte[] ERROR_RESPONSE = "\"ErrorResponse\"".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String corpusPath = options.getOrDefault("corpus", null);
+        int threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        int requests = Integer.parseInt(options.getOrDefault("requests", "20000"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2000"));
+        long storeLatencyMillis = Long.parseLong(options.getOrDefault("store-latency-ms", "0"));
+        long storeJitterMillis = Long.parseLong(options.getOrDefault("store-jitter-ms", "0"));
+        double storeFailureRate = Double.parseDouble(options.getOrDefault("store-failure-rate", "0"));
+        String reportPath = options.getOrDefault("report", "load-report.json");
+
+        List<byte[]> corpus = corpusPath == null ? defaultCorpus() : readCorpus(corpusPath);
+        if (corpus.isEmpty())
+            throw new IllegalArgumentException("The corpus has no directives");
+
+        SkillTarget target = SkillTarget.load();
+        target.useLocalResources();
+        target.useFaultInjectedStore(storeLatencyMillis, storeJitterMillis, storeFailureRate);
+
+        // The warmup is not paced and its results are discarded
+        run(target, corpus, threads, 0, warmup);
+        Result result = run(target, corpus, threads, rate, requests);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"javaVersion\":\"").append(System.getProperty("java.version")).append('"')
+                .append(",\"corpus\":\"").append(corpusPath == null ? "fixtures" : corpusPath.replace("\\", "\\\\").replace("\"", "\\\"")).append('"')
+                .append(",\"corpusSize\":").append(corpus.size())
+                .append(",\"threads\":").append(threads)
+                .append(",\"targetRate\":").append(rate)
+                .append(",\"store\":{\"latencyMillis\":").append(storeLatencyMillis)
+                .append(",\"jitterMillis\":").append(storeJitterMillis)
+                .append(",\"failureRate\":").append(storeFailureRate).append('}')
+                .append(",\"requests\":").append(requests)
+                .append(",\"errors\":").append(result.errors)
+                .append(",\"elapsedSeconds\":").append(result.elapsedNanos / 1e9)
+                .append(",\"throughput\":").append(requests / (result.elapsedNanos / 1e9))
+                .append(",\"latencyMs\":{\"mean\":").append(millis(result.meanNanos()))
+                .append(",\"p50\":").append(millis(result.percentileNanos(50.0)))
+                .append(",\"p90\":").append(millis(result.percentileNanos(90.0)))
+                .append(",\"p99\":").append(millis(result.percentileNanos(99.0)))
+                .append(",\"p999\":").append(millis(result.percentileNanos(99.9)))
+                .append(",\"max\":").append(millis(result.percentileNanos(100.0))).append('}')
+                .append(",\"allocatedBytesPerRequest\":").append(result.allocatedBytes < 0 ? -1 : result.allocatedBytes / requests)
+                .append('}');
+
+        try (Writer writer = Files.newBufferedWriter(Paths.get(reportPath), StandardCharsets.UTF_8)) {
+            writer.write(sb.toString());
+            writer.write('\n');
+        }
+        System.out.println(sb);
+    }
+
+    private static final class Result {
+
+        final long[] latencies;
+        final long errors;
+        final long elapsedNanos;
+        final long allocatedBytes;
+
+        Result(long[] latencies, long errors, long elapsedNanos, long allocatedBytes) {
+            this.latencies = latencies;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            Arrays.sort(latencies);
+        }
+
+        long percentileNanos(double percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+        }
+
+        long meanNanos() {
+            long sum = 0;
+            for (long latency : latencies)
+                sum += latency;
+            return sum / latencies.length;
+        }
+    }
+
+    // Sends requests directives, request i at start + i / rate, or as fast as possible when rate is 0.
+    private static Result run(SkillTarget target, List<byte[]> corpus, int threads, double rate, int requests)
+            throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean countAllocations = threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled();
+        long intervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        long start = System.nanoTime();
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                long threadId = Thread.currentThread().getId();
+                long allocatedBefore = countAllocations ? threadBean.getThreadAllocatedBytes(threadId) : 0;
+                ResettableOutputStream outputStream = new ResettableOutputStream(8192);
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    long scheduled = intervalNanos == 0 ? System.nanoTime() : start + i * intervalNanos;
+                    long wait;
+                    while ((wait = scheduled - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+                    outputStream.reset();
+                    target.handle(new ByteArrayInputStream(corpus.get(i % corpus.size())), outputStream);
+                    latencies[i] = System.nanoTime() - scheduled;
+                    if (outputStream.contains(ERROR_RESPONSE))
+                        errors.incrementAndGet();
+                }
+                if (countAllocations)
+                    allocated.addAndGet(threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+            }, "load-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+
+        return new Result(latencies, errors.get(), System.nanoTime() - start, countAllocations ? allocated.get() : -1);
+    }
+
+    // One directive per line; blank lines are skipped.
+    static List<byte[]> readCorpus(String path) throws IOException {
+        List<byte[]> corpus = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty())
+                corpus.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return corpus;
+    }
+
+    private static List<byte[]> defaultCorpus() {
+        List<byte[]> corpus = new ArrayList<>();
+        corpus.add(Fixtures.load(Fixtures.forNamespace("Alexa")));
+        corpus.add(Fixtures.load(Fixtures.forNamespace("Alexa.PowerController")));
+        corpus.add(Fixtures.load("PowerController/PowerController.TurnOff.request.json"));
+        corpus.add(Fixtures.load(Fixtures.forNamespace("Alexa.Discovery")));
+        corpus.add(Fixtures.load(Fixtures.forNamespace("Alexa.Authorization")));
+        return corpus;
+    }
+
+    // Options are given as --name value pairs.
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length)
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000 / 1000.0;
+    }
+}
@@ -0,0 +1,60 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.function.Supplier;
+
+// Measures the retained heap of a million switches kept in an EndpointRegistry, against the same
+// switches kept as catalogue Endpoints with their state in the in-memory store. Run it with a heap
+// large enough for both, e.g. -Xmx4g.
+public class RegistryFootprint {
+
+    public static void main(String[] args) {
+        int endpoints = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        SkillTarget target = SkillTarget.load();
+        target.useLocalResources();
+
+        long registry = retainedBytes(() -> target.buildEndpointRegistry(endpoints));
+        long catalogue = retainedBytes(() -> target.buildEndpointCatalogue(endpoints));
+
+        System.out.println("{\"endpoints\":" + endpoints
+                + ",\"registryBytes\":" + registry
+                + ",\"registryBytesPerEndpoint\":" + registry / endpoints
+                + ",\"catalogueBytes\":" + catalogue
+                + ",\"catalogueBytesPerEndpoint\":" + catalogue / endpoints + "}");
+    }
+
+    private static long retainedBytes(Supplier<Object> build) {
+        long before = usedHeap();
+        Object retained = build.get();
+        long after = usedHeap();
+        // Keeps the structure reachable until it has been measured
+        if (retained.hashCode() == 42)
+            System.out.print("");
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Collections can leave garbage behind, so keep the lowest of a few readings
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
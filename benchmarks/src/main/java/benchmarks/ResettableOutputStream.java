@@ -0,0 +1,39 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+package benchmarks;
+
+import java.io.ByteArrayOutputStream;
+
+// A ByteArrayOutputStream whose buffer is reused across benchmark invocations.
+public class ResettableOutputStream extends ByteArrayOutputStream {
+
+    public ResettableOutputStream(int size) {
+        super(size);
+    }
+
+    public int length() {
+        return count;
+    }
+
+    public boolean contains(byte[] bytes) {
+        for (int i = 0; i + bytes.length <= count; i++) {
+            int j = 0;
+            while (j < bytes.length && buf[i + j] == bytes[j])
+                j++;
+            if (j == bytes.length)
+                return true;
+        }
+        return false;
+    }
+}
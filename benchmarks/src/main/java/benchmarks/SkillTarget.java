@@ -0,0 +1,68 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// The skill classes live in the unnamed package, which JMH benchmarks cannot import.
+// SkillTargetImpl (in the unnamed package) implements this interface and is loaded once by name, so
+// the measured calls are plain interface calls.
+public interface SkillTarget {
+
+    static SkillTarget load() {
+        try {
+            return (SkillTarget) Class.forName("SkillTargetImpl").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("SkillTargetImpl is not on the classpath", e);
+        }
+    }
+
+    // Replaces the DynamoDB store with an in-memory one, discards log output and turns off the dedupe window.
+    void useLocalResources();
+
+    // Replaces the store with an in-memory one behind the injected latency and failures and the usual
+    // retries and circuit breaker.
+    void useFaultInjectedStore(long latencyMillis, long jitterMillis, double failureRate);
+
+    void handle(InputStream inputStream, OutputStream outputStream);
+
+    String getRequest(InputStream inputStream) throws IOException;
+
+    Object parseDirective(InputStream inputStream) throws IOException;
+
+    void writeResponse(int endpoints, int properties, OutputStream outputStream) throws IOException;
+
+    boolean sendDeviceState(String endpointId, String state, String value);
+
+    // Registers the given number of switches, with their power state set, in an EndpointRegistry.
+    Object buildEndpointRegistry(int endpoints);
+
+    // Keeps the same switches as catalogue Endpoints, each with its own capabilities, and their
+    // power state in the in-memory store.
+    Object buildEndpointCatalogue(int endpoints);
+
+    // Replaces the handler's registry with one holding the given number of switches.
+    void useEndpointRegistry(int endpoints);
+
+    // The power state of the endpoint in the handler's registry, as EndpointRegistry.ON, OFF or UNKNOWN.
+    int readPowerState(String endpointId);
+
+    // Replaces the handler's router with one for the given interfaces, e.g. Alexa.BrightnessController.
+    void useCapabilities(String... namespaces);
+
+    // The handler the router finds for the directive, or null.
+    Object findHandler(String namespace, String name);
+}
@@ -11,120 +11,525 @@
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
 // language governing permissions and limitations under the License.
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
-import java.util.Scanner;
-
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
-import com.amazonaws.services.dynamodbv2.document.Table;
-import com.amazonaws.services.dynamodbv2.document.UpdateItemOutcome;
-import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
-import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
-import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
-import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
-import org.json.*;
+import org.json.JSONObject;
 
 public class AlexaHandler {
 
+    private static volatile StructuredLogger logger = StructuredLogger.fromEnvironment();
+
+    static StructuredLogger getLogger() {
+        return logger;
+    }
+
+    static void setLogger(StructuredLogger structuredLogger) {
+        logger = structuredLogger;
+    }
+
+    private static volatile DirectiveMetrics metrics = DirectiveMetrics.fromEnvironment();
+
+    static DirectiveMetrics getMetrics() {
+        return metrics;
+    }
+
+    static void setMetrics(DirectiveMetrics directiveMetrics) {
+        metrics = directiveMetrics;
+    }
+
     public static void handler(InputStream inputStream, OutputStream outputStream, Context context) {
 
-        String request;
+        long start = System.nanoTime();
+        long parseNanos = -1;
+        Directive directive = null;
+        TimedResponse timed = new TimedResponse();
+        boolean error = true;
+        if (context != null)
+            Deadline.start(context.getRemainingTimeInMillis() - DEADLINE_RESERVE_MILLIS);
         try {
-            request = getRequest(inputStream);
-            System.out.println("Request:");
-            System.out.println(request);
-
-            JSONObject jsonRequest = new JSONObject(request);
-            JSONObject directive = (JSONObject) jsonRequest.get("directive");
-            JSONObject header = (JSONObject) directive.get("header");
-
-            AlexaResponse ar;
-
-            String namespace = header.optString("namespace", "INVALID");
-            String correlationToken = header.optString("correlationToken", "INVALID");
-            switch(namespace) {
-
-                case "Alexa.Authorization":
-                    System.out.println("Found Alexa.Authorization Namespace");
-                    ar = new AlexaResponse("Alexa.Authorization","AcceptGrant", "INVALID", "INVALID", correlationToken);
-                    break;
-
-                case "Alexa.Discovery":
-                    System.out.println("Found Alexa.Discovery Namespace");
-                    ar = new AlexaResponse("Alexa.Discovery", "Discover.Response");
-                    String capabilityAlexa = ar.CreatePayloadEndpointCapability("AlexaInterface", "Alexa", "3", null);
-                    String capabilityAlexaPowerController = ar.CreatePayloadEndpointCapability("AlexaInterface", "Alexa.PowerController", "3", "{\"supported\": [ { \"name\": \"powerState\" } ] }");
-                    String capabilities = "[" + capabilityAlexa + ", " + capabilityAlexaPowerController + "]";
-                    ar.AddPayloadEndpoint("Sample Switch", "sample-switch-01", capabilities);
-
-                    // For another way to see how to craft an AlexaResponse, have a look at AlexaResponseTest:ResponseDiscovery
-
-                    break;
-
-                case "Alexa.PowerController":
-                    System.out.println("Found Alexa.PowerController Namespace");
-                    String endpointId = directive.getJSONObject("endpoint").optString("endpointId", "INVALID");
-                    String token = directive.getJSONObject("endpoint").getJSONObject("scope").optString("token", "INVALID");
-                    String powerStateValue = directive.getJSONObject("header").optString("name", "TurnOn");
-                    String value = powerStateValue.equals("TurnOn") ? "ON" : "OFF";
-
-                    // Set the value in the DynamodDB table SampleSmartHome
-                    if(sendDeviceState(endpointId, "powerState", value)) {
-                        ar = new AlexaResponse("Alexa", "Response", endpointId, token, correlationToken);
-                        ar.AddContextProperty("Alexa.PowerController", "powerState", value, 200);
-                    }
-                    else {
-                        ar = new AlexaResponse("Alexa", "ErrorResponse");
-                    }
+            directive = Directive.parse(inputStream);
+            parseNanos = System.nanoTime() - start;
+
+            // Only sampled invocations pay for copying the request and response into the log
+            boolean sample = logger.samplePayload();
+            byte[] response = null;
+
+            String key = deduplicator.keyFor(directive);
+            if (key != null) {
+                Directive retried = directive;
+                response = deduplicator.execute(key, () -> timed.of(dispatch(retried)));
+                outputStream.write(response);
+            }
+            else if (sample) {
+                response = DirectiveDeduplicator.serialize(timed.of(dispatch(directive)));
+                outputStream.write(response);
+            }
+            else {
+                timed.of(dispatch(directive)).writeTo(outputStream);
+            }
+            error = timed.isError();
 
-                    break;
+            logger.logDirective(directive, System.nanoTime() - start,
+                    sample ? directive.toString() : null,
+                    sample ? new String(response, StandardCharsets.UTF_8) : null);
+            Priming.recordInvocation(System.nanoTime() - start);
+        }
+        catch (Exception e)
+        {
+            logger.logError(directive, e);
+            writeError(outputStream, directive == null
+                    ? errorResponse(null, "INVALID_DIRECTIVE", "The directive could not be read")
+                    : errorResponse(directive, "INTERNAL_ERROR", "The directive could not be handled"));
+        }
+        finally {
+            Deadline.clear();
+        }
+
+        metrics.recordDirective(directive == null ? null : directive.getNamespace(), directive == null ? null : directive.getName(),
+                System.nanoTime() - start, parseNanos, timed.serializeNanos, error);
+        flushInvocation(context);
+    }
+
+    // Answers a JSON array of directives with an array of responses in the same order. The PowerController
+    // state changes are stored with one batch write before the other directives are dispatched, so they
+    // are visible to a ReportState anywhere in the batch. Batched directives are not deduplicated.
+    public static void batchHandler(InputStream inputStream, OutputStream outputStream, Context context) {
+
+        long start = System.nanoTime();
+        Directive[] directives = new Directive[0];
+        DirectiveResponse[] responses = new DirectiveResponse[0];
+        if (context != null)
+            Deadline.start(context.getRemainingTimeInMillis() - DEADLINE_RESERVE_MILLIS);
+        try {
+            directives = Directive.parseArray(inputStream);
+            responses = new DirectiveResponse[directives.length];
+            for (int i = 0; i < directives.length; i++) {
+                if (directives[i] == null)
+                    responses[i] = errorResponse(null, "INVALID_DIRECTIVE", "The directive could not be read");
+            }
 
-                default:
-                    System.out.println("INVALID Namespace");
-                    ar = new AlexaResponse();
-                    break;
+            setPowerStates(directives, responses);
+            for (int i = 0; i < directives.length; i++) {
+                if (responses[i] != null)
+                    continue;
+                try {
+                    responses[i] = dispatch(directives[i]);
+                } catch (RuntimeException e) {
+                    logger.logError(directives[i], e);
+                    responses[i] = errorResponse(directives[i], "INTERNAL_ERROR", "The directive could not be handled");
+                }
             }
 
-            System.out.println("Response:");
-            System.out.println(ar);
+            outputStream.write('[');
+            for (int i = 0; i < responses.length; i++) {
+                if (i > 0)
+                    outputStream.write(',');
+                responses[i].writeTo(outputStream);
+            }
+            outputStream.write(']');
 
-            outputStream.write(ar.toString().getBytes(Charset.forName("UTF-8")));
+            for (Directive directive : directives) {
+                if (directive != null)
+                    logger.logDirective(directive, System.nanoTime() - start, null, null);
+            }
         }
         catch (Exception e)
         {
-            e.printStackTrace();
+            logger.logError(null, e);
+            try {
+                outputStream.write('[');
+                errorResponse(null, "INVALID_DIRECTIVE", "The batch could not be handled").writeTo(outputStream);
+                outputStream.write(']');
+            } catch (IOException ioe) {
+                logger.logError(null, ioe);
+            }
         }
+        finally {
+            Deadline.clear();
+        }
+
+        long totalNanos = System.nanoTime() - start;
+        for (int i = 0; i < directives.length; i++) {
+            Directive directive = directives[i];
+            metrics.recordDirective(directive == null ? null : directive.getNamespace(), directive == null ? null : directive.getName(),
+                    totalNanos, -1, -1, responses[i] == null || responses[i].isError());
+        }
+        flushInvocation(context);
     }
 
-    static boolean sendDeviceState(String endpoint_id, String state, String value) {
+    // The container may be frozen as soon as a Lambda handler returns, so the invocation's EMF metrics are
+    // queued first and then every buffered record is written. The server flushes metrics on a timer instead.
+    // ChangeReports still in their coalescing window are handed to the senders without waiting for them;
+    // a report a freeze interrupts is retried when the container next runs.
+    private static void flushInvocation(Context context) {
+        if (context instanceof ServerContext)
+            return;
+        if (changeReportPublisher.getOutstandingCount() > 0)
+            changeReportPublisher.flush(CHANGE_REPORT_FLUSH_MILLIS);
+        metrics.flush(logger);
+        logger.flush(LOG_FLUSH_MILLIS);
+    }
+
+    // Stores the power states of the batch's PowerController directives together and fills in their responses.
+    // A batch write replaces each endpoint's whole item, so when other interfaces keep properties in the
+    // store the directives are dispatched one at a time instead.
+    private static void setPowerStates(Directive[] directives, DirectiveResponse[] responses) {
+        DirectiveRouter directiveRouter = router;
+        if (directiveRouter.getCapabilityHandler("Alexa.PowerController") == null || !directiveRouter.storesOnly("powerState"))
+            return;
+        List<DeviceStateWrite> writes = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        String[] userIds = new String[directives.length];
+        for (int i = 0; i < directives.length; i++) {
+            if (responses[i] == null && "Alexa.PowerController".equals(directives[i].getNamespace())
+                    && directiveRouter.find("Alexa.PowerController", directives[i].getName()) != null) {
+                try {
+                    UserIdCache cache = userIdCache;
+                    if (cache != null) {
+                        userIds[i] = resolveUserId(cache, scopeToken(directives[i]));
+                        if (userIds[i] == null)
+                            responses[i] = errorResponse(directives[i], "INVALID_AUTHORIZATION_CREDENTIAL", "The access token is not valid");
+                    }
+                } catch (RuntimeException e) {
+                    logger.logError(directives[i], e);
+                    responses[i] = errorResponse(directives[i], "INTERNAL_ERROR", "The directive could not be handled");
+                }
+                if (responses[i] == null && DynamoDBDeviceStateStore.isReservedItemId(optString(directives[i].getEndpointId(), "INVALID")))
+                    responses[i] = errorResponse(directives[i], "NO_SUCH_ENDPOINT", "The endpoint does not exist");
+                if (responses[i] != null)
+                    continue;
+                writes.add(new DeviceStateWrite(optString(directives[i].getEndpointId(), "INVALID"), "powerState",
+                        PowerControllerHandler.value(directives[i])));
+                indexes.add(i);
+            }
+        }
+        if (writes.isEmpty())
+            return;
+
+        boolean[] stored = null;
+        String errorType = "ENDPOINT_UNREACHABLE";
+        try {
+            stored = deviceStateStore.setDeviceStates(writes);
+        } catch (EndpointUnreachableException e) {
+            // Every write is answered with the error below
+        } catch (RuntimeException e) {
+            logger.logError(null, e);
+            errorType = "INTERNAL_ERROR";
+        }
+
+        for (int k = 0; k < indexes.size(); k++) {
+            int i = indexes.get(k);
+            DeviceStateWrite write = writes.get(k);
+            responses[i] = stored != null && stored[k]
+                    ? PowerControllerHandler.response(directives[i], userIds[i], write.getEndpointId(), write.getValue())
+                    : errorResponse(directives[i], errorType, "The state of the endpoint could not be set");
+        }
+    }
+
+    // Times how long the response takes to write. serializeNanos stays -1 if it is never written,
+    // e.g. when a retried directive is answered from the dedupe window.
+    private static final class TimedResponse implements DirectiveResponse {
 
-        String attributeValue = state + "Value";
+        private DirectiveResponse response;
+        private long serializeNanos = -1;
+
+        TimedResponse of(DirectiveResponse directiveResponse) {
+            response = directiveResponse;
+            return this;
+        }
 
-        AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard().build();
-        DynamoDB dynamoDB = new DynamoDB(client);
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            long start = System.nanoTime();
+            response.writeTo(outputStream);
+            serializeNanos = System.nanoTime() - start;
+        }
+
+        @Override
+        public boolean isError() {
+            return response != null && response.isError();
+        }
+    }
 
-        Table table = dynamoDB.getTable("SampleSmartHome");
+    static DirectiveResponse dispatch(Directive directive) {
 
-        UpdateItemSpec updateItemSpec =
-                new UpdateItemSpec()
-                        .withPrimaryKey("ItemId", endpoint_id)
-                        .withUpdateExpression("set #v = :val1")
-                        .withNameMap(new NameMap().with("#v", attributeValue))
-                        .withValueMap(new ValueMap().withString(":val1", value))
-                        .withReturnValues(ReturnValue.ALL_NEW);
+        String namespace = optString(directive.getNamespace(), "INVALID");
 
-        UpdateItemOutcome outcome = table.updateItem(updateItemSpec);
-//        System.out.println(outcome.getItem().toJSONPretty());
+        UserIdCache cache = userIdCache;
+        String userId = null;
+        if (cache != null && !"Alexa.Authorization".equals(namespace)) {
+            userId = resolveUserId(cache, scopeToken(directive));
+            if (userId == null)
+                return errorResponse(directive, "INVALID_AUTHORIZATION_CREDENTIAL", "The access token is not valid");
+        }
+
+        DirectiveHandler handler = router.find(namespace, directive.getName());
+        return handler == null ? new AlexaResponse() : handler.handle(directive, userId);
+    }
+
+    // Reports the properties of every registered interface.
+    private static DirectiveResponse reportState(Directive directive, String userId) {
+        String endpointId = optString(directive.getEndpointId(), "INVALID");
+        AlexaResponse stateReport = new AlexaResponse("Alexa", "StateReport", endpointId,
+                optString(directive.getToken(), "INVALID"), optString(directive.getCorrelationToken(), "INVALID"));
+        try {
+            for (CapabilityHandler handler : router.getCapabilityHandlers())
+                handler.addContextProperties(stateReport, endpointId);
+        } catch (EndpointUnreachableException e) {
+            return errorResponse(directive, "ENDPOINT_UNREACHABLE", "The state of the endpoint could not be read");
+        }
+        return stateReport;
+    }
+
+    // For another way to see how to craft an AlexaResponse, have a look at AlexaResponseTest:ResponseDiscovery
+    private static DirectiveResponse discover(Directive directive, String userId) {
+        EndpointSource source = endpointSource;
+        if (source == endpointCatalogue)
+            return endpointCatalogue.getDiscoveryTemplate().newResponse(UUID.randomUUID().toString());
+
+        // Answers with an ErrorResponse if the endpoints cannot be read
+        return new StreamingDiscoveryResponse(source, userId, UUID.randomUUID().toString(),
+                DISCOVERY_MAX_ENDPOINTS, DISCOVERY_MAX_BYTES);
+    }
+
+    // Stores the grant code against the user the grantee token was issued to, and exchanges it for the
+    // user's event gateway tokens when ChangeReports are sent. Grants are only kept when users are
+    // resolved. The directive itself carries no user token.
+    private static AlexaResponse acceptGrant(Directive directive) {
+        String correlationToken = optString(directive.getCorrelationToken(), "INVALID");
+        UserIdCache cache = userIdCache;
+        if (cache != null) {
+            JSONObject grant = directive.getPayload().optJSONObject("grant");
+            JSONObject grantee = directive.getPayload().optJSONObject("grantee");
+            String code = grant == null ? null : grant.optString("code", null);
+            String failure;
+            try {
+                String userId = cache.resolve(grantee == null ? null : grantee.optString("token", null));
+                if (userId == null)
+                    failure = "The grantee token is not valid";
+                else if (code == null)
+                    failure = "The grant has no code";
+                else if (!grantStore.saveGrant(userId, code))
+                    failure = "The grant could not be stored";
+                else if (gatewayTokens != null && gatewayTokens.exchangeGrant(userId) == null)
+                    failure = "The grant was not accepted by Login with Amazon";
+                else
+                    failure = null;
+            } catch (IOException | RuntimeException e) {
+                logger.logError(directive, e);
+                failure = "The grant could not be stored";
+            }
+            if (failure != null) {
+                AlexaResponse error = new AlexaResponse("Alexa.Authorization", "ErrorResponse", "INVALID", "INVALID", correlationToken);
+                error.SetPayload(new JSONObject().put("type", "ACCEPT_GRANT_FAILED").put("message", failure));
+                return error;
+            }
+        }
+        return new AlexaResponse("Alexa.Authorization","AcceptGrant", "INVALID", "INVALID", correlationToken);
+    }
+
+    // Discovery carries the token in its payload; the other directives in their endpoint.
+    private static String scopeToken(Directive directive) {
+        if (!"Alexa.Discovery".equals(directive.getNamespace()))
+            return directive.getToken();
+        JSONObject scope = directive.getPayload().optJSONObject("scope");
+        return scope == null ? null : scope.optString("token", null);
+    }
+
+    // Returns null if the token is not valid.
+    private static String resolveUserId(UserIdCache cache, String token) {
+        try {
+            return cache.resolve(token);
+        } catch (IOException e) {
+            throw new UncheckedIOException("The user could not be resolved", e);
+        }
+    }
+
+    // directive is null when it could not be parsed.
+    static AlexaResponse errorResponse(Directive directive, String type, String message) {
+        AlexaResponse error = directive == null
+                ? new AlexaResponse("Alexa", "ErrorResponse")
+                : new AlexaResponse("Alexa", "ErrorResponse", optString(directive.getEndpointId(), "INVALID"),
+                        optString(directive.getToken(), "INVALID"), directive.getCorrelationToken());
+        error.SetPayload(new JSONObject().put("type", type).put("message", message));
+        return error;
+    }
+
+    private static void writeError(OutputStream outputStream, AlexaResponse error) {
+        try {
+            error.writeTo(outputStream);
+        } catch (IOException e) {
+            logger.logError(null, e);
+        }
+    }
+
+    private static volatile DirectiveDeduplicator deduplicator = DirectiveDeduplicator.fromEnvironment();
+
+    static DirectiveDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    static void setDeduplicator(DirectiveDeduplicator directiveDeduplicator) {
+        deduplicator = directiveDeduplicator;
+    }
+
+    // How long a Lambda invocation waits for its ChangeReports to be sent. By default it does not wait.
+    private static final long CHANGE_REPORT_FLUSH_MILLIS =
+            Long.parseLong(DynamoDBDeviceStateStore.getEnv("CHANGE_REPORT_FLUSH_MILLIS", "0"));
+
+    private static final long LOG_FLUSH_MILLIS =
+            Long.parseLong(DynamoDBDeviceStateStore.getEnv("LOG_FLUSH_MILLIS", "100"));
+
+    // Null unless ALEXA_CLIENT_ID and ALEXA_CLIENT_SECRET are set
+    private static volatile EventGatewayTokens gatewayTokens = EventGatewayTokens.fromEnvironment(AlexaHandler::getGrantStore);
+
+    static EventGatewayTokens getGatewayTokens() {
+        return gatewayTokens;
+    }
+
+    static void setGatewayTokens(EventGatewayTokens tokens) {
+        gatewayTokens = tokens;
+    }
+
+    private static volatile ChangeReportPublisher changeReportPublisher = ChangeReportPublisher.fromEnvironment(gatewayTokens);
+
+    static ChangeReportPublisher getChangeReportPublisher() {
+        return changeReportPublisher;
+    }
+
+    static void setChangeReportPublisher(ChangeReportPublisher publisher) {
+        changeReportPublisher = publisher;
+    }
+
+    // The interfaces each endpoint supports, e.g. CAPABILITIES=Alexa.PowerController,Alexa.BrightnessController
+    private static volatile DirectiveRouter router =
+            createRouter(DynamoDBDeviceStateStore.getEnv("CAPABILITIES", "Alexa.PowerController").split(","));
+
+    static DirectiveRouter getRouter() {
+        return router;
+    }
+
+    // The catalogue keeps the capabilities discovered with the router the skill started with.
+    static void setRouter(DirectiveRouter directiveRouter) {
+        router = directiveRouter;
+    }
+
+    static DirectiveRouter createRouter(String... capabilities) {
+        DirectiveRouter directiveRouter = new DirectiveRouter()
+                .with("Alexa", "ReportState", AlexaHandler::reportState)
+                .with("Alexa.Authorization", "AcceptGrant", (directive, userId) -> acceptGrant(directive))
+                .with("Alexa.Discovery", "Discover", AlexaHandler::discover);
+        for (String namespace : capabilities) {
+            CapabilityHandler handler = DirectiveRouter.capabilityFor(namespace.trim());
+            if (handler == null)
+                throw new IllegalArgumentException("Unsupported capability: " + namespace.trim());
+            directiveRouter.with(handler);
+        }
+        return directiveRouter;
+    }
+
+    private static final EndpointCatalogue endpointCatalogue =
+            EndpointCatalogue.create(router.getCapabilities(changeReportPublisher.isEnabled()));
+
+    static EndpointCatalogue getEndpointCatalogue() {
+        return endpointCatalogue;
+    }
+
+    private static final int DISCOVERY_MAX_ENDPOINTS =
+            Integer.parseInt(DynamoDBDeviceStateStore.getEnv("DISCOVERY_MAX_ENDPOINTS", "300"));
+    private static final int DISCOVERY_MAX_BYTES =
+            Integer.parseInt(DynamoDBDeviceStateStore.getEnv("DISCOVERY_MAX_BYTES", "262144"));
+
+    // Null unless ENDPOINT_REGISTRY is set
+    private static volatile EndpointRegistry endpointRegistry = EndpointRegistry.fromEnvironment(endpointCatalogue);
+
+    static EndpointRegistry getEndpointRegistry() {
+        return endpointRegistry;
+    }
+
+    static void setEndpointRegistry(EndpointRegistry registry) {
+        endpointRegistry = registry;
+    }
+
+    // Set DISCOVERY_SOURCE=dynamodb to discover each user's endpoints stored in the table instead of the catalogue
+    private static volatile EndpointSource endpointSource =
+            "dynamodb".equals(DynamoDBDeviceStateStore.getEnv("DISCOVERY_SOURCE", "catalogue"))
+                    ? DynamoDBEndpointSource.fromEnvironment()
+                    : endpointCatalogue;
+
+    static EndpointSource getEndpointSource() {
+        return endpointSource;
+    }
+
+    static void setEndpointSource(EndpointSource source) {
+        endpointSource = source;
+    }
+
+    // Time kept back from the invocation's remaining time to write the response
+    private static final long DEADLINE_RESERVE_MILLIS =
+            Long.parseLong(DynamoDBDeviceStateStore.getEnv("DEADLINE_RESERVE_MILLIS", "200"));
+
+    // Null unless IDENTITY_PROVIDER is set, in which case every directive's token must resolve to a user
+    private static volatile UserIdCache userIdCache = UserIdCache.fromEnvironment();
+
+    static UserIdCache getUserIdCache() {
+        return userIdCache;
+    }
+
+    static void setUserIdCache(UserIdCache cache) {
+        userIdCache = cache;
+    }
+
+    private static volatile GrantStore grantStore = new DynamoDBGrantStore(DynamoDBDeviceStateStore.TABLE_NAME);
+
+    static GrantStore getGrantStore() {
+        return grantStore;
+    }
+
+    static void setGrantStore(GrantStore store) {
+        grantStore = store;
+    }
+
+    private static volatile DeviceStateStore deviceStateStore =
+            new CachingDeviceStateStore(ResilientDeviceStateStore.fromEnvironment(new DynamoDBDeviceStateStore()),
+                    DeviceStateCache.fromEnvironment());
+
+    static DeviceStateStore getDeviceStateStore() {
+        return deviceStateStore;
+    }
+
+    static void setDeviceStateStore(DeviceStateStore store) {
+        deviceStateStore = store;
+    }
+
+    static boolean sendDeviceState(String endpoint_id, String state, String value) {
+        return deviceStateStore.setDeviceState(endpoint_id, state, value);
+    }
+
+    static String getRequest(java.io.InputStream is) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        byte[] chunk = new byte[4096];
+        int read;
+        while ((read = is.read(chunk)) != -1)
+            buffer.write(chunk, 0, read);
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
 
-        return true;
+    static String optString(String value, String defaultValue) {
+        return value == null ? defaultValue : value;
     }
 
-    static String getRequest(java.io.InputStream is) {
-        Scanner s = new Scanner(is).useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
+    // Runs last so that every static field above is initialized before the synthetic directives
+    static {
+        Priming.initialize();
     }
 }
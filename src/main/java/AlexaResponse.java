@@ -11,20 +11,22 @@
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
 // language governing permissions and limitations under the License.
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Random;
-import java.util.TimeZone;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import org.json.*;
 
-public class AlexaResponse {
+public class AlexaResponse implements DirectiveResponse {
 
-    private JSONObject response = new JSONObject("{}");
-    private JSONObject event = new JSONObject("{}");
-    private JSONObject header = new JSONObject("{}");
-    private JSONObject endpoint = new JSONObject("{}");
-    private JSONObject payload = new JSONObject("{}");
+    private JSONObject response = new JSONObject();
+    private JSONObject event = new JSONObject();
+    private JSONObject header = new JSONObject();
+    private JSONObject endpoint = new JSONObject();
+    private JSONObject payload = new JSONObject();
 
     private String CheckValue(String value, String defaultValue) {
 
@@ -51,7 +53,7 @@ public class AlexaResponse {
             header.put("correlationToken", CheckValue(correlationToken, "INVALID"));
         }
 
-        JSONObject scope = new JSONObject("{}");
+        JSONObject scope = new JSONObject();
         scope.put("type", "BearerToken");
         scope.put("token", CheckValue(token, "INVALID"));
 
@@ -82,75 +84,109 @@ public class AlexaResponse {
     }
 
     public void AddPayloadEndpoint(String friendlyName, String endpointId, String capabilities) {
+        AddPayloadEndpoint(friendlyName, endpointId, new JSONArray(capabilities));
+    }
+
+    public void AddPayloadEndpoint(String friendlyName, String endpointId, JSONArray capabilities) {
 
         JSONObject payload = response.getJSONObject("event").getJSONObject("payload");
 
-        if (payload.has("endpoints"))
-        {
-            JSONArray endpoints = payload.getJSONArray("endpoints");
-            endpoints.put(new JSONObject(CreatePayloadEndpoint(friendlyName, endpointId, capabilities, null)));
-        }
-        else
+        JSONArray endpoints = payload.optJSONArray("endpoints");
+        if (endpoints == null)
         {
-            JSONArray endpoints = new JSONArray();
-            endpoints.put(new JSONObject(CreatePayloadEndpoint(friendlyName, endpointId, capabilities, null)));
+            endpoints = new JSONArray();
             payload.put("endpoints", endpoints);
         }
+        endpoints.put(BuildPayloadEndpoint(friendlyName, endpointId, capabilities, null));
     }
 
     public void AddContextProperty(String namespace, String name, String value, int uncertaintyInMilliseconds)
     {
-        JSONObject context;
-        JSONArray properties;
-        try {
-            context = response.getJSONObject("context");
-            properties = context.getJSONArray("properties");
+        AddContextProperty(BuildContextProperty(namespace, name, value, uncertaintyInMilliseconds));
+    }
+
+    public void AddContextProperty(String namespace, String name, int value, int uncertaintyInMilliseconds)
+    {
+        AddContextProperty(BuildContextProperty(namespace, name, value, uncertaintyInMilliseconds));
+    }
+
+    public void AddContextProperty(String namespace, String name, JSONObject value, int uncertaintyInMilliseconds)
+    {
+        AddContextProperty(BuildContextProperty(namespace, name, value, uncertaintyInMilliseconds));
+    }
 
-        } catch (JSONException jse) {
+    private void AddContextProperty(JSONObject property)
+    {
+        JSONObject context = response.optJSONObject("context");
+        JSONArray properties = context == null ? null : context.optJSONArray("properties");
+        if (properties == null) {
             context = new JSONObject();
             properties = new JSONArray();
             context.put("properties", properties);
         }
 
-        properties.put(new JSONObject(CreateContextProperty(namespace, name, value, uncertaintyInMilliseconds)));
+        properties.put(property);
         response.put("context", context);
-
     }
 
     public String CreateContextProperty(String namespace, String name, String value, int uncertaintyInMilliseconds) {
+        return BuildContextProperty(namespace, name, value, uncertaintyInMilliseconds).toString();
+    }
 
-        JSONObject property = new JSONObject();
-        property.put("namespace", namespace);
-        property.put("name", name);
-
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.sss'Z'");
-        TimeZone tz = TimeZone.getTimeZone("UTC");
-        sdf.setTimeZone(tz);
-        String timeOfSample = sdf.format(new Date().getTime());
+    public JSONObject BuildContextProperty(String namespace, String name, String value, int uncertaintyInMilliseconds) {
 
-        property.put("timeOfSample", timeOfSample);
-        property.put("uncertaintyInMilliseconds", uncertaintyInMilliseconds);
+        JSONObject property = BuildContextProperty(namespace, name, uncertaintyInMilliseconds);
 
         // Handle either a JSON Object or value
-        try {
-            property.put("value", new JSONObject(value));
-        } catch (org.json.JSONException je) {
-            property.put("value", value);
+        if (IsJSONObject(value)) {
+            try {
+                property.put("value", new JSONObject(value));
+                return property;
+            } catch (JSONException je) {
+                // Not an object after all, fall through and store the raw value
+            }
         }
+        property.put("value", value);
+
+        return property;
+    }
+
+    // For integer properties such as brightness and percentage
+    public JSONObject BuildContextProperty(String namespace, String name, int value, int uncertaintyInMilliseconds) {
+        return BuildContextProperty(namespace, name, uncertaintyInMilliseconds).put("value", value);
+    }
+
+    // For object properties such as connectivity, without encoding and parsing the value again
+    public JSONObject BuildContextProperty(String namespace, String name, JSONObject value, int uncertaintyInMilliseconds) {
+        return BuildContextProperty(namespace, name, uncertaintyInMilliseconds).put("value", value);
+    }
+
+    private JSONObject BuildContextProperty(String namespace, String name, int uncertaintyInMilliseconds) {
+
+        JSONObject property = new JSONObject();
+        property.put("namespace", namespace);
+        property.put("name", name);
 
-        return property.toString();
+        property.put("timeOfSample", TimeOfSample.now());
+        property.put("uncertaintyInMilliseconds", uncertaintyInMilliseconds);
+        return property;
     }
 
     public String CreatePayloadEndpoint(String friendlyName, String endpointId, String capabilities, String cookie){
+        return BuildPayloadEndpoint(friendlyName, endpointId, new JSONArray(capabilities), cookie).toString();
+    }
+
+    public JSONObject BuildPayloadEndpoint(String friendlyName, String endpointId, JSONArray capabilities, String cookie){
         JSONObject endpoint = new JSONObject();
-        endpoint.put("capabilities", new JSONArray(capabilities));
+        endpoint.put("capabilities", capabilities);
         endpoint.put("description", "Sample Endpoint Description");
-        JSONArray displayCategories = new JSONArray("[\"OTHER\"]");
+        JSONArray displayCategories = new JSONArray();
+        displayCategories.put("OTHER");
         endpoint.put("displayCategories", displayCategories);
         endpoint.put("manufacturerName", "Sample Manufacturer");
 
         if (endpointId == null)
-            endpointId = "endpoint_" + 100000 + new Random().nextInt(900000);
+            endpointId = "endpoint_" + 100000 + ThreadLocalRandom.current().nextInt(900000);
         endpoint.put("endpointId", endpointId);
 
         if (friendlyName == null)
@@ -160,10 +196,14 @@ public class AlexaResponse {
         if (cookie != null)
             endpoint.put("cookie", new JSONObject(cookie));
 
-        return endpoint.toString();
+        return endpoint;
     }
 
     public String CreatePayloadEndpointCapability(String type, String interfaceValue, String version, String properties) {
+        return BuildPayloadEndpointCapability(type, interfaceValue, version, properties == null ? null : new JSONObject(properties)).toString();
+    }
+
+    public JSONObject BuildPayloadEndpointCapability(String type, String interfaceValue, String version, JSONObject properties) {
 
         JSONObject capability = new JSONObject();
         capability.put("type", type);
@@ -171,13 +211,43 @@ public class AlexaResponse {
         capability.put("version", version);
 
         if (properties != null)
-            capability.put("properties", new JSONObject(properties));
+            capability.put("properties", properties);
+
+        return capability;
+    }
 
-        return capability.toString();
+    public void SetMessageId(String messageId) {
+        response.getJSONObject("event").getJSONObject("header").put("messageId", messageId);
     }
 
     public void SetPayload(String payload) {
-        response.getJSONObject("event").put("payload", new JSONObject(payload));
+        SetPayload(new JSONObject(payload));
+    }
+
+    public void SetPayload(JSONObject payload) {
+        response.getJSONObject("event").put("payload", payload);
+    }
+
+    // Streams the response as UTF-8 without building an intermediate String.
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        response.write(writer);
+        writer.flush();
+    }
+
+    @Override
+    public boolean isError() {
+        return "ErrorResponse".equals(response.getJSONObject("event").getJSONObject("header").optString("name"));
+    }
+
+    private static boolean IsJSONObject(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isWhitespace(c))
+                return c == '{';
+        }
+        return false;
     }
 
     @Override
@@ -0,0 +1,153 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Serves device state reads from a DeviceStateCache and falls back to the wrapped store on a miss.
+// Writes go to the wrapped store first and are then written through to the cache. A value read on a
+// miss is not cached over a write that went through while it was being read. A read that finds no
+// value is cached too, as a sentinel under the same time-to-live, so a ReportState for an endpoint that
+// was never set does not go to the store each time; the next write replaces it.
+// A write of the value already cached is answered without calling the wrapped store. The cache only
+// reflects what this container has written or read, so its time-to-live bounds how long a change made
+// elsewhere can hide behind a skipped write.
+public class CachingDeviceStateStore implements DeviceStateStore {
+
+    // Cached for a state with no stored value; compared by identity, so no written value matches it
+    private static final String ABSENT = new String("\u0000absent");
+
+    private final DeviceStateStore store;
+    private final DeviceStateCache cache;
+
+    private final AtomicLong writesSkipped = new AtomicLong();
+
+    public CachingDeviceStateStore(DeviceStateStore store, DeviceStateCache cache) {
+        this.store = store;
+        this.cache = cache;
+    }
+
+    public DeviceStateCache getCache() {
+        return cache;
+    }
+
+    public DeviceStateStore getStore() {
+        return store;
+    }
+
+    @Override
+    public boolean setDeviceState(String endpointId, String state, String value) {
+        if (cache.holds(endpointId, state, value)) {
+            writesSkipped.incrementAndGet();
+            return true;
+        }
+        boolean stored;
+        try {
+            stored = store.setDeviceState(endpointId, state, value);
+        } catch (RuntimeException e) {
+            // The write may or may not have happened, so the cached value can no longer be trusted
+            cache.invalidate(endpointId, state);
+            throw e;
+        }
+        if (stored)
+            cache.put(endpointId, state, value);
+        else
+            cache.invalidate(endpointId, state);
+        return stored;
+    }
+
+    // A refused write means the cached value is stale, so the next read goes to the store.
+    @Override
+    public boolean compareAndSetDeviceState(String endpointId, String state, String expected, String value, String writeId) {
+        boolean stored;
+        try {
+            stored = store.compareAndSetDeviceState(endpointId, state, expected, value, writeId);
+        } catch (RuntimeException e) {
+            cache.invalidate(endpointId, state);
+            throw e;
+        }
+        if (stored)
+            cache.put(endpointId, state, value);
+        else
+            cache.invalidate(endpointId, state);
+        return stored;
+    }
+
+    // An endpoint's writes are skipped only if every one of them is cached, since the wrapped store
+    // may write all of an endpoint's values as one item.
+    @Override
+    public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+        Map<String, Boolean> known = new LinkedHashMap<>();
+        for (DeviceStateWrite write : writes) {
+            boolean held = cache.holds(write.getEndpointId(), write.getState(), write.getValue());
+            known.merge(write.getEndpointId(), held, Boolean::logicalAnd);
+        }
+
+        boolean[] stored = new boolean[writes.size()];
+        List<DeviceStateWrite> sent = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i++) {
+            if (known.get(writes.get(i).getEndpointId())) {
+                stored[i] = true;
+            } else {
+                sent.add(writes.get(i));
+                indexes.add(i);
+            }
+        }
+        for (boolean held : known.values()) {
+            if (held)
+                writesSkipped.incrementAndGet();
+        }
+        if (sent.isEmpty())
+            return stored;
+
+        boolean[] results;
+        try {
+            results = store.setDeviceStates(sent);
+        } catch (RuntimeException e) {
+            for (DeviceStateWrite write : sent)
+                cache.invalidate(write.getEndpointId(), write.getState());
+            throw e;
+        }
+        for (int k = 0; k < results.length; k++) {
+            DeviceStateWrite write = sent.get(k);
+            stored[indexes.get(k)] = results[k];
+            if (results[k])
+                cache.put(write.getEndpointId(), write.getState(), write.getValue());
+            else
+                cache.invalidate(write.getEndpointId(), write.getState());
+        }
+        return stored;
+    }
+
+    @Override
+    public String getDeviceState(String endpointId, String state) {
+        String value = cache.get(endpointId, state);
+        if (value == ABSENT)
+            return null;
+        if (value == null) {
+            long sequence = cache.sequence();
+            value = store.getDeviceState(endpointId, state);
+            cache.putIfUnchanged(endpointId, state, value == null ? ABSENT : value, sequence);
+        }
+        return value;
+    }
+
+    // Number of writes, or endpoints of a batch, answered from the cache without calling the store.
+    public long getWritesSkipped() {
+        return writesSkipped.get();
+    }
+}
@@ -0,0 +1,72 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// The directives of one Alexa interface, together with the capability discovered for it and the
+// properties it reports in a StateReport.
+public abstract class CapabilityHandler {
+
+    private final String namespace;
+    private final String[] supported;
+    private final Map<String, DirectiveHandler> handlers = new LinkedHashMap<>();
+
+    protected CapabilityHandler(String namespace, String... supported) {
+        this.namespace = namespace;
+        this.supported = supported;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    // The properties discovered as supported
+    public String[] getSupported() {
+        return supported.clone();
+    }
+
+    // The properties kept in the device state store
+    public String[] getStoredProperties() {
+        return getSupported();
+    }
+
+    public Map<String, DirectiveHandler> getHandlers() {
+        return Collections.unmodifiableMap(handlers);
+    }
+
+    protected final void on(String name, DirectiveHandler handler) {
+        handlers.put(name, handler);
+    }
+
+    // Alexa only accepts ChangeReports for properties discovered as proactively reported.
+    public JSONObject getCapability(boolean proactivelyReported) {
+        JSONObject properties = null;
+        if (supported.length > 0) {
+            JSONArray names = new JSONArray();
+            for (String name : supported)
+                names.put(new JSONObject().put("name", name));
+            properties = new JSONObject().put("supported", names);
+            if (proactivelyReported)
+                properties.put("proactivelyReported", true);
+        }
+        return new AlexaResponse().BuildPayloadEndpointCapability("AlexaInterface", namespace, "3", properties);
+    }
+
+    // Adds the endpoint's current properties to a StateReport.
+    public abstract void addContextProperties(AlexaResponse stateReport, String endpointId);
+}
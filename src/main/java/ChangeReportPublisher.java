@@ -0,0 +1,429 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Sends proactive Alexa.ChangeReport events to the Alexa event gateway.
+// Changes to the same endpoint within CHANGE_REPORT_COALESCE_MILLIS are merged into one report, with
+// the latest value of each property. Reports are sent by a fixed pool of CHANGE_REPORT_MAX_IN_FLIGHT
+// threads over pooled keep-alive connections, and retried with jittered exponential backoff on
+// connection errors, 429 and 5xx. Once CHANGE_REPORT_QUEUE_SIZE reports are waiting or in flight,
+// changes to further endpoints are dropped instead of holding up the directive that caused them.
+// Each report is sent with the access token of the user the endpoint belongs to, so changes made
+// without a resolved user are dropped. Publishing is disabled unless CHANGE_REPORT_URL is set and the
+// skill's credentials to get those tokens are configured.
+public class ChangeReportPublisher {
+
+    public interface TokenProvider {
+
+        // Returns null if the user has no token, in which case the report is not sent.
+        String getToken(String userId) throws IOException;
+    }
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private static final class Change {
+
+        private final String namespace;
+        private final String name;
+        // A String, or an Integer for integer properties
+        private final Object value;
+        private final long timeMillis;
+
+        private Change(String namespace, String name, Object value, long timeMillis) {
+            this.namespace = namespace;
+            this.name = name;
+            this.value = value;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    // Only changed while mapped in pending, which ConcurrentHashMap.compute serializes.
+    private static final class Report {
+
+        private final String userId;
+        private final String endpointId;
+        private final long queuedAt;
+        private final LinkedHashMap<String, Change> changes = new LinkedHashMap<>();
+        private String cause;
+
+        private Report(String userId, String endpointId, long queuedAt) {
+            this.userId = userId;
+            this.endpointId = endpointId;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final URL url;
+    private final TokenProvider tokenProvider;
+    private final int queueCapacity;
+    private final long coalesceMillis;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    private final ConcurrentHashMap<String, Report> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Object idle = new Object();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService senders;
+    private final long startedAt = System.nanoTime();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong queueLatencyCount = new AtomicLong();
+    private final AtomicLong queueLatencyTotalNanos = new AtomicLong();
+    private final AtomicLong queueLatencyMaxNanos = new AtomicLong();
+
+    // tokenProvider returns the event gateway access token for a user. It is called by the sender threads.
+    public ChangeReportPublisher(URL url, TokenProvider tokenProvider, int queueCapacity, long coalesceMillis,
+                                 int maxInFlight, int maxAttempts, long backoffMillis) {
+        this.url = url;
+        this.tokenProvider = tokenProvider;
+        this.queueCapacity = queueCapacity;
+        this.coalesceMillis = coalesceMillis;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+
+        if (url == null) {
+            scheduler = null;
+            senders = null;
+            return;
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("change-report-scheduler"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        senders = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("change-report-sender"));
+    }
+
+    public static ChangeReportPublisher disabled() {
+        return new ChangeReportPublisher(null, userId -> null, 0, 0, 0, 0, 0);
+    }
+
+    // Disabled when tokens is null, since the event gateway would refuse every report.
+    public static ChangeReportPublisher fromEnvironment(EventGatewayTokens tokens) {
+        String url = DynamoDBDeviceStateStore.getEnv("CHANGE_REPORT_URL", null);
+        if (url == null || tokens == null)
+            return disabled();
+
+        ChangeReportPublisher publisher;
+        try {
+            publisher = new ChangeReportPublisher(new URL(url), tokens::getToken,
+                    Integer.parseInt(DynamoDBDeviceStateStore.getEnv("CHANGE_REPORT_QUEUE_SIZE", "1000")),
+                    Long.parseLong(DynamoDBDeviceStateStore.getEnv("CHANGE_REPORT_COALESCE_MILLIS", "200")),
+                    Integer.parseInt(DynamoDBDeviceStateStore.getEnv("CHANGE_REPORT_MAX_IN_FLIGHT", "8")),
+                    Integer.parseInt(DynamoDBDeviceStateStore.getEnv("CHANGE_REPORT_MAX_ATTEMPTS", "3")),
+                    Long.parseLong(DynamoDBDeviceStateStore.getEnv("CHANGE_REPORT_BACKOFF_MILLIS", "100")));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("CHANGE_REPORT_URL is not a valid URL: " + url, e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> publisher.close(1000)));
+        return publisher;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public boolean isEnabled() {
+        return url != null;
+    }
+
+    // Queues a property change of a user's endpoint. Returns false when publishing is disabled or the
+    // change was dropped.
+    public boolean submit(String userId, String endpointId, String namespace, String name, String value, String cause) {
+        return submit(userId, endpointId, namespace, name, value, cause, System.currentTimeMillis());
+    }
+
+    // timeMillis is when the change happened, reported as the property's timeOfSample.
+    public boolean submit(String userId, String endpointId, String namespace, String name, String value, String cause, long timeMillis) {
+        return enqueue(userId, endpointId, namespace, name, value, cause, timeMillis);
+    }
+
+    // For integer properties such as brightness and percentage
+    public boolean submit(String userId, String endpointId, String namespace, String name, int value, String cause) {
+        return enqueue(userId, endpointId, namespace, name, value, cause, System.currentTimeMillis());
+    }
+
+    private boolean enqueue(String userId, String endpointId, String namespace, String name, Object value, String cause, long timeMillis) {
+        if (url == null)
+            return false;
+        submitted.incrementAndGet();
+        // No token can be found without the user
+        if (userId == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        Change change = new Change(namespace, name, value, timeMillis);
+        Report[] created = new Report[1];
+        Report report = pending.compute(endpointId, (id, existing) -> {
+            if (existing == null) {
+                if (outstanding.incrementAndGet() > queueCapacity) {
+                    outstanding.decrementAndGet();
+                    return null;
+                }
+                existing = new Report(userId, id, System.nanoTime());
+                created[0] = existing;
+            } else {
+                coalesced.incrementAndGet();
+            }
+            existing.changes.put(namespace + "|" + name, change);
+            existing.cause = cause;
+            return existing;
+        });
+
+        if (report == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (created[0] != null) {
+            try {
+                scheduler.schedule(() -> dispatch(created[0]), coalesceMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed while the change was queued
+                if (pending.remove(endpointId, created[0]))
+                    complete(failed);
+            }
+        }
+        return true;
+    }
+
+    // Sends everything still in the coalescing window now and waits for the reports in flight.
+    // Returns false if reports were still outstanding after timeoutMillis; with 0 it does not wait.
+    public boolean flush(long timeoutMillis) {
+        if (url == null)
+            return true;
+        for (Report report : pending.values())
+            dispatch(report);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (idle) {
+            while (outstanding.get() > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0)
+                    return false;
+                try {
+                    idle.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void close(long timeoutMillis) {
+        if (url == null)
+            return;
+        flush(timeoutMillis);
+        scheduler.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    private void dispatch(Report report) {
+        // Already sent by a flush
+        if (!pending.remove(report.endpointId, report))
+            return;
+        execute(() -> send(report, 1));
+    }
+
+    private void execute(Runnable task) {
+        try {
+            senders.execute(task);
+        } catch (RejectedExecutionException e) {
+            complete(failed);
+        }
+    }
+
+    private byte[] build(Report report, String token) {
+        AlexaResponse ar = new AlexaResponse("Alexa", "ChangeReport", report.endpointId, token, null);
+
+        JSONArray properties = new JSONArray();
+        for (Change change : report.changes.values()) {
+            JSONObject property = change.value instanceof Integer
+                    ? ar.BuildContextProperty(change.namespace, change.name, (Integer) change.value, 0)
+                    : ar.BuildContextProperty(change.namespace, change.name, (String) change.value, 0);
+            property.put("timeOfSample", TimeOfSample.format(change.timeMillis));
+            properties.put(property);
+        }
+        JSONObject change = new JSONObject();
+        change.put("cause", new JSONObject().put("type", report.cause));
+        change.put("properties", properties);
+        ar.SetPayload(new JSONObject().put("change", change));
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        try {
+            ar.writeTo(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    // The token is looked up on each attempt, since it may have expired while a retry waited.
+    private void send(Report report, int attempt) {
+        if (attempt == 1) {
+            long latency = System.nanoTime() - report.queuedAt;
+            queueLatencyCount.incrementAndGet();
+            queueLatencyTotalNanos.addAndGet(latency);
+            queueLatencyMaxNanos.accumulateAndGet(latency, Math::max);
+        }
+
+        int status;
+        try {
+            String token = tokenProvider.getToken(report.userId);
+            if (token == null) {
+                complete(failed);
+                return;
+            }
+            status = post(build(report, token), token);
+        } catch (IOException e) {
+            status = -1;
+        } catch (RuntimeException e) {
+            complete(failed);
+            return;
+        }
+
+        if (status >= 200 && status < 300) {
+            complete(published);
+            return;
+        }
+        if ((status == -1 || status == 429 || status >= 500) && attempt < maxAttempts) {
+            retried.incrementAndGet();
+            // Full jitter: a random delay up to the exponential backoff for this attempt
+            long delay = ThreadLocalRandom.current().nextLong(backoffMillis * (1L << (attempt - 1)) + 1);
+            try {
+                scheduler.schedule(() -> execute(() -> send(report, attempt + 1)), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                complete(failed);
+            }
+            return;
+        }
+        complete(failed);
+    }
+
+    private int post(byte[] body, String token) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Authorization", "Bearer " + token);
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+        }
+        int status = connection.getResponseCode();
+
+        // Reading the body to the end returns the connection to the JDK's keep-alive pool
+        InputStream inputStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (inputStream != null) {
+            try (InputStream in = inputStream) {
+                byte[] chunk = new byte[1024];
+                while (in.read(chunk) != -1) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private void complete(AtomicLong outcome) {
+        outcome.incrementAndGet();
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    // Changes merged into a report that was already waiting.
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getRetriedCount() {
+        return retried.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    // Reports waiting in the coalescing window, waiting for a sender or in flight.
+    public int getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    // Published reports per second since the publisher was created.
+    public double getPublishRate() {
+        long elapsed = System.nanoTime() - startedAt;
+        return elapsed <= 0 ? 0.0 : published.get() * 1e9 / elapsed;
+    }
+
+    // Time from the first change of a report until its first send attempt.
+    public double getAverageQueueLatencyMillis() {
+        long count = queueLatencyCount.get();
+        return count == 0 ? 0.0 : queueLatencyTotalNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxQueueLatencyMillis() {
+        return queueLatencyMaxNanos.get() / 1e6;
+    }
+}
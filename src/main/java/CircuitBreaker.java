@@ -0,0 +1,79 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+// Stops calling a failing dependency for a while so callers fail fast instead of waiting on it.
+// After failureThreshold consecutive failures the circuit opens and every request is refused for
+// openMillis. Then a single probe request is let through: if it succeeds the circuit closes again,
+// otherwise it stays open for another openMillis. A probe that ends without an answer, such as one cut
+// short by the caller's deadline, also opens it for another openMillis.
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LongSupplier clock;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+    public boolean allowRequest() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return clock.getAsLong() - openedAt >= openMillis && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+            default:
+                // The probe is still in flight
+                return false;
+        }
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    public void onFailure() {
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedAt = clock.getAsLong();
+            state.set(State.OPEN);
+        }
+    }
+
+    public void onProbeAbandoned() {
+        if (state.get() == State.HALF_OPEN) {
+            openedAt = clock.getAsLong();
+            state.compareAndSet(State.HALF_OPEN, State.OPEN);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+}
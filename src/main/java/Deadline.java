@@ -0,0 +1,59 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+// The time budget of the directive being handled on the current thread.
+// The handler starts it from Context.getRemainingTimeInMillis, so calls made while handling the
+// directive can give up in time to still write a response. Without a deadline the budget is unlimited.
+// Work handed to a pool thread takes the deadline along with callWithin.
+public final class Deadline {
+
+    private static final ThreadLocal<long[]> deadline = ThreadLocal.withInitial(() -> new long[] {Long.MAX_VALUE});
+
+    private Deadline() {
+    }
+
+    public static void start(long budgetMillis) {
+        deadline.get()[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(budgetMillis, 0));
+    }
+
+    public static void clear() {
+        deadline.get()[0] = Long.MAX_VALUE;
+    }
+
+    // Long.MAX_VALUE when no deadline is set.
+    public static long remainingNanos() {
+        long end = deadline.get()[0];
+        return end == Long.MAX_VALUE ? Long.MAX_VALUE : end - System.nanoTime();
+    }
+
+    // The System.nanoTime at which the deadline passes, Long.MAX_VALUE when no deadline is set.
+    public static long endNanos() {
+        return deadline.get()[0];
+    }
+
+    // Runs operation on the current thread with the deadline ending at endNanos, then restores the
+    // thread's own deadline.
+    public static <T> T callWithin(long endNanos, Callable<T> operation) throws Exception {
+        long[] current = deadline.get();
+        long previous = current[0];
+        current[0] = endNanos;
+        try {
+            return operation.call();
+        } finally {
+            current[0] = previous;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// A bounded, least-recently-used cache of device state values with a time-to-live.
+// Every put and invalidation takes the next number of a write sequence, so a value read from the store
+// can be cached only if nothing was written to its key while it was being read.
+public class DeviceStateCache {
+
+    private static final class Entry {
+
+        private final String value;
+        private final long expiresAt;
+        private final long sequence;
+
+        private Entry(String value, long expiresAt, long sequence) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.sequence = sequence;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries;
+    // Guarded by entries
+    private long sequence;
+    private long lastInvalidated;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public DeviceStateCache(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, System::currentTimeMillis);
+    }
+
+    DeviceStateCache(int maxSize, long ttlMillis, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= DeviceStateCache.this.maxSize)
+                    return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    public static DeviceStateCache fromEnvironment() {
+        return new DeviceStateCache(
+                Integer.parseInt(DynamoDBDeviceStateStore.getEnv("STATE_CACHE_SIZE", "10000")),
+                Long.parseLong(DynamoDBDeviceStateStore.getEnv("STATE_CACHE_TTL_MILLIS", "30000")));
+    }
+
+    public String get(String endpointId, String state) {
+        String key = key(endpointId, state);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= clock.getAsLong()) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    // Whether the value is cached for the key. Not counted as a hit or a miss.
+    public boolean holds(String endpointId, String state, String value) {
+        String key = key(endpointId, state);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry != null && entry.expiresAt > clock.getAsLong() && entry.value.equals(value);
+        }
+    }
+
+    // Caches a value that was just written.
+    public void put(String endpointId, String state, String value) {
+        long expiresAt = clock.getAsLong() + ttlMillis;
+        synchronized (entries) {
+            entries.put(key(endpointId, state), new Entry(value, expiresAt, ++sequence));
+        }
+    }
+
+    // The current write sequence, taken before reading a value from the store to pass to putIfUnchanged.
+    public long sequence() {
+        synchronized (entries) {
+            return sequence;
+        }
+    }
+
+    // Caches a value read from the store, unless the key was written since sequence was taken, as the
+    // value read may be older than the one written. Invalidations are not kept per key, so any
+    // invalidation since then also refuses it. Returns whether the value was cached.
+    public boolean putIfUnchanged(String endpointId, String state, String value, long sequence) {
+        String key = key(endpointId, state);
+        long expiresAt = clock.getAsLong() + ttlMillis;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null ? entry.sequence > sequence : lastInvalidated > sequence)
+                return false;
+            entries.put(key, new Entry(value, expiresAt, ++this.sequence));
+            return true;
+        }
+    }
+
+    public void invalidate(String endpointId, String state) {
+        synchronized (entries) {
+            entries.remove(key(endpointId, state));
+            lastInvalidated = ++sequence;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private static String key(String endpointId, String state) {
+        return endpointId + '\u0000' + state;
+    }
+}
@@ -0,0 +1,49 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.List;
+
+// Persists the state reported by the virtual devices.
+public interface DeviceStateStore {
+
+    boolean setDeviceState(String endpointId, String state, String value);
+
+    // Returns null when no value has been stored for the endpoint.
+    String getDeviceState(String endpointId, String state);
+
+    // Stores value only if the state is still expected, null meaning no value. Returns false if another
+    // write changed it first. writeId identifies this write, so a retry of a write that was made after all
+    // succeeds instead of failing on its own value.
+    boolean compareAndSetDeviceState(String endpointId, String state, String expected, String value, String writeId);
+
+    // Stores several values. The result has an entry per write, true where the value was stored.
+    // Stores that can write in bulk override this; by default the writes are made one at a time.
+    default boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+        boolean[] stored = new boolean[writes.size()];
+        for (int i = 0; i < stored.length; i++) {
+            DeviceStateWrite write = writes.get(i);
+            try {
+                stored[i] = setDeviceState(write.getEndpointId(), write.getState(), write.getValue());
+            } catch (RuntimeException e) {
+                stored[i] = false;
+            }
+        }
+        return stored;
+    }
+
+    // True when every call gives up by itself once the current thread's Deadline has passed, so a caller
+    // does not need another thread to stop waiting for it.
+    default boolean isBoundedByDeadline() {
+        return false;
+    }
+}
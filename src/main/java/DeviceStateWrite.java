@@ -0,0 +1,32 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+// One state value to store, as part of a batch.
+public class DeviceStateWrite {
+
+    private final String endpointId;
+    private final String state;
+    private final String value;
+
+    public DeviceStateWrite(String endpointId, String state, String value) {
+        this.endpointId = endpointId;
+        this.state = state;
+        this.value = value;
+    }
+
+    public String getEndpointId() { return endpointId; }
+
+    public String getState() { return state; }
+
+    public String getValue() { return value; }
+}
@@ -0,0 +1,384 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+// A directive read header-first from the raw request bytes.
+// Only directive.header and directive.endpoint are decoded while scanning; the payload is skipped
+// and only turned into a JSONObject when a caller asks for it.
+public class Directive {
+
+    private static final int ROOT = 0;
+    private static final int DIRECTIVE = 1;
+    private static final int HEADER = 2;
+    private static final int ENDPOINT = 3;
+    private static final int SCOPE = 4;
+
+    private static final byte[] KEY_DIRECTIVE = ascii("directive");
+    private static final byte[] KEY_HEADER = ascii("header");
+    private static final byte[] KEY_ENDPOINT = ascii("endpoint");
+    private static final byte[] KEY_PAYLOAD = ascii("payload");
+    private static final byte[] KEY_NAMESPACE = ascii("namespace");
+    private static final byte[] KEY_NAME = ascii("name");
+    private static final byte[] KEY_MESSAGE_ID = ascii("messageId");
+    private static final byte[] KEY_CORRELATION_TOKEN = ascii("correlationToken");
+    private static final byte[] KEY_PAYLOAD_VERSION = ascii("payloadVersion");
+    private static final byte[] KEY_ENDPOINT_ID = ascii("endpointId");
+    private static final byte[] KEY_SCOPE = ascii("scope");
+    private static final byte[] KEY_TOKEN = ascii("token");
+
+    private final byte[] bytes;
+    private final int offset;
+    // The index just past the directive's last byte
+    private final int end;
+    private int pos;
+
+    private String namespace;
+    private String name;
+    private String messageId;
+    private String correlationToken;
+    private String payloadVersion;
+    private String endpointId;
+    private String token;
+
+    private int payloadStart = -1;
+    private int payloadEnd = -1;
+    private JSONObject payload;
+
+    private Directive(byte[] bytes, int offset, int end) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.end = end;
+        this.pos = offset;
+    }
+
+    public static Directive parse(InputStream inputStream) throws IOException {
+        Directive directive = read(inputStream);
+        directive.skipWhitespace();
+        directive.readObject(ROOT);
+        return directive;
+    }
+
+    public static Directive parse(byte[] bytes, int length) {
+        return parse(bytes, 0, length);
+    }
+
+    // Parses the directive in bytes from offset up to end. The bytes are not copied.
+    public static Directive parse(byte[] bytes, int offset, int end) {
+        Directive directive = new Directive(bytes, offset, end);
+        directive.skipWhitespace();
+        directive.readObject(ROOT);
+        return directive;
+    }
+
+    // Parses a JSON array of directives. Each element is parsed in place from its range of the request,
+    // so the array is read only once. An element that is not a directive is null in the result.
+    public static Directive[] parseArray(InputStream inputStream) throws IOException {
+        Directive array = read(inputStream);
+        array.skipWhitespace();
+        array.expect('[');
+        array.skipWhitespace();
+        List<Directive> directives = new ArrayList<>();
+        if (array.peek() == ']')
+            return new Directive[0];
+        while (true) {
+            array.skipWhitespace();
+            int start = array.pos;
+            array.skipValue();
+            try {
+                directives.add(parse(array.bytes, start, array.pos));
+            } catch (RuntimeException e) {
+                directives.add(null);
+            }
+            array.skipWhitespace();
+            byte c = array.next();
+            if (c == ']')
+                return directives.toArray(new Directive[0]);
+            if (c != ',')
+                throw array.error("Expected ',' or ']'");
+        }
+    }
+
+    // Reads the whole request, unparsed.
+    private static Directive read(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[4096];
+        int length = 0;
+        int read;
+        while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        return new Directive(buffer, 0, length);
+    }
+
+    public String getNamespace() { return namespace; }
+
+    public String getName() { return name; }
+
+    public String getMessageId() { return messageId; }
+
+    public String getCorrelationToken() { return correlationToken; }
+
+    public String getPayloadVersion() { return payloadVersion; }
+
+    public String getEndpointId() { return endpointId; }
+
+    public String getToken() { return token; }
+
+    public boolean hasPayload() {
+        return payloadStart >= 0;
+    }
+
+    public JSONObject getPayload() {
+        if (payload == null) {
+            if (payloadStart < 0 || bytes[payloadStart] != '{')
+                payload = new JSONObject();
+            else
+                payload = new JSONObject(new String(bytes, payloadStart, payloadEnd - payloadStart, StandardCharsets.UTF_8));
+        }
+        return payload;
+    }
+
+    public int getLength() {
+        return end - offset;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes, offset, end - offset);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private void readObject(int context) {
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            int keyStart = pos;
+            int keyEnd = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            readMember(context, keyStart, keyEnd - keyStart);
+            skipWhitespace();
+            byte c = next();
+            if (c == '}')
+                return;
+            if (c != ',')
+                throw error("Expected ',' or '}'");
+        }
+    }
+
+    private void readMember(int context, int keyStart, int keyLength) {
+        switch (context) {
+            case ROOT:
+                if (keyEquals(keyStart, keyLength, KEY_DIRECTIVE)) {
+                    readObjectOrSkip(DIRECTIVE);
+                    return;
+                }
+                break;
+            case DIRECTIVE:
+                if (keyEquals(keyStart, keyLength, KEY_HEADER)) {
+                    readObjectOrSkip(HEADER);
+                    return;
+                }
+                if (keyEquals(keyStart, keyLength, KEY_ENDPOINT)) {
+                    readObjectOrSkip(ENDPOINT);
+                    return;
+                }
+                if (keyEquals(keyStart, keyLength, KEY_PAYLOAD)) {
+                    payloadStart = pos;
+                    skipValue();
+                    payloadEnd = pos;
+                    return;
+                }
+                break;
+            case HEADER:
+                if (keyEquals(keyStart, keyLength, KEY_NAMESPACE)) {
+                    namespace = readStringValue();
+                    return;
+                }
+                if (keyEquals(keyStart, keyLength, KEY_NAME)) {
+                    name = readStringValue();
+                    return;
+                }
+                if (keyEquals(keyStart, keyLength, KEY_MESSAGE_ID)) {
+                    messageId = readStringValue();
+                    return;
+                }
+                if (keyEquals(keyStart, keyLength, KEY_CORRELATION_TOKEN)) {
+                    correlationToken = readStringValue();
+                    return;
+                }
+                if (keyEquals(keyStart, keyLength, KEY_PAYLOAD_VERSION)) {
+                    payloadVersion = readStringValue();
+                    return;
+                }
+                break;
+            case ENDPOINT:
+                if (keyEquals(keyStart, keyLength, KEY_ENDPOINT_ID)) {
+                    endpointId = readStringValue();
+                    return;
+                }
+                if (keyEquals(keyStart, keyLength, KEY_SCOPE)) {
+                    readObjectOrSkip(SCOPE);
+                    return;
+                }
+                break;
+            case SCOPE:
+                if (keyEquals(keyStart, keyLength, KEY_TOKEN)) {
+                    token = readStringValue();
+                    return;
+                }
+                break;
+        }
+        skipValue();
+    }
+
+    private void readObjectOrSkip(int context) {
+        if (peek() == '{')
+            readObject(context);
+        else
+            skipValue();
+    }
+
+    // Returns the string value at the current position, or null (after skipping it) for any other value.
+    private String readStringValue() {
+        if (peek() != '"') {
+            skipValue();
+            return null;
+        }
+        pos++;
+        int start = pos;
+        boolean escaped = false;
+        while (true) {
+            byte c = next();
+            if (c == '"')
+                break;
+            if (c == '\\') {
+                escaped = true;
+                next();
+            }
+        }
+        if (!escaped)
+            return new String(bytes, start, pos - 1 - start, StandardCharsets.UTF_8);
+
+        String raw = new String(bytes, start - 1, pos - start + 1, StandardCharsets.UTF_8);
+        return (String) new JSONTokener(raw).nextValue();
+    }
+
+    // Skips the remainder of a string whose opening quote has been consumed and returns the index of the closing quote.
+    private int skipString() {
+        while (true) {
+            byte c = next();
+            if (c == '"')
+                return pos - 1;
+            if (c == '\\')
+                next();
+        }
+    }
+
+    private void skipValue() {
+        byte c = peek();
+        if (c == '"') {
+            pos++;
+            skipString();
+            return;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = next();
+                if (c == '"')
+                    skipString();
+                else if (c == '{' || c == '[')
+                    depth++;
+                else if (c == '}' || c == ']')
+                    depth--;
+            } while (depth > 0);
+            return;
+        }
+        int start = pos;
+        while (pos < end) {
+            c = bytes[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                break;
+            pos++;
+        }
+        if (pos == start)
+            throw error("Expected a value");
+    }
+
+    private boolean keyEquals(int start, int keyLength, byte[] key) {
+        if (keyLength != key.length)
+            return false;
+        for (int i = 0; i < keyLength; i++) {
+            if (bytes[start + i] != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte c = bytes[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return;
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        if (pos >= end)
+            throw error("Unexpected end of directive");
+        return bytes[pos];
+    }
+
+    private byte next() {
+        if (pos >= end)
+            throw error("Unexpected end of directive");
+        return bytes[pos++];
+    }
+
+    private void expect(char c) {
+        if (next() != c)
+            throw error("Expected '" + c + "'");
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at " + pos);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
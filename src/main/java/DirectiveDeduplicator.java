@@ -0,0 +1,158 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Answers retried directives with the response bytes of the first attempt.
+// Alexa retries a directive when the response is slow; each retry carries the same correlationToken (or
+// messageId), so the retry can be served from this window instead of writing the device state again.
+// A retry that arrives while the first attempt is still running waits for its result. The window is
+// bounded by DEDUPE_WINDOW_SIZE entries and DEDUPE_TTL_MILLIS; a size of 0 disables it.
+// Error responses are not kept, so a retry after a failure is handled again.
+public class DirectiveDeduplicator {
+
+    private static final class Entry {
+
+        private final String key;
+        private final long createdAt;
+        private final CompletableFuture<byte[]> response = new CompletableFuture<>();
+
+        private Entry(String key, long createdAt) {
+            this.key = key;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public DirectiveDeduplicator(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, System::currentTimeMillis);
+    }
+
+    DirectiveDeduplicator(int maxSize, long ttlMillis, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    public static DirectiveDeduplicator fromEnvironment() {
+        return new DirectiveDeduplicator(
+                Integer.parseInt(DynamoDBDeviceStateStore.getEnv("DEDUPE_WINDOW_SIZE", "10000")),
+                Long.parseLong(DynamoDBDeviceStateStore.getEnv("DEDUPE_TTL_MILLIS", "60000")));
+    }
+
+    // Returns null for directives that are not deduplicated: reads such as Discovery and ReportState,
+    // and directives without a correlationToken or messageId.
+    public String keyFor(Directive directive) {
+        if (maxSize <= 0)
+            return null;
+        String namespace = directive.getNamespace();
+        if (namespace == null || "Alexa".equals(namespace) || "Alexa.Discovery".equals(namespace))
+            return null;
+        String id = directive.getCorrelationToken() != null ? directive.getCorrelationToken() : directive.getMessageId();
+        if (id == null)
+            return null;
+        return namespace + '|' + directive.getName() + '|' + directive.getEndpointId() + '|' + id;
+    }
+
+    public byte[] execute(String key, Callable<DirectiveResponse> action) throws Exception {
+        long now = clock.getAsLong();
+        evict(now);
+
+        Entry entry = new Entry(key, now);
+        Entry existing = entries.putIfAbsent(key, entry);
+        while (existing != null) {
+            if (now - existing.createdAt < ttlMillis) {
+                suppressed.incrementAndGet();
+                return await(existing);
+            }
+            if (entries.replace(key, existing, entry))
+                break;
+            existing = entries.putIfAbsent(key, entry);
+        }
+        order.add(entry);
+
+        try {
+            DirectiveResponse response = action.call();
+            byte[] bytes = serialize(response);
+            if (response.isError())
+                entries.remove(key, entry);
+            entry.response.complete(bytes);
+            executed.incrementAndGet();
+            return bytes;
+        } catch (Exception e) {
+            entries.remove(key, entry);
+            entry.response.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public static byte[] serialize(DirectiveResponse response) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        response.writeTo(buffer);
+        return buffer.toByteArray();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    private static byte[] await(Entry entry) throws Exception {
+        try {
+            return entry.response.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    // Entries are evicted oldest first, once they have expired or the window is over its size.
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = order.peek()) != null && (now - oldest.createdAt >= ttlMillis || entries.size() >= maxSize)) {
+            if (order.remove(oldest) && entries.remove(oldest.key, oldest))
+                evicted.incrementAndGet();
+        }
+    }
+}
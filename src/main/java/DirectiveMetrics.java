@@ -0,0 +1,233 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+// Latency histograms and error counts for each directive namespace and name, and for each DynamoDB call.
+// Recording is lock-free and always on. flush writes one CloudWatch Embedded Metric Format record per
+// directive type and per DynamoDB operation that saw traffic since the previous flush, so CloudWatch
+// can chart p50/p99/p99.9 per directive type from the logs without tracing every call. The cumulative
+// percentiles since the container started are included as properties for log queries.
+// At most MAX_DIRECTIVE_TYPES namespace/name pairs are tracked; the rest are counted as OTHER/OTHER.
+public class DirectiveMetrics {
+
+    static final int MAX_DIRECTIVE_TYPES = 64;
+
+    private static final class DirectiveType {
+
+        private final String namespace;
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram parseLatency = new LatencyHistogram();
+        private final LatencyHistogram serializeLatency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private long reportedErrors;
+
+        private DirectiveType(String namespace, String name) {
+            this.namespace = namespace;
+            this.name = name;
+        }
+    }
+
+    private static final class Operation {
+
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private long reportedErrors;
+
+        private Operation(String name) {
+            this.name = name;
+        }
+    }
+
+    private final String metricNamespace;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, DirectiveType>> directiveTypes = new ConcurrentHashMap<>();
+    private final AtomicInteger directiveTypeCount = new AtomicInteger();
+    private final DirectiveType other = new DirectiveType("OTHER", "OTHER");
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    public DirectiveMetrics(String metricNamespace) {
+        this.metricNamespace = metricNamespace;
+    }
+
+    public static DirectiveMetrics fromEnvironment() {
+        return new DirectiveMetrics(DynamoDBDeviceStateStore.getEnv("METRICS_NAMESPACE", "SampleSmartHome"));
+    }
+
+    // Times are in nanoseconds; pass a negative time for a phase that did not run.
+    public void recordDirective(String namespace, String name, long totalNanos, long parseNanos, long serializeNanos, boolean error) {
+        DirectiveType type = directiveType(namespace == null ? "INVALID" : namespace, name == null ? "INVALID" : name);
+        type.latency.record(totalNanos);
+        if (parseNanos >= 0)
+            type.parseLatency.record(parseNanos);
+        if (serializeNanos >= 0)
+            type.serializeLatency.record(serializeNanos);
+        if (error)
+            type.errors.incrementAndGet();
+    }
+
+    public void recordOperation(String operation, long nanos, boolean error) {
+        Operation op = operations.get(operation);
+        if (op == null)
+            op = operations.computeIfAbsent(operation, Operation::new);
+        op.latency.record(nanos);
+        if (error)
+            op.errors.incrementAndGet();
+    }
+
+    private DirectiveType directiveType(String namespace, String name) {
+        ConcurrentHashMap<String, DirectiveType> names = directiveTypes.get(namespace);
+        DirectiveType type = names == null ? null : names.get(name);
+        if (type != null)
+            return type;
+
+        // Namespaces and names come from the request, so the number tracked is bounded
+        synchronized (directiveTypes) {
+            names = directiveTypes.get(namespace);
+            type = names == null ? null : names.get(name);
+            if (type != null)
+                return type;
+            if (directiveTypeCount.get() >= MAX_DIRECTIVE_TYPES)
+                return other;
+            if (names == null) {
+                names = new ConcurrentHashMap<>();
+                directiveTypes.put(namespace, names);
+            }
+            type = new DirectiveType(namespace, name);
+            names.put(name, type);
+            directiveTypeCount.incrementAndGet();
+            return type;
+        }
+    }
+
+    public LatencyHistogram getLatency(String namespace, String name) {
+        ConcurrentHashMap<String, DirectiveType> names = directiveTypes.get(namespace);
+        DirectiveType type = names == null ? null : names.get(name);
+        return type == null ? null : type.latency;
+    }
+
+    public LatencyHistogram getOperationLatency(String operation) {
+        Operation op = operations.get(operation);
+        return op == null ? null : op.latency;
+    }
+
+    public long getErrorCount(String namespace, String name) {
+        ConcurrentHashMap<String, DirectiveType> names = directiveTypes.get(namespace);
+        DirectiveType type = names == null ? null : names.get(name);
+        return type == null ? 0 : type.errors.get();
+    }
+
+    // Writes the EMF records for everything recorded since the previous flush to the logger.
+    public synchronized void flush(StructuredLogger logger) {
+        long timestamp = System.currentTimeMillis();
+        for (Map<String, DirectiveType> names : directiveTypes.values())
+            for (DirectiveType type : names.values())
+                flush(logger, timestamp, type);
+        flush(logger, timestamp, other);
+        for (Operation op : operations.values())
+            flush(logger, timestamp, op);
+    }
+
+    private void flush(StructuredLogger logger, long timestamp, DirectiveType type) {
+        StringBuilder values = new StringBuilder(512);
+        StringBuilder metrics = new StringBuilder(256);
+        appendHistogram(values, metrics, "Latency", type.latency);
+        appendHistogram(values, metrics, "ParseLatency", type.parseLatency);
+        appendHistogram(values, metrics, "SerializeLatency", type.serializeLatency);
+        if (values.length() == 0)
+            return;
+
+        long errors = type.errors.get();
+        appendCount(values, metrics, "Errors", errors - type.reportedErrors);
+        type.reportedErrors = errors;
+
+        values.append(",\"DirectiveNamespace\":").append(JSONObject.quote(type.namespace))
+                .append(",\"DirectiveName\":").append(JSONObject.quote(type.name));
+        appendPercentiles(values, "Latency", type.latency);
+        logger.log(record(timestamp, "[\"DirectiveNamespace\",\"DirectiveName\"]", metrics, values));
+    }
+
+    private void flush(StructuredLogger logger, long timestamp, Operation op) {
+        StringBuilder values = new StringBuilder(512);
+        StringBuilder metrics = new StringBuilder(128);
+        appendHistogram(values, metrics, "DynamoDBLatency", op.latency);
+        if (values.length() == 0)
+            return;
+
+        long errors = op.errors.get();
+        appendCount(values, metrics, "DynamoDBErrors", errors - op.reportedErrors);
+        op.reportedErrors = errors;
+
+        values.append(",\"Operation\":").append(JSONObject.quote(op.name));
+        appendPercentiles(values, "DynamoDBLatency", op.latency);
+        logger.log(record(timestamp, "[\"Operation\"]", metrics, values));
+    }
+
+    private static void appendHistogram(StringBuilder values, StringBuilder metrics, String name, LatencyHistogram histogram) {
+        int mark = values.length();
+        values.append(",\"").append(name).append("\":");
+        if (!histogram.appendInterval(values)) {
+            values.setLength(mark);
+            return;
+        }
+        metrics.append(metrics.length() == 0 ? "" : ",")
+                .append("{\"Name\":\"").append(name).append("\",\"Unit\":\"Milliseconds\"}");
+    }
+
+    private static void appendCount(StringBuilder values, StringBuilder metrics, String name, long count) {
+        values.append(",\"").append(name).append("\":").append(count);
+        metrics.append(",{\"Name\":\"").append(name).append("\",\"Unit\":\"Count\"}");
+    }
+
+    private static void appendPercentiles(StringBuilder values, String name, LatencyHistogram histogram) {
+        values.append(",\"").append(name).append("P50\":").append(histogram.getPercentileMillis(50.0))
+                .append(",\"").append(name).append("P99\":").append(histogram.getPercentileMillis(99.0))
+                .append(",\"").append(name).append("P999\":").append(histogram.getPercentileMillis(99.9));
+    }
+
+    private String record(long timestamp, String dimensions, StringBuilder metrics, StringBuilder values) {
+        return new StringBuilder(256 + values.length() + metrics.length())
+                .append("{\"_aws\":{\"Timestamp\":").append(timestamp)
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":").append(JSONObject.quote(metricNamespace))
+                .append(",\"Dimensions\":[").append(dimensions)
+                .append("],\"Metrics\":[").append(metrics).append("]}]}")
+                .append(values).append('}').toString();
+    }
+
+    // Appends "namespace/name":{"count":..,"p50":..,"p99":..,"p999":..,"errors":..} for every directive type.
+    public void appendSummary(StringBuilder sb) {
+        sb.append('{');
+        boolean first = true;
+        for (Map<String, DirectiveType> names : directiveTypes.values()) {
+            for (DirectiveType type : names.values()) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                LatencyHistogram latency = type.latency;
+                sb.append(JSONObject.quote(type.namespace + "/" + type.name))
+                        .append(":{\"count\":").append(latency.getCount())
+                        .append(",\"p50\":").append(latency.getPercentileMillis(50.0))
+                        .append(",\"p99\":").append(latency.getPercentileMillis(99.0))
+                        .append(",\"p999\":").append(latency.getPercentileMillis(99.9))
+                        .append(",\"errors\":").append(type.errors.get()).append('}');
+            }
+        }
+        sb.append('}');
+    }
+}
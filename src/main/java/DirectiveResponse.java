@@ -0,0 +1,25 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A response that can be written straight to the handler OutputStream.
+public interface DirectiveResponse {
+
+    void writeTo(OutputStream outputStream) throws IOException;
+
+    default boolean isError() {
+        return false;
+    }
+}
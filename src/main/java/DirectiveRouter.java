@@ -0,0 +1,96 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+
+// Finds the handler of a directive by its namespace and name. Built once when the skill starts, so a
+// directive is routed with two hash lookups however many interfaces are registered.
+public class DirectiveRouter {
+
+    private final Map<String, Map<String, DirectiveHandler>> handlers = new HashMap<>();
+    private final List<CapabilityHandler> capabilityHandlers = new ArrayList<>();
+
+    public DirectiveRouter with(String namespace, String name, DirectiveHandler handler) {
+        handlers.computeIfAbsent(namespace, n -> new HashMap<>()).put(name, handler);
+        return this;
+    }
+
+    // Routes the interface's directives and adds its capability to discovery and its properties to StateReports.
+    public DirectiveRouter with(CapabilityHandler capabilityHandler) {
+        capabilityHandlers.removeIf(h -> h.getNamespace().equals(capabilityHandler.getNamespace()));
+        capabilityHandlers.add(capabilityHandler);
+        for (Map.Entry<String, DirectiveHandler> entry : capabilityHandler.getHandlers().entrySet())
+            with(capabilityHandler.getNamespace(), entry.getKey(), entry.getValue());
+        return this;
+    }
+
+    // Returns null if no handler is registered for the directive.
+    public DirectiveHandler find(String namespace, String name) {
+        Map<String, DirectiveHandler> names = namespace == null ? null : handlers.get(namespace);
+        return names == null || name == null ? null : names.get(name);
+    }
+
+    public List<CapabilityHandler> getCapabilityHandlers() {
+        return Collections.unmodifiableList(capabilityHandlers);
+    }
+
+    public CapabilityHandler getCapabilityHandler(String namespace) {
+        for (CapabilityHandler handler : capabilityHandlers) {
+            if (handler.getNamespace().equals(namespace))
+                return handler;
+        }
+        return null;
+    }
+
+    // The capabilities discovered for each endpoint: the Alexa interface and one per registered interface.
+    public JSONArray getCapabilities(boolean proactivelyReported) {
+        JSONArray capabilities = new JSONArray();
+        capabilities.put(new AlexaResponse().BuildPayloadEndpointCapability("AlexaInterface", "Alexa", "3", null));
+        for (CapabilityHandler handler : capabilityHandlers)
+            capabilities.put(handler.getCapability(proactivelyReported));
+        return capabilities;
+    }
+
+    // True when property is the only property any registered interface keeps in the device state store.
+    public boolean storesOnly(String property) {
+        for (CapabilityHandler handler : capabilityHandlers) {
+            for (String stored : handler.getStoredProperties()) {
+                if (!stored.equals(property))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns null for an interface the skill does not implement.
+    public static CapabilityHandler capabilityFor(String namespace) {
+        switch (namespace) {
+            case "Alexa.PowerController":
+                return new PowerControllerHandler();
+            case "Alexa.BrightnessController":
+                return LevelControllerHandler.brightness();
+            case "Alexa.PercentageController":
+                return LevelControllerHandler.percentage();
+            case "Alexa.EndpointHealth":
+                return new EndpointHealthHandler();
+            default:
+                return null;
+        }
+    }
+}
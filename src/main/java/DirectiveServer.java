@@ -0,0 +1,323 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Runs the skill as a long-lived HTTP service instead of a Lambda function.
+// POST a directive to /directive and it is dispatched through AlexaHandler.handler, each request on its
+// own virtual thread when the JVM supports them (Java 21+) and on a cached thread pool otherwise. At
+// most MAX_CONCURRENCY directives run at once; the rest wait up to QUEUE_TIMEOUT_MILLIS for a slot and
+// are answered with 503 after that. GET /metrics reports the in-flight and queued counts, the device
+// state cache, DynamoDB write, dedupe window and ChangeReport counters, and the latency percentiles of
+// each directive type. Latency metrics are written as EMF records every METRICS_FLUSH_MILLIS.
+public class DirectiveServer {
+
+    private final HttpServer server;
+    private final ExecutorService executorService;
+    private final boolean virtualThreads;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final long queueTimeoutMillis;
+    private final long requestTimeoutMillis;
+    private final long metricsFlushMillis;
+    private final ScheduledExecutorService metricsFlusher;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean stopping;
+
+    public DirectiveServer(int port, int maxConcurrency, long queueTimeoutMillis, long requestTimeoutMillis) throws IOException {
+        this(port, maxConcurrency, queueTimeoutMillis, requestTimeoutMillis, 60000);
+    }
+
+    // Metrics are written as EMF records every metricsFlushMillis rather than once per directive.
+    public DirectiveServer(int port, int maxConcurrency, long queueTimeoutMillis, long requestTimeoutMillis,
+                           long metricsFlushMillis) throws IOException {
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.metricsFlushMillis = metricsFlushMillis;
+        this.metricsFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executorService = virtual != null ? virtual : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "directive-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(countingExecutor(executorService));
+        server.createContext("/directive", this::handleDirective);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(DynamoDBDeviceStateStore.getEnv("PORT", "8080"));
+        int maxConcurrency = Integer.parseInt(DynamoDBDeviceStateStore.getEnv("MAX_CONCURRENCY",
+                String.valueOf(Runtime.getRuntime().availableProcessors() * 32)));
+        long queueTimeoutMillis = Long.parseLong(DynamoDBDeviceStateStore.getEnv("QUEUE_TIMEOUT_MILLIS", "1000"));
+        long requestTimeoutMillis = Long.parseLong(DynamoDBDeviceStateStore.getEnv("REQUEST_TIMEOUT_MILLIS", "8000"));
+        long metricsFlushMillis = Long.parseLong(DynamoDBDeviceStateStore.getEnv("METRICS_FLUSH_MILLIS", "60000"));
+
+        DirectiveServer directiveServer = new DirectiveServer(port, maxConcurrency, queueTimeoutMillis, requestTimeoutMillis, metricsFlushMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> directiveServer.stop(10)));
+        directiveServer.start();
+    }
+
+    // Uses Executors.newVirtualThreadPerTaskExecutor when available; the sample is still compiled for Java 8.
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private Executor countingExecutor(Executor delegate) {
+        return task -> {
+            queued.incrementAndGet();
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                task.run();
+            });
+        };
+    }
+
+    public void start() {
+        // Loads and primes AlexaHandler before the first directive arrives
+        AlexaHandler.getLogger();
+        server.start();
+        metricsFlusher.scheduleAtFixedRate(this::flushMetrics, metricsFlushMillis, metricsFlushMillis, TimeUnit.MILLISECONDS);
+        AlexaHandler.getLogger().log("{\"time\":\"" + TimeOfSample.now() + "\",\"level\":\"INFO\",\"type\":\"serverStarted\"" +
+                ",\"port\":" + getPort() + ",\"maxConcurrency\":" + maxConcurrency + ",\"virtualThreads\":" + virtualThreads + "}");
+    }
+
+    // Stops accepting directives, waits up to delaySeconds for in-flight ones to finish, then shuts down.
+    public void stop(int delaySeconds) {
+        stopping = true;
+        server.stop(delaySeconds);
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metricsFlusher.shutdownNow();
+        flushMetrics();
+        AlexaHandler.getLogger().flush(1000);
+    }
+
+    private void flushMetrics() {
+        try {
+            AlexaHandler.getMetrics().flush(AlexaHandler.getLogger());
+        } catch (RuntimeException e) {
+            // A failed flush must not cancel the schedule
+            AlexaHandler.getLogger().logError(null, e);
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getQueueDepth() {
+        return queued.get() + waiting.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getHandledCount() {
+        return handled.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void handleDirective(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "{\"error\":\"Method not allowed\"}");
+                return;
+            }
+            if (stopping || !acquire()) {
+                rejected.incrementAndGet();
+                send(exchange, 503, "{\"error\":\"Too many directives in flight\"}");
+                return;
+            }
+
+            inFlight.incrementAndGet();
+            ByteArrayOutputStream response = new ByteArrayOutputStream(1024);
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                AlexaHandler.handler(inputStream, response, new ServerContext(requestTimeoutMillis));
+            } finally {
+                inFlight.decrementAndGet();
+                permits.release();
+            }
+            handled.incrementAndGet();
+
+            if (response.size() == 0) {
+                send(exchange, 500, "{\"error\":\"Directive could not be handled\"}");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.size());
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                response.writeTo(outputStream);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean acquire() {
+        waiting.incrementAndGet();
+        try {
+            return permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"inFlight\":").append(inFlight.get())
+                    .append(",\"queueDepth\":").append(getQueueDepth())
+                    .append(",\"handled\":").append(handled.get())
+                    .append(",\"rejected\":").append(rejected.get())
+                    .append(",\"maxConcurrency\":").append(maxConcurrency)
+                    .append(",\"virtualThreads\":").append(virtualThreads);
+
+            DeviceStateStore store = AlexaHandler.getDeviceStateStore();
+            if (store instanceof CachingDeviceStateStore) {
+                DeviceStateCache cache = ((CachingDeviceStateStore) store).getCache();
+                sb.append(",\"stateCache\":{\"size\":").append(cache.size())
+                        .append(",\"hitRate\":").append(cache.getHitRate())
+                        .append(",\"hits\":").append(cache.getHitCount())
+                        .append(",\"misses\":").append(cache.getMissCount())
+                        .append(",\"evictions\":").append(cache.getEvictionCount())
+                        .append(",\"expirations\":").append(cache.getExpirationCount())
+                        .append(",\"skippedWrites\":").append(((CachingDeviceStateStore) store).getWritesSkipped()).append('}');
+                store = ((CachingDeviceStateStore) store).getStore();
+            }
+            if (store instanceof ResilientDeviceStateStore) {
+                ResilientDeviceStateStore resilient = (ResilientDeviceStateStore) store;
+                sb.append(",\"storeCalls\":{\"attempts\":").append(resilient.getAttemptCount())
+                        .append(",\"retries\":").append(resilient.getRetryCount())
+                        .append(",\"timeouts\":").append(resilient.getTimeoutCount())
+                        .append(",\"hedges\":").append(resilient.getHedgeCount())
+                        .append(",\"hedgeWins\":").append(resilient.getHedgeWinCount())
+                        .append(",\"shortCircuited\":").append(resilient.getShortCircuitCount())
+                        .append(",\"circuit\":\"").append(resilient.getCircuitBreaker().getState()).append("\"}");
+                store = resilient.getStore();
+            }
+            if (store instanceof DynamoDBDeviceStateStore) {
+                DynamoDBDeviceStateStore dynamo = (DynamoDBDeviceStateStore) store;
+                sb.append(",\"writes\":{\"issued\":").append(dynamo.getWritesIssued())
+                        .append(",\"unchanged\":").append(dynamo.getWritesUnchanged())
+                        .append(",\"batchRequests\":").append(dynamo.getBatchRequests())
+                        .append(",\"batchUnprocessed\":").append(dynamo.getBatchItemsUnprocessed()).append('}');
+            }
+            DirectiveDeduplicator deduplicator = AlexaHandler.getDeduplicator();
+            sb.append(",\"dedupe\":{\"size\":").append(deduplicator.size())
+                    .append(",\"executed\":").append(deduplicator.getExecutedCount())
+                    .append(",\"suppressed\":").append(deduplicator.getSuppressedCount())
+                    .append(",\"evicted\":").append(deduplicator.getEvictedCount()).append('}');
+            EndpointSource source = AlexaHandler.getEndpointSource();
+            if (source instanceof DynamoDBEndpointSource) {
+                DynamoDBEndpointSource query = (DynamoDBEndpointSource) source;
+                sb.append(",\"discovery\":{\"queries\":").append(query.getQueryCount())
+                        .append(",\"pages\":").append(query.getPageCount())
+                        .append(",\"items\":").append(query.getItemCount()).append('}');
+            }
+            EndpointRegistry registry = AlexaHandler.getEndpointRegistry();
+            if (registry != null) {
+                sb.append(",\"registry\":{\"endpoints\":").append(registry.size())
+                        .append(",\"types\":").append(registry.getTypeCount()).append('}');
+            }
+            UserIdCache userIdCache = AlexaHandler.getUserIdCache();
+            if (userIdCache != null) {
+                sb.append(",\"userIds\":{\"size\":").append(userIdCache.size())
+                        .append(",\"hits\":").append(userIdCache.getHitCount())
+                        .append(",\"misses\":").append(userIdCache.getMissCount())
+                        .append(",\"coalesced\":").append(userIdCache.getCoalescedCount())
+                        .append(",\"failures\":").append(userIdCache.getFailureCount()).append('}');
+            }
+            sb.append(",\"latency\":");
+            AlexaHandler.getMetrics().appendSummary(sb);
+            ChangeReportPublisher publisher = AlexaHandler.getChangeReportPublisher();
+            if (publisher.isEnabled()) {
+                sb.append(",\"changeReports\":{\"submitted\":").append(publisher.getSubmittedCount())
+                        .append(",\"published\":").append(publisher.getPublishedCount())
+                        .append(",\"publishRate\":").append(publisher.getPublishRate())
+                        .append(",\"coalesced\":").append(publisher.getCoalescedCount())
+                        .append(",\"dropped\":").append(publisher.getDroppedCount())
+                        .append(",\"retried\":").append(publisher.getRetriedCount())
+                        .append(",\"failed\":").append(publisher.getFailedCount())
+                        .append(",\"outstanding\":").append(publisher.getOutstandingCount())
+                        .append(",\"avgQueueLatencyMs\":").append(publisher.getAverageQueueLatencyMillis())
+                        .append(",\"maxQueueLatencyMs\":").append(publisher.getMaxQueueLatencyMillis()).append('}');
+            }
+            send(exchange, 200, sb.append('}').toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+}
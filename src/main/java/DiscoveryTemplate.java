@@ -0,0 +1,90 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// A Discover.Response encoded once, with only the messageId spliced in per request.
+public class DiscoveryTemplate {
+
+    private static final String MESSAGE_ID_PLACEHOLDER = "@@messageId@@";
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private final long version;
+
+    private DiscoveryTemplate(byte[] prefix, byte[] suffix, long version) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.version = version;
+    }
+
+    static DiscoveryTemplate build(List<EndpointCatalogue.Endpoint> endpoints, long version) {
+        AlexaResponse ar = new AlexaResponse("Alexa.Discovery", "Discover.Response");
+        ar.SetMessageId(MESSAGE_ID_PLACEHOLDER);
+        for (EndpointCatalogue.Endpoint endpoint : endpoints)
+            ar.AddPayloadEndpoint(endpoint.getFriendlyName(), endpoint.getEndpointId(), endpoint.getCapabilities());
+
+        byte[] encoded;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+            ar.writeTo(buffer);
+            encoded = buffer.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] placeholder = MESSAGE_ID_PLACEHOLDER.getBytes(StandardCharsets.UTF_8);
+        int index = indexOf(encoded, placeholder);
+        if (index < 0)
+            throw new IllegalStateException("messageId placeholder not found in Discover.Response");
+
+        byte[] prefix = new byte[index];
+        System.arraycopy(encoded, 0, prefix, 0, index);
+        int suffixStart = index + placeholder.length;
+        byte[] suffix = new byte[encoded.length - suffixStart];
+        System.arraycopy(encoded, suffixStart, suffix, 0, suffix.length);
+
+        return new DiscoveryTemplate(prefix, suffix, version);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public DirectiveResponse newResponse(String messageId) {
+        return outputStream -> writeTo(outputStream, messageId);
+    }
+
+    // The messageId is a generated UUID, so it never needs JSON escaping.
+    public void writeTo(OutputStream outputStream, String messageId) throws IOException {
+        outputStream.write(prefix);
+        outputStream.write(messageId.getBytes(StandardCharsets.UTF_8));
+        outputStream.write(suffix);
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
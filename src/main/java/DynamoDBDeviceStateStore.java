@@ -0,0 +1,390 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stores device state in the SampleSmartHome table.
+// The DynamoDB client is built once per container and shared by every invocation, so warm Lambda
+// containers reuse the resolved credentials and the pooled keep-alive connections.
+// A write that would not change the stored value is rejected by a condition on the update itself.
+// Writes the cache already knows to be no-ops are skipped earlier by CachingDeviceStateStore.
+// Endpoint descriptions and grants share the table under the endpoint# and grant# prefixes, so writes
+// to an endpointId with one of those prefixes are refused rather than made to another item.
+public class DynamoDBDeviceStateStore implements DeviceStateStore {
+
+    static final String TABLE_NAME = "SampleSmartHome";
+
+    // The most items BatchWriteItem accepts in one request
+    static final int BATCH_WRITE_MAX_ITEMS = 25;
+
+    private static final ExecutorService batchWrites = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "batch-write");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile AmazonDynamoDB client;
+
+    private final String tableName;
+    private volatile Table table;
+    private volatile AmazonDynamoDB tableClient;
+
+    private final AtomicLong writesIssued = new AtomicLong();
+    private final AtomicLong writesUnchanged = new AtomicLong();
+    private final AtomicLong batchRequests = new AtomicLong();
+    private final AtomicLong batchItemsUnprocessed = new AtomicLong();
+
+    private final int batchWriteAttempts = Integer.parseInt(getEnv("DYNAMODB_BATCH_WRITE_ATTEMPTS", "3"));
+    private final long batchWriteBackoffMillis = Long.parseLong(getEnv("DYNAMODB_BACKOFF_MILLIS", "20"));
+
+    public DynamoDBDeviceStateStore() {
+        this(TABLE_NAME);
+    }
+
+    public DynamoDBDeviceStateStore(String tableName) {
+        this.tableName = tableName;
+    }
+
+    static AmazonDynamoDB getClient() {
+        AmazonDynamoDB c = client;
+        if (c == null) {
+            synchronized (DynamoDBDeviceStateStore.class) {
+                c = client;
+                if (c == null) {
+                    c = AmazonDynamoDBClientBuilder.standard()
+                            .withClientConfiguration(createClientConfiguration())
+                            .build();
+                    client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    // Releases the pooled connections; the next call to getClient builds a new client.
+    // Returns false if no client had been built.
+    static boolean shutdownClient() {
+        synchronized (DynamoDBDeviceStateStore.class) {
+            if (client == null)
+                return false;
+            client.shutdown();
+            client = null;
+            return true;
+        }
+    }
+
+    static boolean hasClient() {
+        return client != null;
+    }
+
+    static ClientConfiguration createClientConfiguration() {
+        return new ClientConfiguration()
+                .withTcpKeepAlive(true)
+                .withMaxConnections(Integer.parseInt(getEnv("DYNAMODB_MAX_CONNECTIONS", "10")))
+                .withConnectionMaxIdleMillis(Long.parseLong(getEnv("DYNAMODB_CONNECTION_MAX_IDLE_MILLIS", "300000")))
+                .withValidateAfterInactivityMillis(5000)
+                // ResilientDeviceStateStore retries within the directive's deadline, so the SDK only retries once
+                .withMaxErrorRetry(Integer.parseInt(getEnv("DYNAMODB_SDK_MAX_RETRIES", "1")))
+                .withRequestTimeout(Integer.parseInt(getEnv("DYNAMODB_REQUEST_TIMEOUT_MILLIS", "1000")));
+    }
+
+    static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return (value == null || value.isEmpty()) ? defaultValue : value;
+    }
+
+    // The Table is rebuilt when the shared client has been replaced, e.g. after a snapshot restore.
+    Table getTable() {
+        AmazonDynamoDB c = getClient();
+        Table t = table;
+        if (t == null || tableClient != c) {
+            t = new DynamoDB(c).getTable(tableName);
+            table = t;
+            tableClient = c;
+        }
+        return t;
+    }
+
+    // The client the store's Table was built with
+    AmazonDynamoDB getTableClient() {
+        getTable();
+        return tableClient;
+    }
+
+    static boolean isReservedItemId(String endpointId) {
+        return endpointId.startsWith(DynamoDBEndpointSource.ITEM_PREFIX) || endpointId.startsWith(DynamoDBGrantStore.ITEM_PREFIX);
+    }
+
+    @Override
+    public boolean setDeviceState(String endpointId, String state, String value) {
+        if (isReservedItemId(endpointId))
+            return false;
+
+        String attributeValue = state + "Value";
+
+        UpdateItemSpec updateItemSpec =
+                new UpdateItemSpec()
+                        .withPrimaryKey("ItemId", endpointId)
+                        .withUpdateExpression("set #v = :val1 remove #w")
+                        .withConditionExpression("attribute_not_exists(#v) OR #v <> :val1")
+                        .withNameMap(new NameMap().with("#v", attributeValue).with("#w", state + "WriteId"))
+                        .withValueMap(new ValueMap().withString(":val1", value))
+                        .withReturnValues(ReturnValue.NONE);
+
+        boundByDeadline(updateItemSpec.getRequest());
+        writesIssued.incrementAndGet();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            updateItem(updateItemSpec);
+            failed = false;
+        } catch (ConditionalCheckFailedException e) {
+            // The stored value already matches, so the transition was a no-op.
+            writesUnchanged.incrementAndGet();
+            failed = false;
+        } finally {
+            AlexaHandler.getMetrics().recordOperation("UpdateItem", System.nanoTime() - start, failed);
+        }
+
+        return true;
+    }
+
+    // The write's id is stored with the value, and any other write of the state removes it.
+    @Override
+    public boolean compareAndSetDeviceState(String endpointId, String state, String expected, String value, String writeId) {
+        if (isReservedItemId(endpointId))
+            return false;
+
+        ValueMap values = new ValueMap().withString(":val1", value).withString(":id", writeId);
+        if (expected != null)
+            values.withString(":expected", expected);
+
+        UpdateItemSpec updateItemSpec =
+                new UpdateItemSpec()
+                        .withPrimaryKey("ItemId", endpointId)
+                        .withUpdateExpression("set #v = :val1, #w = :id")
+                        .withConditionExpression((expected == null ? "attribute_not_exists(#v)" : "#v = :expected") + " OR #w = :id")
+                        .withNameMap(new NameMap().with("#v", state + "Value").with("#w", state + "WriteId"))
+                        .withValueMap(values)
+                        .withReturnValues(ReturnValue.NONE);
+
+        boundByDeadline(updateItemSpec.getRequest());
+        writesIssued.incrementAndGet();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            updateItem(updateItemSpec);
+            failed = false;
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            failed = false;
+            return false;
+        } finally {
+            AlexaHandler.getMetrics().recordOperation("UpdateItem", System.nanoTime() - start, failed);
+        }
+    }
+
+    void updateItem(UpdateItemSpec updateItemSpec) {
+        getTable().updateItem(updateItemSpec);
+    }
+
+    // Writes the values with BatchWriteItem, up to 25 items per request and the requests in parallel.
+    // BatchWriteItem can only put whole items and rejects two puts for the same key, so the writes for
+    // an endpoint are merged into one state item, later values replacing earlier ones. Writes to a
+    // reserved endpointId are not sent, so a put never replaces an endpoint description or a grant.
+    @Override
+    public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+        boolean[] stored = new boolean[writes.size()];
+
+        Map<String, Map<String, AttributeValue>> items = new LinkedHashMap<>();
+        Map<String, List<Integer>> writesByEndpoint = new HashMap<>();
+        for (int i = 0; i < writes.size(); i++) {
+            DeviceStateWrite write = writes.get(i);
+            if (isReservedItemId(write.getEndpointId()))
+                continue;
+            items.computeIfAbsent(write.getEndpointId(), id -> {
+                Map<String, AttributeValue> item = new HashMap<>();
+                item.put("ItemId", new AttributeValue(id));
+                return item;
+            }).put(write.getState() + "Value", new AttributeValue(write.getValue()));
+            writesByEndpoint.computeIfAbsent(write.getEndpointId(), id -> new ArrayList<>()).add(i);
+        }
+
+        List<WriteRequest> requests = new ArrayList<>();
+        for (Map<String, AttributeValue> item : items.values())
+            requests.add(new WriteRequest(new PutRequest(item)));
+
+        long end = Deadline.endNanos();
+        long deadline = System.nanoTime() + Math.min(Deadline.remainingNanos(), TimeUnit.DAYS.toNanos(1));
+        List<Future<Set<String>>> batches = new ArrayList<>();
+        for (int from = 0; from < requests.size(); from += BATCH_WRITE_MAX_ITEMS) {
+            List<WriteRequest> batch = requests.subList(from, Math.min(from + BATCH_WRITE_MAX_ITEMS, requests.size()));
+            batches.add(batchWrites.submit(() -> Deadline.callWithin(end, () -> writeBatch(batch, deadline))));
+        }
+
+        for (int b = 0; b < batches.size(); b++) {
+            List<WriteRequest> batch = requests.subList(b * BATCH_WRITE_MAX_ITEMS,
+                    Math.min((b + 1) * BATCH_WRITE_MAX_ITEMS, requests.size()));
+            Set<String> unprocessed;
+            try {
+                unprocessed = batches.get(b).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                unprocessed = null;
+            } catch (ExecutionException | TimeoutException e) {
+                unprocessed = null;
+            }
+            for (WriteRequest request : batch) {
+                Map<String, AttributeValue> item = request.getPutRequest().getItem();
+                String endpointId = item.get("ItemId").getS();
+                boolean written = unprocessed != null && !unprocessed.contains(endpointId);
+                for (int i : writesByEndpoint.get(endpointId))
+                    stored[i] = written;
+            }
+        }
+        return stored;
+    }
+
+    // Sends one batch and resends its unprocessed items with backoff until they are written, the
+    // attempts run out or the deadline passes. Returns the endpoints whose items were not written.
+    private Set<String> writeBatch(List<WriteRequest> batch, long deadline) throws InterruptedException {
+        Map<String, List<WriteRequest>> unprocessed = Collections.singletonMap(tableName, batch);
+        for (int attempt = 1; ; attempt++) {
+            batchRequests.incrementAndGet();
+            writesIssued.addAndGet(unprocessed.get(tableName).size());
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                unprocessed = batchWriteItem(unprocessed);
+                failed = false;
+            } finally {
+                AlexaHandler.getMetrics().recordOperation("BatchWriteItem", System.nanoTime() - start, failed);
+            }
+            if (unprocessed == null || unprocessed.isEmpty() || !unprocessed.containsKey(tableName))
+                return Collections.emptySet();
+            if (attempt >= batchWriteAttempts)
+                break;
+            long delayMillis = ThreadLocalRandom.current().nextLong(batchWriteBackoffMillis * (1L << (attempt - 1)) + 1);
+            if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadline)
+                break;
+            Thread.sleep(delayMillis);
+        }
+
+        Set<String> endpointIds = new HashSet<>();
+        for (WriteRequest request : unprocessed.get(tableName))
+            endpointIds.add(request.getPutRequest().getItem().get("ItemId").getS());
+        batchItemsUnprocessed.addAndGet(endpointIds.size());
+        return endpointIds;
+    }
+
+    // Returns the unprocessed items.
+    Map<String, List<WriteRequest>> batchWriteItem(Map<String, List<WriteRequest>> requestItems) {
+        return getClient().batchWriteItem(boundByDeadline(new BatchWriteItemRequest().withRequestItems(requestItems)))
+                .getUnprocessedItems();
+    }
+
+    @Override
+    public String getDeviceState(String endpointId, String state) {
+
+        String attributeValue = state + "Value";
+
+        GetItemSpec getItemSpec =
+                new GetItemSpec()
+                        .withPrimaryKey("ItemId", endpointId)
+                        .withProjectionExpression("#v")
+                        .withNameMap(new NameMap().with("#v", attributeValue));
+
+        boundByDeadline(getItemSpec.getRequest());
+        long start = System.nanoTime();
+        boolean failed = true;
+        Item item;
+        try {
+            item = getItem(getItemSpec);
+            failed = false;
+        } finally {
+            AlexaHandler.getMetrics().recordOperation("GetItem", System.nanoTime() - start, failed);
+        }
+        return (item == null || !item.isPresent(attributeValue)) ? null : item.getString(attributeValue);
+    }
+
+    Item getItem(GetItemSpec getItemSpec) {
+        return getTable().getItem(getItemSpec);
+    }
+
+    // Limits the request, SDK retries included, to what is left of the current thread's Deadline.
+    static <R extends AmazonWebServiceRequest> R boundByDeadline(R request) {
+        long remaining = Deadline.remainingNanos();
+        if (remaining != Long.MAX_VALUE)
+            request.setSdkClientExecutionTimeout((int) Math.max(1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(remaining))));
+        return request;
+    }
+
+    // Every request is limited by the Deadline, so ResilientDeviceStateStore calls it on the directive's thread.
+    @Override
+    public boolean isBoundedByDeadline() {
+        return true;
+    }
+
+    // Number of UpdateItem calls and batched puts sent to the table.
+    public long getWritesIssued() {
+        return writesIssued.get();
+    }
+
+    // Number of issued writes rejected by the condition because the value was already stored.
+    public long getWritesUnchanged() {
+        return writesUnchanged.get();
+    }
+
+    // Number of BatchWriteItem calls, including resends of unprocessed items.
+    public long getBatchRequests() {
+        return batchRequests.get();
+    }
+
+    // Number of batched items still unprocessed once their attempts ran out.
+    public long getBatchItemsUnprocessed() {
+        return batchItemsUnprocessed.get();
+    }
+}
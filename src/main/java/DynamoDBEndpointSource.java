@@ -0,0 +1,185 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Index;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import org.json.JSONArray;
+
+// Reads endpoint descriptions from the SampleSmartHome table.
+// Each endpoint is an item keyed "endpoint#<endpointId>", next to the state items keyed by the bare
+// endpointId, with UserId, FriendlyName and Capabilities (a JSON array) attributes. A user's endpoints
+// are read with a Query on the DISCOVERY_USER_INDEX global secondary index, whose partition key is
+// UserId and sort key ItemId, so only that user's endpoint items are read. Pages are read on a
+// background thread and endpoints are handed to the caller as soon as their page arrives. The caller
+// can stop early, in which case the remaining pages are not read. A query that takes longer than
+// DISCOVERY_TIMEOUT_MILLIS fails with an IOException. There is no list of every user's endpoints, so
+// discovery without a resolved user is refused.
+public class DynamoDBEndpointSource implements EndpointSource {
+
+    static final String ITEM_PREFIX = "endpoint#";
+
+    // Marks the end of the query in the queue of read endpoints
+    private static final Object QUERY_DONE = new Object();
+
+    private static final ExecutorService readers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "discovery-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String tableName;
+    private final String indexName;
+    private final int pageSize;
+    private final long timeoutMillis;
+    private volatile Index index;
+    private volatile AmazonDynamoDB indexClient;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+
+    public DynamoDBEndpointSource(String tableName, String indexName, int pageSize, long timeoutMillis) {
+        this.tableName = tableName;
+        this.indexName = indexName;
+        this.pageSize = pageSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static DynamoDBEndpointSource fromEnvironment() {
+        return new DynamoDBEndpointSource(DynamoDBDeviceStateStore.TABLE_NAME,
+                DynamoDBDeviceStateStore.getEnv("DISCOVERY_USER_INDEX", "UserId-ItemId-index"),
+                Integer.parseInt(DynamoDBDeviceStateStore.getEnv("DISCOVERY_PAGE_SIZE", "100")),
+                Long.parseLong(DynamoDBDeviceStateStore.getEnv("DISCOVERY_TIMEOUT_MILLIS", "4000")));
+    }
+
+    private Table getTable() {
+        return new DynamoDB(DynamoDBDeviceStateStore.getClient()).getTable(tableName);
+    }
+
+    private Index getIndex() {
+        AmazonDynamoDB c = DynamoDBDeviceStateStore.getClient();
+        Index i = index;
+        if (i == null || indexClient != c) {
+            i = new DynamoDB(c).getTable(tableName).getIndex(indexName);
+            index = i;
+            indexClient = c;
+        }
+        return i;
+    }
+
+    @Override
+    public void forEachEndpoint(String userId, Predicate<EndpointCatalogue.Endpoint> consumer) throws IOException {
+        if (userId == null)
+            throw new IllegalStateException("Endpoints are only discovered for a resolved user");
+        queries.incrementAndGet();
+        LinkedBlockingQueue<Object> read = new LinkedBlockingQueue<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        readers.execute(() -> readPages(userId, read, cancelled));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (true) {
+                Object next = read.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null)
+                    throw new IOException("Endpoint query of " + tableName + " timed out after " + timeoutMillis + " ms");
+                if (next == QUERY_DONE)
+                    return;
+                if (next instanceof Exception)
+                    throw new IOException("Endpoint query of " + tableName + " failed", (Exception) next);
+                if (!consumer.test((EndpointCatalogue.Endpoint) next))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Endpoint query interrupted");
+        } finally {
+            cancelled.set(true);
+        }
+    }
+
+    private void readPages(String userId, LinkedBlockingQueue<Object> read, AtomicBoolean cancelled) {
+        try {
+            for (Iterable<Item> page : queryPages(userId)) {
+                if (cancelled.get())
+                    break;
+                pages.incrementAndGet();
+                for (Item item : page) {
+                    items.incrementAndGet();
+                    read.add(toEndpoint(item));
+                }
+            }
+            read.add(QUERY_DONE);
+        } catch (Exception e) {
+            read.add(e);
+        }
+    }
+
+    // The pages of the user's endpoint items, read lazily as they are iterated.
+    Iterable<? extends Iterable<Item>> queryPages(String userId) {
+        QuerySpec querySpec = new QuerySpec()
+                .withKeyConditionExpression("#u = :user AND begins_with(#id, :prefix)")
+                .withMaxPageSize(pageSize)
+                .withProjectionExpression("#id, FriendlyName, #c")
+                .withNameMap(new NameMap().with("#u", "UserId").with("#id", "ItemId").with("#c", "Capabilities"))
+                .withValueMap(new ValueMap().withString(":user", userId).withString(":prefix", ITEM_PREFIX));
+        return getIndex().query(querySpec).pages();
+    }
+
+    static EndpointCatalogue.Endpoint toEndpoint(Item item) {
+        String endpointId = item.getString("ItemId").substring(ITEM_PREFIX.length());
+        return new EndpointCatalogue.Endpoint(item.getString("FriendlyName"), endpointId, new JSONArray(item.getString("Capabilities")));
+    }
+
+    static Item toItem(String userId, EndpointCatalogue.Endpoint endpoint) {
+        Item item = new Item()
+                .withPrimaryKey("ItemId", ITEM_PREFIX + endpoint.getEndpointId())
+                .withString("FriendlyName", endpoint.getFriendlyName())
+                .withString("Capabilities", endpoint.getCapabilities().toString());
+        if (userId != null)
+            item.withString("UserId", userId);
+        return item;
+    }
+
+    // Adds or replaces the description of an endpoint for a user.
+    public void putEndpoint(String userId, EndpointCatalogue.Endpoint endpoint) {
+        getTable().putItem(toItem(userId, endpoint));
+    }
+
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    public long getPageCount() {
+        return pages.get();
+    }
+
+    public long getItemCount() {
+        return items.get();
+    }
+}
@@ -0,0 +1,95 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+
+// Stores grants in the SampleSmartHome table, one item per user with an ItemId of grant#<userId>.
+// Saving a grant replaces the whole item, so the refresh token of an earlier grant is dropped with it.
+public class DynamoDBGrantStore implements GrantStore {
+
+    static final String ITEM_PREFIX = "grant#";
+
+    private final String tableName;
+    private volatile Table table;
+    private volatile AmazonDynamoDB tableClient;
+
+    public DynamoDBGrantStore(String tableName) {
+        this.tableName = tableName;
+    }
+
+    private Table getTable() {
+        AmazonDynamoDB c = DynamoDBDeviceStateStore.getClient();
+        Table t = table;
+        if (t == null || tableClient != c) {
+            t = new DynamoDB(c).getTable(tableName);
+            table = t;
+            tableClient = c;
+        }
+        return t;
+    }
+
+    @Override
+    public boolean saveGrant(String userId, String grantCode) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            getTable().putItem(new Item()
+                    .withPrimaryKey("ItemId", ITEM_PREFIX + userId)
+                    .withString("UserId", userId)
+                    .withString("GrantCode", grantCode)
+                    .withString("GrantedAt", TimeOfSample.now()));
+            failed = false;
+        } finally {
+            AlexaHandler.getMetrics().recordOperation("PutItem", System.nanoTime() - start, failed);
+        }
+        return true;
+    }
+
+    @Override
+    public String getGrant(String userId) {
+        Item item = getTable().getItem(new GetItemSpec()
+                .withPrimaryKey("ItemId", ITEM_PREFIX + userId)
+                .withProjectionExpression("GrantCode"));
+        return item == null ? null : item.getString("GrantCode");
+    }
+
+    @Override
+    public boolean saveRefreshToken(String userId, String refreshToken) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            getTable().updateItem(new UpdateItemSpec()
+                    .withPrimaryKey("ItemId", ITEM_PREFIX + userId)
+                    .withUpdateExpression("set RefreshToken = :token")
+                    .withValueMap(new ValueMap().withString(":token", refreshToken)));
+            failed = false;
+        } finally {
+            AlexaHandler.getMetrics().recordOperation("UpdateItem", System.nanoTime() - start, failed);
+        }
+        return true;
+    }
+
+    @Override
+    public String getRefreshToken(String userId) {
+        Item item = getTable().getItem(new GetItemSpec()
+                .withPrimaryKey("ItemId", ITEM_PREFIX + userId)
+                .withProjectionExpression("RefreshToken"));
+        return item == null ? null : item.getString("RefreshToken");
+    }
+}
@@ -0,0 +1,115 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.json.JSONArray;
+
+// The endpoints reported to Alexa on discovery.
+// The encoded Discover.Response is cached here and dropped whenever the catalogue changes.
+public class EndpointCatalogue implements EndpointSource {
+
+    public static class Endpoint {
+
+        private final String friendlyName;
+        private final String endpointId;
+        private final JSONArray capabilities;
+
+        public Endpoint(String friendlyName, String endpointId, JSONArray capabilities) {
+            this.friendlyName = friendlyName;
+            this.endpointId = endpointId;
+            this.capabilities = capabilities;
+        }
+
+        public String getFriendlyName() { return friendlyName; }
+
+        public String getEndpointId() { return endpointId; }
+
+        public JSONArray getCapabilities() { return capabilities; }
+    }
+
+    private volatile List<Endpoint> endpoints = Collections.emptyList();
+    private volatile long version;
+    private volatile DiscoveryTemplate discoveryTemplate;
+
+    public static EndpointCatalogue createDefault() {
+        return createDefault(false);
+    }
+
+    // Alexa only accepts ChangeReports for properties discovered as proactively reported.
+    public static EndpointCatalogue createDefault(boolean proactivelyReported) {
+        return create(new DirectiveRouter().with(new PowerControllerHandler()).getCapabilities(proactivelyReported));
+    }
+
+    // The sample switch with the given capabilities.
+    public static EndpointCatalogue create(JSONArray capabilities) {
+        EndpointCatalogue catalogue = new EndpointCatalogue();
+        catalogue.addEndpoint(new Endpoint("Sample Switch", "sample-switch-01", capabilities));
+        return catalogue;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    // Every user sees the same endpoints.
+    @Override
+    public void forEachEndpoint(String userId, Predicate<Endpoint> consumer) {
+        for (Endpoint endpoint : endpoints) {
+            if (!consumer.test(endpoint))
+                return;
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public synchronized void addEndpoint(Endpoint endpoint) {
+        List<Endpoint> updated = new ArrayList<>(endpoints);
+        updated.removeIf(e -> e.getEndpointId().equals(endpoint.getEndpointId()));
+        updated.add(endpoint);
+        update(updated);
+    }
+
+    public synchronized boolean removeEndpoint(String endpointId) {
+        List<Endpoint> updated = new ArrayList<>(endpoints);
+        if (!updated.removeIf(e -> e.getEndpointId().equals(endpointId)))
+            return false;
+        update(updated);
+        return true;
+    }
+
+    private void update(List<Endpoint> updated) {
+        endpoints = Collections.unmodifiableList(updated);
+        version++;
+        discoveryTemplate = null;
+    }
+
+    public DiscoveryTemplate getDiscoveryTemplate() {
+        DiscoveryTemplate template = discoveryTemplate;
+        if (template == null) {
+            synchronized (this) {
+                template = discoveryTemplate;
+                if (template == null) {
+                    template = DiscoveryTemplate.build(endpoints, version);
+                    discoveryTemplate = template;
+                }
+            }
+        }
+        return template;
+    }
+}
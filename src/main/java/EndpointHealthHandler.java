@@ -0,0 +1,38 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.JSONObject;
+
+// Alexa.EndpointHealth has no directives. Endpoints that answer are reported as connected; an
+// unreachable endpoint is answered with ENDPOINT_UNREACHABLE instead of a StateReport.
+public class EndpointHealthHandler extends CapabilityHandler {
+
+    private static final String[] NOTHING_STORED = new String[0];
+
+    // Shared by every StateReport and never modified
+    private static final JSONObject CONNECTED = new JSONObject().put("value", "OK");
+
+    public EndpointHealthHandler() {
+        super("Alexa.EndpointHealth", "connectivity");
+    }
+
+    @Override
+    public String[] getStoredProperties() {
+        return NOTHING_STORED;
+    }
+
+    @Override
+    public void addContextProperties(AlexaResponse stateReport, String endpointId) {
+        stateReport.AddContextProperty(getNamespace(), "connectivity", CONNECTED, 0);
+    }
+}
@@ -0,0 +1,271 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.json.JSONArray;
+
+// A compact, in-process registry of endpoints for processes that serve many of them.
+// Endpoint ids are interned to int handles through an open-addressing table, and each endpoint's
+// power state and the time it was last written to or read from the device state store are packed
+// into one long. The states are a write-through cache of the store: other containers can change an
+// endpoint too, so a state is only trusted for stateTtlMillis after it was known. Endpoints with the
+// same capabilities share one EndpointType. Looking up a handle or a state does not allocate. Endpoints
+// are only added, so handles stay valid for the life of the registry. The registry does not know which
+// user an endpoint belongs to, so it is not an EndpointSource and discovery never reads it.
+public class EndpointRegistry {
+
+    public static final int UNKNOWN = 0;
+    public static final int ON = 1;
+    public static final int OFF = 2;
+
+    static final long DEFAULT_STATE_TTL_MILLIS = 1000;
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // The capabilities shared by a set of endpoints.
+    public static final class EndpointType {
+
+        private final int index;
+        private final JSONArray capabilities;
+
+        private EndpointType(int index, JSONArray capabilities) {
+            this.index = index;
+            this.capabilities = capabilities;
+        }
+
+        public int getIndex() { return index; }
+
+        public JSONArray getCapabilities() { return capabilities; }
+    }
+
+    // Keys are published after their handles, so a reader that finds a key also sees its handle
+    private static final class Table {
+
+        private final AtomicReferenceArray<String> keys;
+        private final int[] handles;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new AtomicReferenceArray<>(capacity);
+            handles = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, EndpointType> typesByCapabilities = new HashMap<>();
+
+    private volatile Table table = new Table(16);
+    private volatile EndpointType[] types = new EndpointType[0];
+    private volatile String[][] endpointIds = new String[0][];
+    private volatile String[][] friendlyNames = new String[0][];
+    private volatile short[][] typeIndexes = new short[0][];
+    // The power state in the low 2 bits, the time it was known in milliseconds above them
+    private volatile AtomicLongArray[] states = new AtomicLongArray[0];
+    private volatile int count;
+    private final long stateTtlMillis;
+
+    public EndpointRegistry() {
+        this(DEFAULT_STATE_TTL_MILLIS);
+    }
+
+    public EndpointRegistry(long stateTtlMillis) {
+        this.stateTtlMillis = stateTtlMillis;
+    }
+
+    public static EndpointRegistry of(EndpointCatalogue catalogue) {
+        return of(catalogue, DEFAULT_STATE_TTL_MILLIS);
+    }
+
+    public static EndpointRegistry of(EndpointCatalogue catalogue, long stateTtlMillis) {
+        EndpointRegistry registry = new EndpointRegistry(stateTtlMillis);
+        for (EndpointCatalogue.Endpoint endpoint : catalogue.getEndpoints())
+            registry.register(endpoint.getEndpointId(), endpoint.getFriendlyName(), endpoint.getCapabilities());
+        return registry;
+    }
+
+    // Set ENDPOINT_REGISTRY to true to keep the catalogue's endpoints and their states in a registry.
+    // Returns null when it is not set.
+    public static EndpointRegistry fromEnvironment(EndpointCatalogue catalogue) {
+        if (!Boolean.parseBoolean(DynamoDBDeviceStateStore.getEnv("ENDPOINT_REGISTRY", "false")))
+            return null;
+        return of(catalogue, Long.parseLong(DynamoDBDeviceStateStore.getEnv("ENDPOINT_REGISTRY_STATE_TTL_MILLIS",
+                Long.toString(DEFAULT_STATE_TTL_MILLIS))));
+    }
+
+    // Adds the endpoint, or updates its name and capabilities if it is already registered. Returns its handle.
+    public int register(String endpointId, String friendlyName, JSONArray capabilities) {
+        synchronized (lock) {
+            EndpointType type = typeFor(capabilities);
+            int handle = handleOf(endpointId);
+            if (handle >= 0) {
+                friendlyNames[handle >>> CHUNK_BITS][handle & CHUNK_MASK] = friendlyName;
+                typeIndexes[handle >>> CHUNK_BITS][handle & CHUNK_MASK] = (short) type.index;
+                return handle;
+            }
+
+            handle = count;
+            if ((handle & CHUNK_MASK) == 0)
+                addChunk();
+            endpointIds[handle >>> CHUNK_BITS][handle & CHUNK_MASK] = endpointId;
+            friendlyNames[handle >>> CHUNK_BITS][handle & CHUNK_MASK] = friendlyName;
+            typeIndexes[handle >>> CHUNK_BITS][handle & CHUNK_MASK] = (short) type.index;
+            insert(endpointId, handle);
+            count = handle + 1;
+            return handle;
+        }
+    }
+
+    private EndpointType typeFor(JSONArray capabilities) {
+        String key = capabilities.toString();
+        EndpointType type = typesByCapabilities.get(key);
+        if (type == null) {
+            if (types.length > Short.MAX_VALUE)
+                throw new IllegalStateException("Too many endpoint types");
+            type = new EndpointType(types.length, capabilities);
+            EndpointType[] updated = Arrays.copyOf(types, types.length + 1);
+            updated[type.index] = type;
+            types = updated;
+            typesByCapabilities.put(key, type);
+        }
+        return type;
+    }
+
+    private void addChunk() {
+        int chunks = endpointIds.length;
+        String[][] ids = Arrays.copyOf(endpointIds, chunks + 1);
+        String[][] names = Arrays.copyOf(friendlyNames, chunks + 1);
+        short[][] typeChunks = Arrays.copyOf(typeIndexes, chunks + 1);
+        AtomicLongArray[] stateChunks = Arrays.copyOf(states, chunks + 1);
+        ids[chunks] = new String[CHUNK_SIZE];
+        names[chunks] = new String[CHUNK_SIZE];
+        typeChunks[chunks] = new short[CHUNK_SIZE];
+        stateChunks[chunks] = new AtomicLongArray(CHUNK_SIZE);
+        endpointIds = ids;
+        friendlyNames = names;
+        typeIndexes = typeChunks;
+        states = stateChunks;
+    }
+
+    // Keeps the table at most half full; readers of the old table still find every earlier endpoint.
+    private void insert(String endpointId, int handle) {
+        Table t = table;
+        if ((count + 1) * 2 > t.handles.length) {
+            Table grown = new Table(t.handles.length * 2);
+            for (int h = 0; h < count; h++)
+                put(grown, endpointIds[h >>> CHUNK_BITS][h & CHUNK_MASK], h);
+            table = grown;
+            t = grown;
+        }
+        put(t, endpointId, handle);
+    }
+
+    private static void put(Table t, String endpointId, int handle) {
+        int slot = spread(endpointId.hashCode()) & t.mask;
+        while (t.keys.get(slot) != null)
+            slot = (slot + 1) & t.mask;
+        t.handles[slot] = handle;
+        t.keys.set(slot, endpointId);
+    }
+
+    // Returns -1 if the endpoint is not registered.
+    public int handleOf(String endpointId) {
+        if (endpointId == null)
+            return -1;
+        Table t = table;
+        int slot = spread(endpointId.hashCode()) & t.mask;
+        String key;
+        while ((key = t.keys.get(slot)) != null) {
+            if (key.equals(endpointId))
+                return t.handles[slot];
+            slot = (slot + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    public String getEndpointId(int handle) {
+        return endpointIds[handle >>> CHUNK_BITS][handle & CHUNK_MASK];
+    }
+
+    public String getFriendlyName(int handle) {
+        return friendlyNames[handle >>> CHUNK_BITS][handle & CHUNK_MASK];
+    }
+
+    public EndpointType getType(int handle) {
+        return types[typeIndexes[handle >>> CHUNK_BITS][handle & CHUNK_MASK]];
+    }
+
+    // ON, OFF or UNKNOWN, however long ago the state was known.
+    public int getPowerState(int handle) {
+        return (int) (states[handle >>> CHUNK_BITS].get(handle & CHUNK_MASK) & 3);
+    }
+
+    // UNKNOWN as well once the state is older than the time-to-live.
+    public int getFreshPowerState(int handle, long nowMillis) {
+        long packed = states[handle >>> CHUNK_BITS].get(handle & CHUNK_MASK);
+        return nowMillis - (packed >>> 2) > stateTtlMillis ? UNKNOWN : (int) (packed & 3);
+    }
+
+    // 0 if the power state has never been set.
+    public long getPowerStateKnownAt(int handle) {
+        return states[handle >>> CHUNK_BITS].get(handle & CHUNK_MASK) >>> 2;
+    }
+
+    public long getStateTtlMillis() {
+        return stateTtlMillis;
+    }
+
+    // Records a state written to or read from the store at timeMillis. Returns true if it differs from
+    // the state known before.
+    public boolean setPowerState(int handle, int powerState, long timeMillis) {
+        AtomicLongArray chunk = states[handle >>> CHUNK_BITS];
+        int index = handle & CHUNK_MASK;
+        long updated = (timeMillis << 2) | powerState;
+        while (true) {
+            long current = chunk.get(index);
+            // An older time must not overwrite a newer state
+            if ((current >>> 2) > timeMillis)
+                return false;
+            if (chunk.compareAndSet(index, current, updated))
+                return (current & 3) != powerState;
+        }
+    }
+
+    public static int powerState(String value) {
+        return "ON".equals(value) ? ON : "OFF".equals(value) ? OFF : UNKNOWN;
+    }
+
+    // Returns null for UNKNOWN.
+    public static String powerStateValue(int powerState) {
+        return powerState == ON ? "ON" : powerState == OFF ? "OFF" : null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getTypeCount() {
+        return types.length;
+    }
+}
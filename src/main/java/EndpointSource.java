@@ -0,0 +1,29 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+// Where discovery reads a user's endpoints from.
+public interface EndpointSource {
+
+    // Passes each endpoint of the user to consumer, on the calling thread, until consumer returns false
+    // or there are no more. userId may be null when the user is not known, meaning every endpoint.
+    void forEachEndpoint(String userId, Predicate<EndpointCatalogue.Endpoint> consumer) throws IOException;
+
+    // The same, with each endpoint already encoded as the JSON object of a Discover.Response.
+    // Sources that keep their endpoints encoded override this.
+    default void forEachEncodedEndpoint(String userId, Predicate<byte[]> consumer) throws IOException {
+        forEachEndpoint(userId, endpoint -> consumer.test(StreamingDiscoveryResponse.encode(endpoint)));
+    }
+}
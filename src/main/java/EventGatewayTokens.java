@@ -0,0 +1,228 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+// Gets the access tokens that ChangeReports are sent with, one per user.
+// The code from a user's AcceptGrant is exchanged with Login with Amazon for an access token and a
+// refresh token. The refresh token is kept in the GrantStore, and the access token is cached until
+// shortly before it expires. Tokens are only issued when ALEXA_CLIENT_ID and ALEXA_CLIENT_SECRET,
+// the skill's Alexa Skill Messaging credentials, are set.
+public class EventGatewayTokens {
+
+    static final String TOKEN_URL = "https://api.amazon.com/auth/o2/token";
+
+    // A cached token is refreshed once it expires within this time
+    private static final long EXPIRY_MARGIN_MILLIS = 60000;
+
+    private static final class AccessToken {
+
+        private final String value;
+        private final long expiresAt;
+
+        private AccessToken(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final URL url;
+    private final String clientId;
+    private final String clientSecret;
+    private final Supplier<GrantStore> grantStore;
+    private final int timeoutMillis;
+
+    private final ConcurrentHashMap<String, AccessToken> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<String>> refreshes = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    // grantStore is read on each exchange, so a store swapped in later is used.
+    public EventGatewayTokens(URL url, String clientId, String clientSecret, Supplier<GrantStore> grantStore, int timeoutMillis) {
+        this.url = url;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.grantStore = grantStore;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // Null unless ALEXA_CLIENT_ID and ALEXA_CLIENT_SECRET are set
+    public static EventGatewayTokens fromEnvironment(Supplier<GrantStore> grantStore) {
+        String clientId = DynamoDBDeviceStateStore.getEnv("ALEXA_CLIENT_ID", null);
+        String clientSecret = DynamoDBDeviceStateStore.getEnv("ALEXA_CLIENT_SECRET", null);
+        if (clientId == null || clientSecret == null)
+            return null;
+
+        String url = DynamoDBDeviceStateStore.getEnv("ALEXA_TOKEN_URL", TOKEN_URL);
+        try {
+            return new EventGatewayTokens(new URL(url), clientId, clientSecret, grantStore,
+                    Integer.parseInt(DynamoDBDeviceStateStore.getEnv("ALEXA_TOKEN_TIMEOUT_MILLIS", "2000")));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("ALEXA_TOKEN_URL is not a valid URL: " + url, e);
+        }
+    }
+
+    // Returns null if the user has not granted the skill access, or the grant was revoked.
+    public String getToken(String userId) throws IOException {
+        if (userId == null)
+            return null;
+        AccessToken token = tokens.get(userId);
+        if (token != null && System.currentTimeMillis() < token.expiresAt - EXPIRY_MARGIN_MILLIS)
+            return token.value;
+        return refresh(userId, false);
+    }
+
+    // Exchanges the code of a grant that was just stored, since a code is only valid for a few minutes.
+    // Returns null if Login with Amazon refused it.
+    public String exchangeGrant(String userId) throws IOException {
+        return refresh(userId, true);
+    }
+
+    // Refreshes are serialized per user, so a refresh token that Login with Amazon replaces is never used
+    // twice. A lookup that finds one running waits for its token; a new grant waits, then exchanges its
+    // own code. Users do not wait for each other.
+    private String refresh(String userId, boolean newGrant) throws IOException {
+        while (true) {
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            CompletableFuture<String> running = refreshes.putIfAbsent(userId, mine);
+            if (running == null) {
+                try {
+                    String value = exchange(userId, newGrant);
+                    mine.complete(value);
+                    return value;
+                } catch (Throwable e) {
+                    mine.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    refreshes.remove(userId, mine);
+                }
+            }
+
+            String value = await(running);
+            if (!newGrant)
+                return value;
+            refreshes.remove(userId, running);
+        }
+    }
+
+    private static String await(CompletableFuture<String> refresh) throws IOException {
+        try {
+            return refresh.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a token refresh");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw new IOException(cause.getMessage(), cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private String exchange(String userId, boolean newGrant) throws IOException {
+        long now = System.currentTimeMillis();
+        AccessToken token = tokens.get(userId);
+        if (!newGrant && token != null && now < token.expiresAt - EXPIRY_MARGIN_MILLIS)
+            return token.value;
+        tokens.remove(userId);
+
+        GrantStore store = grantStore.get();
+        String refreshToken = newGrant ? null : store.getRefreshToken(userId);
+        JSONObject response;
+        if (refreshToken != null) {
+            response = request("grant_type=refresh_token&refresh_token=" + encode(refreshToken));
+        } else {
+            String code = store.getGrant(userId);
+            if (code == null)
+                return null;
+            response = request("grant_type=authorization_code&code=" + encode(code));
+        }
+        if (response == null)
+            return null;
+
+        String nextRefreshToken = response.optString("refresh_token", null);
+        if (nextRefreshToken != null && !nextRefreshToken.equals(refreshToken))
+            store.saveRefreshToken(userId, nextRefreshToken);
+        String value = response.getString("access_token");
+        tokens.put(userId, new AccessToken(value, now + response.optLong("expires_in", 3600) * 1000));
+        return value;
+    }
+
+    // Returns null when the grant is refused.
+    private JSONObject request(String grant) throws IOException {
+        requestCount.incrementAndGet();
+        byte[] body = (grant + "&client_id=" + encode(clientId) + "&client_secret=" + encode(clientSecret))
+                .getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
+        connection.setRequestProperty("Accept", "application/json");
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+        }
+        int status = connection.getResponseCode();
+
+        // Reading the body to the end returns the connection to the JDK's keep-alive pool
+        InputStream inputStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        if (inputStream != null) {
+            try (InputStream in = inputStream) {
+                byte[] chunk = new byte[1024];
+                int read;
+                while ((read = in.read(chunk)) != -1)
+                    response.write(chunk, 0, read);
+            }
+        }
+
+        if (status == 400 || status == 401)
+            return null;
+        if (status != 200)
+            throw new IOException("Token request failed with status " + status);
+        return new JSONObject(new String(response.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+}
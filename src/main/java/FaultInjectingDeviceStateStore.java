@@ -0,0 +1,94 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Wraps a device state store with configurable latency and failures, for tests and load runs.
+// Every call waits latencyMillis plus a random jitter of up to jitterMillis; a call then fails with
+// probability failureRate, or unconditionally while failNext calls are left.
+public class FaultInjectingDeviceStateStore implements DeviceStateStore {
+
+    private final DeviceStateStore store;
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double failureRate;
+    private final AtomicInteger failNext = new AtomicInteger();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong injectedFailures = new AtomicLong();
+
+    public FaultInjectingDeviceStateStore(DeviceStateStore store) {
+        this.store = store;
+    }
+
+    public FaultInjectingDeviceStateStore withLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    public FaultInjectingDeviceStateStore withFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    public void failNext(int count) {
+        failNext.set(count);
+    }
+
+    @Override
+    public boolean setDeviceState(String endpointId, String state, String value) {
+        inject();
+        return store.setDeviceState(endpointId, state, value);
+    }
+
+    @Override
+    public boolean compareAndSetDeviceState(String endpointId, String state, String expected, String value, String writeId) {
+        inject();
+        return store.compareAndSetDeviceState(endpointId, state, expected, value, writeId);
+    }
+
+    @Override
+    public String getDeviceState(String endpointId, String state) {
+        inject();
+        return store.getDeviceState(endpointId, state);
+    }
+
+    private void inject() {
+        calls.incrementAndGet();
+        long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while injecting latency", e);
+            }
+        }
+        if (failNext.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0
+                || (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate)) {
+            injectedFailures.incrementAndGet();
+            throw new IllegalStateException("Injected device state store failure");
+        }
+    }
+
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    public long getInjectedFailureCount() {
+        return injectedFailures.get();
+    }
+}
@@ -0,0 +1,28 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+// Keeps the authorization codes received with Alexa.Authorization AcceptGrant directives, and the refresh
+// tokens they are exchanged for, so the skill can call the Alexa event gateway on the user's behalf.
+public interface GrantStore {
+
+    // A new grant replaces the user's refresh token.
+    boolean saveGrant(String userId, String grantCode);
+
+    // Returns null if the user has no grant.
+    String getGrant(String userId);
+
+    boolean saveRefreshToken(String userId, String refreshToken);
+
+    // Returns null if the user's grant has not been exchanged.
+    String getRefreshToken(String userId);
+}
@@ -0,0 +1,21 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.IOException;
+
+// Maps the bearer token sent with a directive to the id of the user it was issued to.
+public interface IdentityProvider {
+
+    // Returns null if the token is not valid. Throws if the provider could not be asked.
+    String resolveUserId(String token) throws IOException;
+}
@@ -0,0 +1,49 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Process-local store used by the tests and by local runs without AWS credentials.
+public class InMemoryDeviceStateStore implements DeviceStateStore {
+
+    private final Map<String, Map<String, String>> items = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean setDeviceState(String endpointId, String state, String value) {
+        items.computeIfAbsent(endpointId, k -> new ConcurrentHashMap<>()).put(state + "Value", value);
+        return true;
+    }
+
+    @Override
+    public boolean compareAndSetDeviceState(String endpointId, String state, String expected, String value, String writeId) {
+        Map<String, String> item = items.computeIfAbsent(endpointId, k -> new ConcurrentHashMap<>());
+        return expected == null
+                ? item.putIfAbsent(state + "Value", value) == null
+                : item.replace(state + "Value", expected, value);
+    }
+
+    @Override
+    public String getDeviceState(String endpointId, String state) {
+        Map<String, String> item = items.get(endpointId);
+        return item == null ? null : item.get(state + "Value");
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public void clear() {
+        items.clear();
+    }
+}
@@ -0,0 +1,45 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps grants in memory, for tests and local runs.
+public class InMemoryGrantStore implements GrantStore {
+
+    private final Map<String, String> grants = new ConcurrentHashMap<>();
+    private final Map<String, String> refreshTokens = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean saveGrant(String userId, String grantCode) {
+        grants.put(userId, grantCode);
+        refreshTokens.remove(userId);
+        return true;
+    }
+
+    @Override
+    public String getGrant(String userId) {
+        return grants.get(userId);
+    }
+
+    @Override
+    public boolean saveRefreshToken(String userId, String refreshToken) {
+        refreshTokens.put(userId, refreshToken);
+        return true;
+    }
+
+    @Override
+    public String getRefreshToken(String userId) {
+        return refreshTokens.get(userId);
+    }
+}
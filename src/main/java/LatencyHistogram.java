@@ -0,0 +1,168 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A lock-free log-linear latency histogram in microseconds.
+// Each power of two is split into 32 linear buckets, so a recorded value is off by at most about 3%,
+// and recording is one atomic increment per bucket, count and sum. Values above about 134 seconds
+// are recorded as the largest bucket. Percentiles cover everything recorded since creation, while
+// appendInterval reports only what was recorded since its previous call, in the CloudWatch Embedded
+// Metric Format Values/Counts form.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_MICROS = (1L << 27) - 1;
+    static final int BUCKETS = index(MAX_MICROS) + 1;
+
+    // CloudWatch accepts at most 100 distinct values per metric in one record
+    static final int MAX_VALUES = 100;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // Only touched by appendInterval
+    private final long[] reported = new long[BUCKETS];
+    private final long[] interval = new long[BUCKETS];
+    private long reportedCount;
+    private long reportedSum;
+
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_MICROS);
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        if (micros > max.get())
+            max.accumulateAndGet(micros, Math::max);
+    }
+
+    static int index(long micros) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude < SUB_BUCKET_BITS)
+            return (int) micros;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (micros >>> shift);
+    }
+
+    static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    static long upperBound(int index) {
+        return lowerBound(index + 1) - 1;
+    }
+
+    private static double midpointMillis(int index) {
+        return (lowerBound(index) + upperBound(index)) / 2.0 / 1000.0;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMaxMillis() {
+        return max.get() / 1000.0;
+    }
+
+    // percentile is between 0 and 100, e.g. 99.9. Returns 0 when nothing has been recorded.
+    public double getPercentileMillis(double percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0.0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return midpointMillis(i);
+        }
+        return midpointMillis(BUCKETS - 1);
+    }
+
+    // Appends {"Values":[...],"Counts":[...],"Max":..,"Min":..,"Count":..,"Sum":..} in milliseconds for the
+    // values recorded since the previous call. Returns false, appending nothing, if there are none.
+    public synchronized boolean appendInterval(StringBuilder sb) {
+        long currentCount = count.get();
+        if (currentCount == reportedCount)
+            return false;
+        long currentSum = sum.get();
+
+        int distinct = 0;
+        int first = -1;
+        int last = -1;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long current = counts.get(i);
+            long delta = current - reported[i];
+            reported[i] = current;
+            interval[i] = delta;
+            if (delta > 0) {
+                distinct++;
+                total += delta;
+                if (first < 0)
+                    first = i;
+                last = i;
+            }
+        }
+        // The count and sum can run ahead of the buckets for values recorded during this call
+        reportedCount = currentCount;
+        long intervalSum = currentSum - reportedSum;
+        reportedSum = currentSum;
+        if (total == 0)
+            return false;
+
+        // Neighbouring buckets are merged into their weighted mean when there are too many
+        int group = (distinct + MAX_VALUES - 1) / MAX_VALUES;
+        StringBuilder counted = new StringBuilder(distinct * 4);
+        sb.append("{\"Values\":[");
+        int inGroup = 0;
+        long groupCount = 0;
+        double groupWeighted = 0.0;
+        boolean firstValue = true;
+        for (int i = first; i <= last; i++) {
+            if (interval[i] == 0)
+                continue;
+            groupCount += interval[i];
+            groupWeighted += interval[i] * midpointMillis(i);
+            if (++inGroup == group || i == last) {
+                if (!firstValue) {
+                    sb.append(',');
+                    counted.append(',');
+                }
+                sb.append(round(groupWeighted / groupCount));
+                counted.append(groupCount);
+                firstValue = false;
+                inGroup = 0;
+                groupCount = 0;
+                groupWeighted = 0.0;
+            }
+        }
+        sb.append("],\"Counts\":[").append(counted)
+                .append("],\"Max\":").append(round(upperBound(last) / 1000.0))
+                .append(",\"Min\":").append(round(lowerBound(first) / 1000.0))
+                .append(",\"Count\":").append(total)
+                .append(",\"Sum\":").append(round(intervalSum / 1000.0)).append('}');
+        return true;
+    }
+
+    private static double round(double millis) {
+        return Math.round(millis * 1000.0) / 1000.0;
+    }
+}
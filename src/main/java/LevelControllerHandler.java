@@ -0,0 +1,123 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.UUID;
+
+import org.json.JSONObject;
+
+// An interface with one integer property from 0 to 100 that is set to a value or adjusted by a delta:
+// Alexa.BrightnessController and Alexa.PercentageController.
+public class LevelControllerHandler extends CapabilityHandler {
+
+    // Reads and conditional writes made before an Adjust gives up on concurrent changes
+    private static final int ADJUST_ATTEMPTS = 3;
+
+    private final String property;
+    private final String deltaName;
+
+    public LevelControllerHandler(String namespace, String property, String setName, String adjustName, String deltaName) {
+        super(namespace, property);
+        this.property = property;
+        this.deltaName = deltaName;
+        on(setName, this::set);
+        on(adjustName, this::adjust);
+    }
+
+    public static LevelControllerHandler brightness() {
+        return new LevelControllerHandler("Alexa.BrightnessController", "brightness",
+                "SetBrightness", "AdjustBrightness", "brightnessDelta");
+    }
+
+    public static LevelControllerHandler percentage() {
+        return new LevelControllerHandler("Alexa.PercentageController", "percentage",
+                "SetPercentage", "AdjustPercentage", "percentageDelta");
+    }
+
+    private DirectiveResponse set(Directive directive, String userId) {
+        int value = payloadInt(directive.getPayload(), property);
+        if (value < 0 || value > 100)
+            return AlexaHandler.errorResponse(directive, "INVALID_VALUE", "The " + property + " must be from 0 to 100");
+        return store(directive, userId, value);
+    }
+
+    // An endpoint whose level is not known yet is adjusted from 0. The new level is only written if the
+    // level it was computed from is still stored, so concurrent adjustments are not lost; otherwise the
+    // level is read again.
+    private DirectiveResponse adjust(Directive directive, String userId) {
+        int delta = payloadInt(directive.getPayload(), deltaName);
+        if (delta < -100 || delta > 100)
+            return AlexaHandler.errorResponse(directive, "INVALID_VALUE", "The " + deltaName + " must be from -100 to 100");
+        String endpointId = endpointId(directive);
+        DeviceStateStore store = AlexaHandler.getDeviceStateStore();
+        try {
+            for (int attempt = 1; attempt <= ADJUST_ATTEMPTS; attempt++) {
+                String current = store.getDeviceState(endpointId, property);
+                int value = Math.max(0, Math.min(100, (current == null ? 0 : parseLevel(current)) + delta));
+                if (store.compareAndSetDeviceState(endpointId, property, current, Integer.toString(value), UUID.randomUUID().toString()))
+                    return response(directive, userId, value);
+            }
+        } catch (EndpointUnreachableException e) {
+            return AlexaHandler.errorResponse(directive, "ENDPOINT_UNREACHABLE", "The state of the endpoint could not be adjusted");
+        }
+        return AlexaHandler.errorResponse(directive, "INTERNAL_ERROR", "The " + property + " kept changing while it was adjusted");
+    }
+
+    private DirectiveResponse store(Directive directive, String userId, int value) {
+        boolean stored;
+        try {
+            stored = AlexaHandler.sendDeviceState(endpointId(directive), property, Integer.toString(value));
+        } catch (EndpointUnreachableException e) {
+            return AlexaHandler.errorResponse(directive, "ENDPOINT_UNREACHABLE", "The state of the endpoint could not be set");
+        }
+        if (!stored)
+            return AlexaHandler.errorResponse(directive, "INTERNAL_ERROR", "The state of the endpoint was not set");
+        return response(directive, userId, value);
+    }
+
+    // Answers with the value that was stored, and reports the change.
+    private DirectiveResponse response(Directive directive, String userId, int value) {
+        String endpointId = endpointId(directive);
+        AlexaHandler.getChangeReportPublisher().submit(userId, endpointId, getNamespace(), property, value, "VOICE_INTERACTION");
+        AlexaResponse response = new AlexaResponse("Alexa", "Response", endpointId,
+                AlexaHandler.optString(directive.getToken(), "INVALID"), AlexaHandler.optString(directive.getCorrelationToken(), "INVALID"));
+        response.AddContextProperty(getNamespace(), property, value, 200);
+        return response;
+    }
+
+    // The property is left out of the report until it has been set
+    @Override
+    public void addContextProperties(AlexaResponse stateReport, String endpointId) {
+        String current = AlexaHandler.getDeviceStateStore().getDeviceState(endpointId, property);
+        if (current != null)
+            stateReport.AddContextProperty(getNamespace(), property, parseLevel(current), 0);
+    }
+
+    private static String endpointId(Directive directive) {
+        return AlexaHandler.optString(directive.getEndpointId(), "INVALID");
+    }
+
+    // Integer.MIN_VALUE when the payload has no integer of that name, which is out of every range
+    private static int payloadInt(JSONObject payload, String name) {
+        Object value = payload == null ? null : payload.opt(name);
+        return value instanceof Number && ((Number) value).doubleValue() == ((Number) value).intValue()
+                ? ((Number) value).intValue() : Integer.MIN_VALUE;
+    }
+
+    private static int parseLevel(String value) {
+        try {
+            return Math.max(0, Math.min(100, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
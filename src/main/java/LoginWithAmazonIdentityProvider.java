@@ -0,0 +1,63 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+// Resolves Login with Amazon access tokens through the customer profile API.
+public class LoginWithAmazonIdentityProvider implements IdentityProvider {
+
+    static final String PROFILE_URL = "https://api.amazon.com/user/profile";
+
+    private final URL url;
+    private final int timeoutMillis;
+
+    public LoginWithAmazonIdentityProvider(URL url, int timeoutMillis) {
+        this.url = url;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public String resolveUserId(String token) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setRequestProperty("Authorization", "Bearer " + token);
+        connection.setRequestProperty("Accept", "application/json");
+        int status = connection.getResponseCode();
+
+        // Reading the body to the end returns the connection to the JDK's keep-alive pool
+        InputStream inputStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (inputStream != null) {
+            try (InputStream in = inputStream) {
+                byte[] chunk = new byte[1024];
+                int read;
+                while ((read = in.read(chunk)) != -1)
+                    body.write(chunk, 0, read);
+            }
+        }
+
+        if (status == 400 || status == 401 || status == 403)
+            return null;
+        if (status != 200)
+            throw new IOException("Profile lookup failed with status " + status);
+        return new JSONObject(new String(body.toByteArray(), StandardCharsets.UTF_8)).optString("user_id", null);
+    }
+}
@@ -0,0 +1,75 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+// Alexa.PowerController: TurnOn and TurnOff. Endpoints in the registry have their power state cached
+// in memory as it is written to and read from the device state store.
+public class PowerControllerHandler extends CapabilityHandler {
+
+    public PowerControllerHandler() {
+        super("Alexa.PowerController", "powerState");
+        on("TurnOn", PowerControllerHandler::setPowerState);
+        on("TurnOff", PowerControllerHandler::setPowerState);
+    }
+
+    private static DirectiveResponse setPowerState(Directive directive, String userId) {
+        String endpointId = AlexaHandler.optString(directive.getEndpointId(), "INVALID");
+        String value = value(directive);
+
+        // Set the value in the DynamodDB table SampleSmartHome
+        boolean stored;
+        try {
+            stored = AlexaHandler.sendDeviceState(endpointId, "powerState", value);
+        } catch (EndpointUnreachableException e) {
+            return AlexaHandler.errorResponse(directive, "ENDPOINT_UNREACHABLE", "The state of the endpoint could not be set");
+        }
+        if (!stored)
+            return AlexaHandler.errorResponse(directive, "INTERNAL_ERROR", "The state of the endpoint was not set");
+        return response(directive, userId, endpointId, value);
+    }
+
+    static String value(Directive directive) {
+        return AlexaHandler.optString(directive.getName(), "TurnOn").equals("TurnOn") ? "ON" : "OFF";
+    }
+
+    // Answers a directive whose state was stored, and reports the change. The state is reported even if
+    // this container knew it already, since another container may have changed it in between.
+    // userId is null when users are not resolved.
+    static AlexaResponse response(Directive directive, String userId, String endpointId, String value) {
+        EndpointRegistry registry = AlexaHandler.getEndpointRegistry();
+        int handle = registry == null ? -1 : registry.handleOf(endpointId);
+        long now = System.currentTimeMillis();
+        if (handle >= 0)
+            registry.setPowerState(handle, EndpointRegistry.powerState(value), now);
+        AlexaHandler.getChangeReportPublisher().submit(userId, endpointId, "Alexa.PowerController", "powerState", value, "VOICE_INTERACTION", now);
+        AlexaResponse response = new AlexaResponse("Alexa", "Response", endpointId,
+                AlexaHandler.optString(directive.getToken(), "INVALID"), AlexaHandler.optString(directive.getCorrelationToken(), "INVALID"));
+        response.AddContextProperty("Alexa.PowerController", "powerState", value, 200);
+        return response;
+    }
+
+    // Endpoints in the registry are reported from memory while their state is fresh.
+    // A switch that has never been turned on is reported as off.
+    @Override
+    public void addContextProperties(AlexaResponse stateReport, String endpointId) {
+        EndpointRegistry registry = AlexaHandler.getEndpointRegistry();
+        int handle = registry == null ? -1 : registry.handleOf(endpointId);
+        long now = System.currentTimeMillis();
+        String powerState = handle < 0 ? null : EndpointRegistry.powerStateValue(registry.getFreshPowerState(handle, now));
+        if (powerState == null) {
+            powerState = AlexaHandler.getDeviceStateStore().getDeviceState(endpointId, "powerState");
+            if (handle >= 0 && powerState != null)
+                registry.setPowerState(handle, EndpointRegistry.powerState(powerState), now);
+        }
+        stateReport.AddContextProperty("Alexa.PowerController", "powerState", powerState == null ? "OFF" : powerState, 0);
+    }
+}
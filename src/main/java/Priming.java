@@ -0,0 +1,190 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.crac.Core;
+import org.crac.Resource;
+
+// Cold-start priming for AlexaHandler.
+// During class initialization, synthetic Authorization, Discovery, PowerController and ReportState
+// directives are run through the real handler against an in-memory store, so org.json, the response
+// builders and the logger are loaded and warmed before the first real directive. The shared DynamoDB
+// client is built as well. With SnapStart (or any CRaC checkpoint), the client is shut down before the
+// snapshot is taken and rebuilt after restore, so no connection from the snapshot is reused.
+// Set PRIMING_ENABLED=false to compare against an unprimed cold start; PRIMING_ITERATIONS sets how many
+// times each directive is replayed.
+public class Priming implements Resource {
+
+    private static final String[] DIRECTIVES = {
+            "{\"directive\":{\"header\":{\"namespace\":\"Alexa.Authorization\",\"name\":\"AcceptGrant\",\"messageId\":\"priming\",\"payloadVersion\":\"3\"}," +
+                    "\"payload\":{\"grant\":{\"type\":\"OAuth2.AuthorizationCode\",\"code\":\"priming\"},\"grantee\":{\"type\":\"BearerToken\",\"token\":\"priming\"}}}}",
+            "{\"directive\":{\"header\":{\"namespace\":\"Alexa.Discovery\",\"name\":\"Discover\",\"payloadVersion\":\"3\",\"messageId\":\"priming\"}," +
+                    "\"payload\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"priming\"}}}}",
+            "{\"directive\":{\"header\":{\"namespace\":\"Alexa.PowerController\",\"name\":\"TurnOn\",\"payloadVersion\":\"3\",\"messageId\":\"priming\",\"correlationToken\":\"priming\"}," +
+                    "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"priming\"},\"endpointId\":\"priming-switch\",\"cookie\":{}},\"payload\":{}}}",
+            "{\"directive\":{\"header\":{\"namespace\":\"Alexa.PowerController\",\"name\":\"TurnOff\",\"payloadVersion\":\"3\",\"messageId\":\"priming\",\"correlationToken\":\"priming\"}," +
+                    "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"priming\"},\"endpointId\":\"priming-switch\",\"cookie\":{}},\"payload\":{}}}",
+            "{\"directive\":{\"header\":{\"namespace\":\"Alexa\",\"name\":\"ReportState\",\"payloadVersion\":\"3\",\"messageId\":\"priming\",\"correlationToken\":\"priming\"}," +
+                    "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"priming\"},\"endpointId\":\"priming-switch\",\"cookie\":{}},\"payload\":{}}}",
+    };
+
+    // CRaC only keeps weak references to registered resources
+    private static final Priming instance = new Priming();
+
+    private static final AtomicBoolean firstInvocation = new AtomicBoolean(true);
+    private static volatile boolean priming;
+    private static volatile boolean primed;
+    private static volatile boolean restored;
+    private volatile boolean clientBuilt;
+
+    static void initialize() {
+        long start = System.nanoTime();
+
+        boolean enabled = Boolean.parseBoolean(DynamoDBDeviceStateStore.getEnv("PRIMING_ENABLED", "true"));
+        int iterations = Integer.parseInt(DynamoDBDeviceStateStore.getEnv("PRIMING_ITERATIONS", "5"));
+
+        int directives = 0;
+        boolean clientWarmed = false;
+        if (enabled) {
+            directives = prime(iterations);
+            clientWarmed = instance.buildClient();
+        }
+        Core.getGlobalContext().register(instance);
+
+        AlexaHandler.getLogger().log("{\"time\":\"" + TimeOfSample.now() + "\",\"level\":\"INFO\",\"type\":\"init\"" +
+                ",\"primed\":" + enabled + ",\"directives\":" + directives + ",\"clientWarmed\":" + clientWarmed +
+                ",\"initMs\":" + (System.nanoTime() - start) / 1000 / 1000.0 + "}");
+    }
+
+    // Replays the synthetic directives against an in-memory store and endpoint source, a discarding logger,
+    // a separate dedupe window, metrics and endpoint registry, a stub identity provider and grant store, and
+    // no ChangeReports, then puts the real ones back. Returns the number of directives handled.
+    static int prime(int iterations) {
+        DeviceStateStore store = AlexaHandler.getDeviceStateStore();
+        StructuredLogger logger = AlexaHandler.getLogger();
+        DirectiveDeduplicator deduplicator = AlexaHandler.getDeduplicator();
+        ChangeReportPublisher publisher = AlexaHandler.getChangeReportPublisher();
+        DirectiveMetrics metrics = AlexaHandler.getMetrics();
+        EndpointSource source = AlexaHandler.getEndpointSource();
+        UserIdCache userIdCache = AlexaHandler.getUserIdCache();
+        GrantStore grantStore = AlexaHandler.getGrantStore();
+        EventGatewayTokens gatewayTokens = AlexaHandler.getGatewayTokens();
+        EndpointRegistry registry = AlexaHandler.getEndpointRegistry();
+        StructuredLogger primingLogger = StructuredLogger.discarding(1.0);
+        int handled = 0;
+        priming = true;
+        try {
+            AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore());
+            AlexaHandler.setLogger(primingLogger);
+            AlexaHandler.setDeduplicator(new DirectiveDeduplicator(64, 60000));
+            AlexaHandler.setChangeReportPublisher(ChangeReportPublisher.disabled());
+            AlexaHandler.setMetrics(new DirectiveMetrics("Priming"));
+            // Keeps the synthetic power states out of the real registry
+            AlexaHandler.setEndpointRegistry(registry == null ? null : EndpointRegistry.of(AlexaHandler.getEndpointCatalogue()));
+            // Warms the streaming discovery path without reading the table
+            if (source != AlexaHandler.getEndpointCatalogue())
+                AlexaHandler.setEndpointSource(AlexaHandler.getEndpointCatalogue()::forEachEndpoint);
+            // Warms the user lookup without calling the identity provider
+            if (userIdCache != null)
+                AlexaHandler.setUserIdCache(new UserIdCache(new StubIdentityProvider("priming-user"), 16, 60000, 60000));
+            AlexaHandler.setGrantStore(new InMemoryGrantStore());
+            // The synthetic grant is not sent to Login with Amazon
+            AlexaHandler.setGatewayTokens(null);
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream(4096);
+            for (int i = 0; i < iterations; i++) {
+                for (String directive : DIRECTIVES) {
+                    response.reset();
+                    AlexaHandler.handler(new ByteArrayInputStream(directive.getBytes(StandardCharsets.UTF_8)), response, null);
+                    handled++;
+                }
+            }
+        } finally {
+            AlexaHandler.setDeviceStateStore(store);
+            AlexaHandler.setLogger(logger);
+            AlexaHandler.setDeduplicator(deduplicator);
+            AlexaHandler.setChangeReportPublisher(publisher);
+            AlexaHandler.setMetrics(metrics);
+            AlexaHandler.setEndpointSource(source);
+            AlexaHandler.setUserIdCache(userIdCache);
+            AlexaHandler.setGrantStore(grantStore);
+            AlexaHandler.setGatewayTokens(gatewayTokens);
+            AlexaHandler.setEndpointRegistry(registry);
+            primingLogger.close();
+            priming = false;
+        }
+        primed = true;
+        return handled;
+    }
+
+    // Reports the latency of the first real invocation of this container, whether it was primed or restored.
+    static void recordInvocation(long latencyNanos) {
+        if (!priming && firstInvocation.get() && firstInvocation.compareAndSet(true, false)) {
+            AlexaHandler.getLogger().log("{\"time\":\"" + TimeOfSample.now() + "\",\"level\":\"INFO\",\"type\":\"firstInvocation\"" +
+                    ",\"primed\":" + primed + ",\"restored\":" + restored +
+                    ",\"latencyMs\":" + latencyNanos / 1000 / 1000.0 + "}");
+        }
+    }
+
+    static boolean isRestored() {
+        return restored;
+    }
+
+    static void setRestored(boolean wasRestored) {
+        restored = wasRestored;
+    }
+
+    // True until the first real invocation since start or restore is recorded
+    static boolean isFirstInvocation() {
+        return firstInvocation.get();
+    }
+
+    static void setFirstInvocation(boolean first) {
+        firstInvocation.set(first);
+    }
+
+    private boolean buildClient() {
+        // Without a configured region the SDK falls back to probing the instance metadata endpoint
+        if (System.getenv("AWS_REGION") == null && System.getProperty("aws.region") == null)
+            return false;
+        try {
+            DynamoDBDeviceStateStore.getClient();
+            clientBuilt = true;
+        } catch (RuntimeException e) {
+            // No credentials, e.g. when running locally; the client is built on first use instead
+            clientBuilt = false;
+        }
+        return clientBuilt;
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        AlexaHandler.getChangeReportPublisher().flush(1000);
+        AlexaHandler.getMetrics().flush(AlexaHandler.getLogger());
+        AlexaHandler.getLogger().flush(1000);
+        // Whichever client was built before the checkpoint is rebuilt after restore
+        clientBuilt = DynamoDBDeviceStateStore.shutdownClient();
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        restored = true;
+        firstInvocation.set(true);
+        if (clientBuilt)
+            buildClient();
+    }
+}
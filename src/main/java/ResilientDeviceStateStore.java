@@ -0,0 +1,295 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
+
+// Bounds the calls to a device state store by the directive's Deadline.
+// Each attempt gets at most attemptTimeoutMillis and whatever is left of the deadline, and the store
+// sees the end of the attempt as its own Deadline. Failed or timed
+// out attempts are retried with full-jitter backoff while the deadline allows. With hedging on, an
+// attempt that is slower than the store's p95 latency gets a second, identical request, and the first
+// answer wins; both operations are idempotent. After repeated failures the circuit breaker opens and
+// calls fail fast. Every failure is reported as an EndpointUnreachableException, except errors that
+// retrying cannot fix, such as a validation error, which are thrown as they are.
+public class ResilientDeviceStateStore implements DeviceStateStore {
+
+    // p95 is only trusted for hedging once there are enough samples
+    static final int HEDGE_MIN_SAMPLES = 20;
+
+    private static final ExecutorService calls = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "device-state-call");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DeviceStateStore store;
+    private final int maxAttempts;
+    private final long attemptTimeoutNanos;
+    private final long backoffMillis;
+    private final boolean hedging;
+    private final CircuitBreaker circuitBreaker;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    public ResilientDeviceStateStore(DeviceStateStore store, int maxAttempts, long attemptTimeoutMillis, long backoffMillis,
+                                     boolean hedging, CircuitBreaker circuitBreaker) {
+        this.store = store;
+        this.maxAttempts = maxAttempts;
+        this.attemptTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(attemptTimeoutMillis);
+        this.backoffMillis = backoffMillis;
+        this.hedging = hedging;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public static ResilientDeviceStateStore fromEnvironment(DeviceStateStore store) {
+        return new ResilientDeviceStateStore(store,
+                Integer.parseInt(DynamoDBDeviceStateStore.getEnv("DYNAMODB_MAX_ATTEMPTS", "3")),
+                Long.parseLong(DynamoDBDeviceStateStore.getEnv("DYNAMODB_ATTEMPT_TIMEOUT_MILLIS", "1000")),
+                Long.parseLong(DynamoDBDeviceStateStore.getEnv("DYNAMODB_BACKOFF_MILLIS", "20")),
+                Boolean.parseBoolean(DynamoDBDeviceStateStore.getEnv("DYNAMODB_HEDGING", "false")),
+                new CircuitBreaker(
+                        Integer.parseInt(DynamoDBDeviceStateStore.getEnv("CIRCUIT_FAILURE_THRESHOLD", "5")),
+                        Long.parseLong(DynamoDBDeviceStateStore.getEnv("CIRCUIT_OPEN_MILLIS", "10000"))));
+    }
+
+    public DeviceStateStore getStore() {
+        return store;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public boolean setDeviceState(String endpointId, String state, String value) {
+        return call(() -> store.setDeviceState(endpointId, state, value));
+    }
+
+    // A failed attempt resends the whole batch; the writes are idempotent puts. Stores report failed
+    // batch writes per write, so an attempt that stored none of them is failed here for the breaker to see.
+    @Override
+    public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+        return call(() -> {
+            boolean[] stored = store.setDeviceStates(writes);
+            for (boolean written : stored) {
+                if (written)
+                    return stored;
+            }
+            if (stored.length > 0)
+                throw new EndpointUnreachableException("No write in the batch was stored");
+            return stored;
+        });
+    }
+
+    @Override
+    public String getDeviceState(String endpointId, String state) {
+        return call(() -> store.getDeviceState(endpointId, state));
+    }
+
+    // Retried and hedged attempts carry the same writeId, so a write that was made is not refused.
+    @Override
+    public boolean compareAndSetDeviceState(String endpointId, String state, String expected, String value, String writeId) {
+        return call(() -> store.compareAndSetDeviceState(endpointId, state, expected, value, writeId));
+    }
+
+    private <T> T call(Callable<T> operation) {
+        if (!circuitBreaker.allowRequest()) {
+            shortCircuited.incrementAndGet();
+            throw new EndpointUnreachableException("Device state store circuit is open");
+        }
+        // Only the probe is let through while the circuit is half open
+        boolean probe = circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN;
+
+        Throwable failure = null;
+        // Attempts cut short by the directive's deadline say nothing about the store's health
+        boolean storeFailed = false;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long remaining = Deadline.remainingNanos();
+            if (remaining <= 0)
+                break;
+            try {
+                T result = attempt(operation, Math.min(remaining, attemptTimeoutNanos));
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (TimeoutException e) {
+                timeouts.incrementAndGet();
+                failure = e;
+                storeFailed |= remaining >= attemptTimeoutNanos;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+                if (!isRetryable(failure)) {
+                    // The store answered, so this says nothing about its health
+                    circuitBreaker.onSuccess();
+                    throw failure instanceof RuntimeException ? (RuntimeException) failure : new IllegalStateException(failure);
+                }
+                storeFailed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+                break;
+            }
+
+            if (attempt < maxAttempts && !backoff(attempt))
+                break;
+        }
+
+        if (storeFailed)
+            circuitBreaker.onFailure();
+        else if (probe)
+            circuitBreaker.onProbeAbandoned();
+        throw new EndpointUnreachableException("Device state store did not answer in time", failure);
+    }
+
+    // Runs one attempt, hedged with a second request once it is slower than the observed p95. The store
+    // sees the attempt's end as its Deadline. A store that gives up at its Deadline by itself is called
+    // on the current thread unless the attempt may be hedged.
+    private <T> T attempt(Callable<T> operation, long timeoutNanos) throws TimeoutException, ExecutionException, InterruptedException {
+        attempts.incrementAndGet();
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+        long hedgeDelay = hedgeDelayNanos();
+
+        if (hedgeDelay < 0 && store.isBoundedByDeadline()) {
+            try {
+                T result = Deadline.callWithin(deadline, operation);
+                latency.record(System.nanoTime() - start);
+                return result;
+            } catch (ClientExecutionTimeoutException e) {
+                throw new TimeoutException();
+            } catch (Exception e) {
+                throw new ExecutionException(e);
+            }
+        }
+
+        long hedgeAt = hedgeDelay < 0 ? Long.MAX_VALUE : start + hedgeDelay;
+        Callable<T> bounded = () -> Deadline.callWithin(deadline, operation);
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(calls);
+        Future<T> primary = completion.submit(bounded);
+        Future<T> hedge = null;
+        ExecutionException failure = null;
+        int running = 1;
+        try {
+            while (running > 0) {
+                long now = System.nanoTime();
+                if (hedge == null && now >= hedgeAt) {
+                    hedges.incrementAndGet();
+                    hedge = completion.submit(bounded);
+                    running++;
+                }
+                long wakeAt = hedge == null ? Math.min(hedgeAt, deadline) : deadline;
+                Future<T> done = completion.poll(wakeAt - now, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (System.nanoTime() >= deadline)
+                        throw new TimeoutException();
+                    continue;
+                }
+                running--;
+                try {
+                    T result = done.get();
+                    if (done == hedge)
+                        hedgeWins.incrementAndGet();
+                    latency.record(System.nanoTime() - start);
+                    return result;
+                } catch (ExecutionException e) {
+                    // Wait for the other request, if there is one
+                    failure = e;
+                }
+            }
+            throw failure;
+        } finally {
+            primary.cancel(true);
+            if (hedge != null)
+                hedge.cancel(true);
+        }
+    }
+
+    // Negative when hedging is off or there are not enough samples yet.
+    private long hedgeDelayNanos() {
+        if (!hedging || latency.getCount() < HEDGE_MIN_SAMPLES)
+            return -1;
+        return (long) (latency.getPercentileMillis(95.0) * 1000000L);
+    }
+
+    // Sleeps a random time up to the exponential backoff for this attempt. Returns false if the deadline
+    // would pass first.
+    private boolean backoff(int attempt) {
+        long delayMillis = ThreadLocalRandom.current().nextLong(backoffMillis * (1L << (attempt - 1)) + 1);
+        if (TimeUnit.MILLISECONDS.toNanos(delayMillis) >= Deadline.remainingNanos())
+            return false;
+        retries.incrementAndGet();
+        try {
+            Thread.sleep(delayMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    static boolean isRetryable(Throwable error) {
+        if (error instanceof AmazonServiceException) {
+            AmazonServiceException serviceError = (AmazonServiceException) error;
+            String code = serviceError.getErrorCode();
+            return serviceError.getStatusCode() >= 500
+                    || "ProvisionedThroughputExceededException".equals(code)
+                    || "ThrottlingException".equals(code)
+                    || "RequestLimitExceeded".equals(code);
+        }
+        return true;
+    }
+
+    public long getAttemptCount() {
+        return attempts.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    // Hedged requests that answered before the original one.
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    // Calls refused because the circuit was open.
+    public long getShortCircuitCount() {
+        return shortCircuited.get();
+    }
+}
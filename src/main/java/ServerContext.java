@@ -0,0 +1,121 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import com.amazonaws.services.lambda.runtime.Client;
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+// The Lambda Context for directives handled by DirectiveServer.
+// Every getter returns a usable value instead of null, and the remaining time counts down from the
+// per-request deadline.
+public class ServerContext implements Context {
+
+    private static final CognitoIdentity IDENTITY = new CognitoIdentity() {
+        @Override
+        public String getIdentityId() { return ""; }
+
+        @Override
+        public String getIdentityPoolId() { return ""; }
+    };
+
+    private static final Client CLIENT = new Client() {
+        @Override
+        public String getInstallationId() { return ""; }
+
+        @Override
+        public String getAppTitle() { return ""; }
+
+        @Override
+        public String getAppVersionName() { return ""; }
+
+        @Override
+        public String getAppVersionCode() { return ""; }
+
+        @Override
+        public String getAppPackageName() { return ""; }
+    };
+
+    private static final ClientContext CLIENT_CONTEXT = new ClientContext() {
+        @Override
+        public Client getClient() { return CLIENT; }
+
+        @Override
+        public Map<String, String> getCustom() { return Collections.emptyMap(); }
+
+        @Override
+        public Map<String, String> getEnvironment() { return Collections.emptyMap(); }
+    };
+
+    private static final LambdaLogger LOGGER = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+            System.out.println(message);
+        }
+
+        @Override
+        public void log(byte[] message) {
+            System.out.println(new String(message, StandardCharsets.UTF_8));
+        }
+    };
+
+    private final String awsRequestId = UUID.randomUUID().toString();
+    private final long deadlineMillis;
+
+    public ServerContext(long timeoutMillis) {
+        this.deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+    }
+
+    @Override
+    public String getAwsRequestId() { return awsRequestId; }
+
+    @Override
+    public String getLogGroupName() { return ""; }
+
+    @Override
+    public String getLogStreamName() { return ""; }
+
+    @Override
+    public String getFunctionName() { return "skill-sample-java-smarthome-switch"; }
+
+    @Override
+    public String getFunctionVersion() { return "$LATEST"; }
+
+    @Override
+    public String getInvokedFunctionArn() { return ""; }
+
+    @Override
+    public CognitoIdentity getIdentity() { return IDENTITY; }
+
+    @Override
+    public ClientContext getClientContext() { return CLIENT_CONTEXT; }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        return (int) Math.max(0, deadlineMillis - System.currentTimeMillis());
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    @Override
+    public LambdaLogger getLogger() { return LOGGER; }
+}
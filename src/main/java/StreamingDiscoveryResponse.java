@@ -0,0 +1,140 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// A Discover.Response whose endpoints are read from an EndpointSource while it is written.
+// The envelope is encoded once; each endpoint is encoded on its own as it arrives and appended to the
+// endpoints array, with no JSONObject tree for the whole response. Alexa rejects discovery responses
+// over its payload limit, so endpoints past maxEndpoints or maxBytes are left out and the truncation
+// is logged. The response is assembled in memory before it is written, so if the source fails an
+// ErrorResponse is written instead. Alexa takes a Discover.Response as the user's full list of
+// devices, so a partial or substitute list would replace the devices discovered before.
+public class StreamingDiscoveryResponse implements DirectiveResponse {
+
+    private static final String MESSAGE_ID_PLACEHOLDER = "@@messageId@@";
+    private static final String ENDPOINTS_PLACEHOLDER = "\"@@endpoints@@\"";
+
+    // The envelope split around the two placeholders, in the order they appear
+    private static final byte[][] PARTS = new byte[3][];
+    private static final boolean MESSAGE_ID_FIRST;
+
+    static {
+        AlexaResponse ar = new AlexaResponse("Alexa.Discovery", "Discover.Response");
+        ar.SetMessageId(MESSAGE_ID_PLACEHOLDER);
+        ar.SetPayload(new JSONObject().put("endpoints", new JSONArray().put("@@endpoints@@")));
+        String encoded = ar.toString();
+
+        int messageId = encoded.indexOf(MESSAGE_ID_PLACEHOLDER);
+        int endpoints = encoded.indexOf(ENDPOINTS_PLACEHOLDER);
+        MESSAGE_ID_FIRST = messageId < endpoints;
+        int first = Math.min(messageId, endpoints);
+        int second = Math.max(messageId, endpoints);
+        int firstEnd = first + (MESSAGE_ID_FIRST ? MESSAGE_ID_PLACEHOLDER : ENDPOINTS_PLACEHOLDER).length();
+        int secondEnd = second + (MESSAGE_ID_FIRST ? ENDPOINTS_PLACEHOLDER : MESSAGE_ID_PLACEHOLDER).length();
+        PARTS[0] = encoded.substring(0, first).getBytes(StandardCharsets.UTF_8);
+        PARTS[1] = encoded.substring(firstEnd, second).getBytes(StandardCharsets.UTF_8);
+        PARTS[2] = encoded.substring(secondEnd).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Only used for its endpoint builder
+    private static final AlexaResponse ENCODER = new AlexaResponse("Alexa.Discovery", "Discover.Response");
+
+    private final EndpointSource source;
+    private final String userId;
+    private final String messageId;
+    private final int maxEndpoints;
+    private final int maxBytes;
+
+    private int endpointCount;
+    private boolean truncated;
+    private boolean failed;
+
+    public StreamingDiscoveryResponse(EndpointSource source, String userId, String messageId,
+                                      int maxEndpoints, int maxBytes) {
+        this.source = source;
+        this.userId = userId;
+        this.messageId = messageId;
+        this.maxEndpoints = maxEndpoints;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        int envelope = PARTS[0].length + PARTS[1].length + PARTS[2].length + id.length;
+
+        ByteArrayOutputStream endpoints = new ByteArrayOutputStream(8192);
+        try {
+            source.forEachEncodedEndpoint(userId, encoded -> {
+                if (endpointCount >= maxEndpoints || envelope + endpoints.size() + encoded.length + 1 > maxBytes) {
+                    truncated = true;
+                    return false;
+                }
+                if (endpointCount > 0)
+                    endpoints.write(',');
+                endpoints.write(encoded, 0, encoded.length);
+                endpointCount++;
+                return true;
+            });
+        } catch (IOException | RuntimeException e) {
+            AlexaHandler.getLogger().logError(null, e);
+            failed = true;
+            AlexaHandler.errorResponse(null, e instanceof IOException ? "BRIDGE_UNREACHABLE" : "INTERNAL_ERROR",
+                    "The endpoints could not be read").writeTo(outputStream);
+            return;
+        }
+
+        if (truncated) {
+            AlexaHandler.getLogger().log("{\"time\":\"" + TimeOfSample.now() + "\",\"level\":\"WARN\",\"type\":\"discoveryTruncated\"" +
+                    ",\"endpoints\":" + endpointCount + ",\"maxEndpoints\":" + maxEndpoints + ",\"maxBytes\":" + maxBytes + "}");
+        }
+
+        outputStream.write(PARTS[0]);
+        if (MESSAGE_ID_FIRST)
+            outputStream.write(id);
+        else
+            endpoints.writeTo(outputStream);
+        outputStream.write(PARTS[1]);
+        if (MESSAGE_ID_FIRST)
+            endpoints.writeTo(outputStream);
+        else
+            outputStream.write(id);
+        outputStream.write(PARTS[2]);
+    }
+
+    static byte[] encode(EndpointCatalogue.Endpoint endpoint) {
+        return ENCODER.BuildPayloadEndpoint(endpoint.getFriendlyName(), endpoint.getEndpointId(), endpoint.getCapabilities(), null)
+                .toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int getEndpointCount() {
+        return endpointCount;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    // Only known once the response has been written
+    @Override
+    public boolean isError() {
+        return failed;
+    }
+}
@@ -0,0 +1,193 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+
+// Writes single-line JSON log records without blocking the invocation.
+// Records go into a bounded buffer that a daemon thread drains to stdout; when the buffer is full the
+// record is dropped and counted instead of stalling the caller. Every directive is logged with its
+// namespace, name, endpointId and latency, while the full request and response are only included for
+// a sampled fraction of invocations, with bearer tokens and grant codes redacted.
+public class StructuredLogger {
+
+    private static final Pattern SECRETS = Pattern.compile("(\"(?:token|code)\"\\s*:\\s*\")(?:[^\"\\\\]|\\\\.)*(\")");
+
+    private final PrintStream out;
+    private final BlockingQueue<String> buffer;
+    private final double payloadSampleRate;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    // Notified each time the drain thread has written a batch
+    private final Object drained = new Object();
+    private final Thread drainer;
+
+    public StructuredLogger(PrintStream out, int capacity, double payloadSampleRate) {
+        this.out = out;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.payloadSampleRate = payloadSampleRate;
+
+        drainer = new Thread(this::drain, "structured-logger");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // A logger that formats and buffers records as usual but throws them away.
+    public static StructuredLogger discarding(double payloadSampleRate) {
+        return new StructuredLogger(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }), 1024, payloadSampleRate);
+    }
+
+    public static StructuredLogger fromEnvironment() {
+        int capacity = Integer.parseInt(getEnv("LOG_BUFFER_SIZE", "1024"));
+        double sampleRate = Double.parseDouble(getEnv("LOG_PAYLOAD_SAMPLE_RATE", "0.01"));
+        StructuredLogger logger = new StructuredLogger(System.out, capacity, sampleRate);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> logger.flush(1000)));
+        return logger;
+    }
+
+    private static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return (value == null || value.isEmpty()) ? defaultValue : value;
+    }
+
+    public boolean samplePayload() {
+        return payloadSampleRate >= 1.0 || (payloadSampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < payloadSampleRate);
+    }
+
+    // request and response are only passed in for sampled invocations and may be null otherwise.
+    public void logDirective(Directive directive, long latencyNanos, String request, String response) {
+        StringBuilder sb = begin("INFO", "directive");
+        appendDirective(sb, directive);
+        sb.append(",\"latencyMs\":").append(latencyNanos / 1000 / 1000.0);
+        if (request != null)
+            sb.append(",\"request\":").append(JSONObject.quote(redact(request)));
+        if (response != null)
+            sb.append(",\"response\":").append(JSONObject.quote(redact(response)));
+        log(sb.append('}').toString());
+    }
+
+    public void logError(Directive directive, Throwable error) {
+        StringBuilder sb = begin("ERROR", "error");
+        if (directive != null)
+            appendDirective(sb, directive);
+        StringWriter stackTrace = new StringWriter();
+        error.printStackTrace(new PrintWriter(stackTrace));
+        sb.append(",\"error\":").append(JSONObject.quote(String.valueOf(error.getMessage())));
+        sb.append(",\"stackTrace\":").append(JSONObject.quote(stackTrace.toString()));
+        log(sb.append('}').toString());
+    }
+
+    public void log(String record) {
+        pending.incrementAndGet();
+        if (!buffer.offer(record)) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    // Waits until every buffered record has been written, or the timeout expires.
+    public boolean flush(long timeoutMillis) {
+        if (pending.get() == 0)
+            return true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (drained) {
+            while (pending.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                try {
+                    drained.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Stops the drain thread; records still buffered are not written.
+    public void close() {
+        drainer.interrupt();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    static String redact(String json) {
+        return SECRETS.matcher(json).replaceAll("$1REDACTED$2");
+    }
+
+    private StringBuilder begin(String level, String type) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"time\":\"").append(TimeOfSample.now())
+                .append("\",\"level\":\"").append(level)
+                .append("\",\"type\":\"").append(type).append('"');
+        return sb;
+    }
+
+    private static void appendDirective(StringBuilder sb, Directive directive) {
+        sb.append(",\"namespace\":").append(JSONObject.quote(directive.getNamespace()));
+        sb.append(",\"name\":").append(JSONObject.quote(directive.getName()));
+        sb.append(",\"endpointId\":").append(JSONObject.quote(directive.getEndpointId()));
+        sb.append(",\"messageId\":").append(JSONObject.quote(directive.getMessageId()));
+    }
+
+    private void drain() {
+        StringBuilder batch = new StringBuilder(4096);
+        while (true) {
+            try {
+                String record = buffer.take();
+                int count = 0;
+                do {
+                    batch.append(record).append('\n');
+                    count++;
+                } while (count < 256 && (record = buffer.poll()) != null);
+
+                out.print(batch);
+                out.flush();
+                batch.setLength(0);
+                written.addAndGet(count);
+                pending.addAndGet(-count);
+                synchronized (drained) {
+                    drained.notifyAll();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
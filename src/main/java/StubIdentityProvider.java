@@ -0,0 +1,57 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Resolves tokens from a fixed table, for tests and local runs. Tokens that are not in the table
+// resolve to defaultUserId, or are rejected when it is null.
+public class StubIdentityProvider implements IdentityProvider {
+
+    private final String defaultUserId;
+    private final Map<String, String> users = new ConcurrentHashMap<>();
+    private volatile long latencyMillis;
+    private final AtomicLong lookups = new AtomicLong();
+
+    public StubIdentityProvider(String defaultUserId) {
+        this.defaultUserId = defaultUserId;
+    }
+
+    public StubIdentityProvider withUser(String token, String userId) {
+        users.put(token, userId);
+        return this;
+    }
+
+    public StubIdentityProvider withLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    @Override
+    public String resolveUserId(String token) {
+        lookups.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return users.getOrDefault(token, defaultUserId);
+    }
+
+    public long getLookupCount() {
+        return lookups.get();
+    }
+}
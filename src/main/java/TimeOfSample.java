@@ -0,0 +1,76 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+// Formats timeOfSample values as ISO-8601 UTC with milliseconds, e.g. 2018-02-26T18:23:45.123Z.
+// The "yyyy-MM-ddTHH:mm:ss." prefix is formatted once per second and shared by all threads, so a
+// call allocates nothing beyond the returned String.
+public final class TimeOfSample {
+
+    private static final class Second {
+
+        private final long epochSecond;
+        private final String prefix;
+
+        private Second(long epochSecond) {
+            this.epochSecond = epochSecond;
+
+            LocalDateTime time = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+            StringBuilder sb = new StringBuilder(20);
+            pad(sb, time.getYear(), 4).append('-');
+            pad(sb, time.getMonthValue(), 2).append('-');
+            pad(sb, time.getDayOfMonth(), 2).append('T');
+            pad(sb, time.getHour(), 2).append(':');
+            pad(sb, time.getMinute(), 2).append(':');
+            pad(sb, time.getSecond(), 2).append('.');
+            this.prefix = sb.toString();
+        }
+    }
+
+    private static final String[] MILLIS = new String[1000];
+
+    static {
+        for (int i = 0; i < MILLIS.length; i++)
+            MILLIS[i] = pad(new StringBuilder(4), i, 3).append('Z').toString();
+    }
+
+    private static volatile Second current = new Second(0);
+
+    private TimeOfSample() {
+    }
+
+    public static String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    public static String format(long epochMillis) {
+        long epochSecond = Math.floorDiv(epochMillis, 1000L);
+        int millis = (int) Math.floorMod(epochMillis, 1000L);
+
+        Second second = current;
+        if (second.epochSecond != epochSecond) {
+            second = new Second(epochSecond);
+            current = second;
+        }
+        return second.prefix.concat(MILLIS[millis]);
+    }
+
+    private static StringBuilder pad(StringBuilder sb, int value, int width) {
+        String digits = Integer.toString(value);
+        for (int i = digits.length(); i < width; i++)
+            sb.append('0');
+        return sb.append(digits);
+    }
+}
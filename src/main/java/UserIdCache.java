@@ -0,0 +1,174 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// A bounded, least-recently-used cache of the user ids an IdentityProvider resolves tokens to.
+// Tokens the provider rejects are cached for negativeTtlMillis, so a client retrying with a bad
+// token does not reach the provider on every directive. Concurrent lookups of one token share a
+// single call to the provider. A lookup that fails is not cached.
+public class UserIdCache {
+
+    private static final class Entry {
+
+        private final CompletableFuture<String> userId = new CompletableFuture<>();
+        private volatile long expiresAt = Long.MAX_VALUE;
+    }
+
+    private final IdentityProvider provider;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public UserIdCache(IdentityProvider provider, int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this(provider, maxSize, ttlMillis, negativeTtlMillis, System::currentTimeMillis);
+    }
+
+    UserIdCache(IdentityProvider provider, int maxSize, long ttlMillis, long negativeTtlMillis, LongSupplier clock) {
+        this.provider = provider;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > UserIdCache.this.maxSize;
+            }
+        };
+    }
+
+    // Set IDENTITY_PROVIDER to lwa to resolve tokens with Login with Amazon, or to stub to resolve every
+    // token to IDENTITY_STUB_USER_ID. Returns null when it is not set.
+    public static UserIdCache fromEnvironment() {
+        String name = DynamoDBDeviceStateStore.getEnv("IDENTITY_PROVIDER", "none");
+        IdentityProvider provider;
+        try {
+            switch (name) {
+                case "lwa":
+                    provider = new LoginWithAmazonIdentityProvider(
+                            new URL(DynamoDBDeviceStateStore.getEnv("IDENTITY_PROFILE_URL", LoginWithAmazonIdentityProvider.PROFILE_URL)),
+                            Integer.parseInt(DynamoDBDeviceStateStore.getEnv("IDENTITY_TIMEOUT_MILLIS", "1000")));
+                    break;
+                case "stub":
+                    provider = new StubIdentityProvider(DynamoDBDeviceStateStore.getEnv("IDENTITY_STUB_USER_ID", "sample-user"));
+                    break;
+                default:
+                    return null;
+            }
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("IDENTITY_PROFILE_URL is not a valid URL", e);
+        }
+        return new UserIdCache(provider,
+                Integer.parseInt(DynamoDBDeviceStateStore.getEnv("USER_ID_CACHE_SIZE", "10000")),
+                Long.parseLong(DynamoDBDeviceStateStore.getEnv("USER_ID_CACHE_TTL_MILLIS", "300000")),
+                Long.parseLong(DynamoDBDeviceStateStore.getEnv("USER_ID_CACHE_NEGATIVE_TTL_MILLIS", "30000")));
+    }
+
+    // Returns the user id, or null if the token is missing or not valid. Throws if the provider could
+    // not be asked, or the lookup did not finish before the invocation's deadline.
+    public String resolve(String token) throws IOException {
+        if (token == null)
+            return null;
+
+        Entry entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(token);
+            if (entry != null && entry.expiresAt <= clock.getAsLong()) {
+                entries.remove(token);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(token, entry);
+                owner = true;
+                misses.incrementAndGet();
+            } else if (entry.userId.isDone()) {
+                hits.incrementAndGet();
+            } else {
+                coalesced.incrementAndGet();
+            }
+        }
+
+        if (owner)
+            return lookup(token, entry);
+        try {
+            return entry.userId.get(Math.min(Deadline.remainingNanos(), TimeUnit.DAYS.toNanos(1)), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for the user id", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the user id", e);
+        }
+    }
+
+    private String lookup(String token, Entry entry) throws IOException {
+        String userId;
+        try {
+            userId = provider.resolveUserId(token);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            synchronized (entries) {
+                entries.remove(token, entry);
+            }
+            entry.userId.completeExceptionally(e);
+            throw e;
+        }
+        entry.expiresAt = clock.getAsLong() + (userId == null ? negativeTtlMillis : ttlMillis);
+        entry.userId.complete(userId);
+        return userId;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // Number of lookups that waited for another thread's call to the provider.
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+}
@@ -47,9 +47,23 @@ public class AlexaHandlerTest {
         return new JSONObject(responseString);
     }
 
+    // Reads the copy bundled in src/test/resources/sample_messages when there is one, so the tests run offline
     private String GetSample(String url)
     {
         StringBuilder sb = new StringBuilder();
+        InputStream bundled = getClass().getResourceAsStream("/sample_messages/" + url.substring(sampleUri.length()));
+        if (bundled != null) {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(bundled, Charset.forName("UTF-8")))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    sb.append(line+"\n");
+                }
+                return sb.toString();
+            } catch (IOException e) {
+                e.printStackTrace();
+                sb.setLength(0);
+            }
+        }
         try {
             URL iurl = new URL(url);
             HttpURLConnection c = (HttpURLConnection)iurl.openConnection();
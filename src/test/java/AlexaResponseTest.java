@@ -13,6 +13,11 @@
 
 import org.json.*;
 import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.Assert.*;
 
 public class AlexaResponseTest {
@@ -105,5 +110,38 @@ public class AlexaResponseTest {
         assertEquals("Interface should be Alexa.PowerController","Alexa.PowerController", alexaPowerControllerInterface);
     }
 
+    @Test
+    public void ResponseWriteToTest() throws IOException {
+        AlexaResponse ar = new AlexaResponse("Alexa", "Response", "sample-switch-01", "token", "correlation");
+        ar.AddCookie("key", "value \u00fc");
+        ar.AddContextProperty("Alexa.PowerController", "powerState", "ON", 200);
+        ar.AddContextProperty("Alexa.BrightnessController", "brightness", "{\"value\": 50}", 500);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ar.writeTo(outputStream);
+
+        assertArrayEquals("Streamed bytes should match toString", ar.toString().getBytes(StandardCharsets.UTF_8), outputStream.toByteArray());
+    }
+
+    @Test
+    public void ResponseBuildMatchesCreateTest() {
+        AlexaResponse ar = new AlexaResponse("Alexa.Discovery", "Discover.Response");
+
+        String capability = ar.CreatePayloadEndpointCapability("AlexaInterface", "Alexa.PowerController", "3", "{\"supported\": [ { \"name\": \"powerState\" } ] }");
+        JSONObject supported = new JSONObject().put("supported", new JSONArray().put(new JSONObject().put("name", "powerState")));
+        assertEquals("Capability JSON should be identical", capability, ar.BuildPayloadEndpointCapability("AlexaInterface", "Alexa.PowerController", "3", supported).toString());
+
+        String endpoint = ar.CreatePayloadEndpoint("Sample Switch", "sample-switch-01", "[" + capability + "]", "{\"key\": \"value\"}");
+        assertEquals("Endpoint JSON should be identical", endpoint, ar.BuildPayloadEndpoint("Sample Switch", "sample-switch-01", new JSONArray().put(new JSONObject(capability)), "{\"key\": \"value\"}").toString());
+    }
+
+    @Test
+    public void ContextPropertyObjectValueTest() {
+        AlexaResponse ar = new AlexaResponse();
+        JSONObject encoded = ar.BuildContextProperty("Alexa.EndpointHealth", "connectivity", "{\"value\": \"OK\"}", 0);
+        JSONObject object = ar.BuildContextProperty("Alexa.EndpointHealth", "connectivity", new JSONObject().put("value", "OK"), 0);
 
-}
\ No newline at end of file
+        assertEquals("Object value should match the encoded one", encoded.getJSONObject("value").toString(), object.getJSONObject("value").toString());
+        assertEquals("Name should be set", "connectivity", object.getString("name"));
+    }
+}
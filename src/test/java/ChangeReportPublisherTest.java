@@ -0,0 +1,240 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.sun.net.httpserver.HttpServer;
+import org.json.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class ChangeReportPublisherTest {
+
+    // A stand-in for the Alexa event gateway that answers with the queued status codes, then 202.
+    private HttpServer gateway;
+    private final List<JSONObject> reports = new CopyOnWriteArrayList<>();
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private URL url;
+
+    @Before
+    public void SetUp() throws IOException {
+        gateway = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        gateway.createContext("/v3/events", exchange -> {
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                int read;
+                while ((read = inputStream.read(chunk)) != -1)
+                    buffer.write(chunk, 0, read);
+                Integer status = statuses.poll();
+                if (status == null) {
+                    reports.add(new JSONObject(new String(buffer.toByteArray(), StandardCharsets.UTF_8)));
+                    authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                }
+                exchange.sendResponseHeaders(status == null ? 202 : status, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        gateway.start();
+        url = new URL("http://localhost:" + gateway.getAddress().getPort() + "/v3/events");
+    }
+
+    @After
+    public void TearDown() {
+        gateway.stop(0);
+    }
+
+    private ChangeReportPublisher Publisher(int queueCapacity, long coalesceMillis) {
+        return Publisher(queueCapacity, coalesceMillis, userId -> "gateway-token");
+    }
+
+    private ChangeReportPublisher Publisher(int queueCapacity, long coalesceMillis, ChangeReportPublisher.TokenProvider tokens) {
+        return new ChangeReportPublisher(url, tokens, queueCapacity, coalesceMillis, 2, 3, 10);
+    }
+
+    @Test
+    public void ChangeReportTest() {
+        ChangeReportPublisher publisher = Publisher(10, 0);
+        assertTrue("Change should be queued", publisher.submit("user-1", "sample-switch-01", "Alexa.PowerController", "powerState", "ON", "PHYSICAL_INTERACTION"));
+        assertTrue("Flush should complete", publisher.flush(5000));
+        publisher.close(1000);
+
+        assertEquals("One report should be sent", 1, reports.size());
+        assertEquals("Token should be sent as a bearer token", "Bearer gateway-token", authorizations.get(0));
+
+        JSONObject event = reports.get(0).getJSONObject("event");
+        assertEquals("Name should be ChangeReport", "ChangeReport", event.getJSONObject("header").getString("name"));
+        assertFalse("ChangeReport has no correlationToken", event.getJSONObject("header").has("correlationToken"));
+        assertEquals("Endpoint should be set", "sample-switch-01", event.getJSONObject("endpoint").getString("endpointId"));
+
+        JSONObject change = event.getJSONObject("payload").getJSONObject("change");
+        assertEquals("Cause should be set", "PHYSICAL_INTERACTION", change.getJSONObject("cause").getString("type"));
+        assertEquals("Value should be ON", "ON", change.getJSONArray("properties").getJSONObject(0).getString("value"));
+        assertEquals("One report should be published", 1, publisher.getPublishedCount());
+    }
+
+    @Test
+    public void CoalesceTest() {
+        ChangeReportPublisher publisher = Publisher(10, 60000);
+        publisher.submit("user-1", "sample-switch-01", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION");
+        publisher.submit("user-1", "sample-switch-01", "Alexa.PowerController", "powerState", "OFF", "VOICE_INTERACTION");
+        publisher.submit("user-1", "sample-switch-02", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION");
+        assertTrue("Flush should complete", publisher.flush(5000));
+        publisher.close(1000);
+
+        assertEquals("One report per endpoint should be sent", 2, reports.size());
+        assertEquals("One change should be coalesced", 1, publisher.getCoalescedCount());
+        for (JSONObject report : reports) {
+            JSONObject event = report.getJSONObject("event");
+            JSONArray properties = event.getJSONObject("payload").getJSONObject("change").getJSONArray("properties");
+            assertEquals("Changes to one property should be merged", 1, properties.length());
+            if ("sample-switch-01".equals(event.getJSONObject("endpoint").getString("endpointId")))
+                assertEquals("Latest value should be reported", "OFF", properties.getJSONObject(0).getString("value"));
+        }
+    }
+
+    @Test
+    public void RetryTest() {
+        statuses.add(503);
+        statuses.add(429);
+        ChangeReportPublisher publisher = Publisher(10, 0);
+        publisher.submit("user-1", "sample-switch-01", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION");
+        assertTrue("Flush should complete", publisher.flush(5000));
+        publisher.close(1000);
+
+        assertEquals("Report should be sent after retries", 1, reports.size());
+        assertEquals("Two retries should be counted", 2, publisher.getRetriedCount());
+        assertEquals("Nothing should fail", 0, publisher.getFailedCount());
+    }
+
+    @Test
+    public void ClientErrorIsNotRetriedTest() {
+        statuses.add(400);
+        ChangeReportPublisher publisher = Publisher(10, 0);
+        publisher.submit("user-1", "sample-switch-01", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION");
+        assertTrue("Flush should complete", publisher.flush(5000));
+        publisher.close(1000);
+
+        assertEquals("Nothing should be retried", 0, publisher.getRetriedCount());
+        assertEquals("Report should fail", 1, publisher.getFailedCount());
+    }
+
+    @Test
+    public void TokenPerUserTest() {
+        ChangeReportPublisher publisher = Publisher(10, 0, userId -> "token-" + userId);
+        publisher.submit("user-1", "switch-1", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION");
+        publisher.submit("user-2", "switch-2", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION");
+        assertTrue("Flush should complete", publisher.flush(5000));
+        publisher.close(1000);
+
+        assertEquals("Two reports should be sent", 2, reports.size());
+        for (int i = 0; i < reports.size(); i++) {
+            JSONObject endpoint = reports.get(i).getJSONObject("event").getJSONObject("endpoint");
+            String token = "switch-1".equals(endpoint.getString("endpointId")) ? "token-user-1" : "token-user-2";
+            assertEquals("Report should be sent with its user's token", "Bearer " + token, authorizations.get(i));
+            assertEquals("Scope should carry its user's token", token, endpoint.getJSONObject("scope").getString("token"));
+        }
+    }
+
+    @Test
+    public void NoTokenIsNotSentTest() {
+        ChangeReportPublisher publisher = Publisher(10, 0, userId -> null);
+        assertTrue("Change should be queued", publisher.submit("user-1", "switch-1", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION"));
+        assertTrue("Flush should complete", publisher.flush(5000));
+        publisher.close(1000);
+
+        assertEquals("Nothing should be sent", 0, reports.size());
+        assertEquals("Nothing should be retried", 0, publisher.getRetriedCount());
+        assertEquals("Report should fail", 1, publisher.getFailedCount());
+    }
+
+    @Test
+    public void NoUserIsDroppedTest() {
+        ChangeReportPublisher publisher = Publisher(10, 0);
+        assertFalse("Change without a user should be dropped", publisher.submit(null, "switch-1", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION"));
+        assertEquals("One change should be dropped", 1, publisher.getDroppedCount());
+        publisher.close(1000);
+    }
+
+    @Test
+    public void BackpressureTest() {
+        ChangeReportPublisher publisher = Publisher(1, 60000);
+        assertTrue("First endpoint should be queued", publisher.submit("user-1", "switch-1", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION"));
+        assertTrue("Same endpoint should coalesce", publisher.submit("user-1", "switch-1", "Alexa.PowerController", "powerState", "OFF", "VOICE_INTERACTION"));
+        assertFalse("Second endpoint should be dropped", publisher.submit("user-1", "switch-2", "Alexa.PowerController", "powerState", "ON", "VOICE_INTERACTION"));
+        assertEquals("One change should be dropped", 1, publisher.getDroppedCount());
+        publisher.close(5000);
+    }
+
+    @Test
+    public void HandlerDoesNotWaitForChangeTest() throws Exception {
+        ChangeReportPublisher previousPublisher = AlexaHandler.getChangeReportPublisher();
+        DeviceStateStore previousStore = AlexaHandler.getDeviceStateStore();
+        DirectiveDeduplicator previousDeduplicator = AlexaHandler.getDeduplicator();
+        UserIdCache previousCache = AlexaHandler.getUserIdCache();
+        // Holds the report in its sender until the handler has returned
+        CountDownLatch returned = new CountDownLatch(1);
+        ChangeReportPublisher publisher = Publisher(10, 60000, userId -> {
+            try {
+                returned.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "token-" + userId;
+        });
+        try {
+            AlexaHandler.setChangeReportPublisher(publisher);
+            AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore());
+            AlexaHandler.setDeduplicator(new DirectiveDeduplicator(0, 0));
+            AlexaHandler.setUserIdCache(new UserIdCache(new StubIdentityProvider("user-1"), 16, 60000, 60000));
+
+            String request = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.PowerController\",\"name\":\"TurnOn\",\"payloadVersion\":\"3\",\"messageId\":\"m-1\",\"correlationToken\":\"c-1\"}," +
+                    "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"t\"},\"endpointId\":\"sample-switch-01\",\"cookie\":{}},\"payload\":{}}}";
+            AlexaHandler.handler(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(), null);
+
+            assertEquals("Report should still be outstanding when the handler returns", 1, publisher.getOutstandingCount());
+            returned.countDown();
+
+            // Outside server mode the handler hands the report to a sender without waiting out its coalescing window
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reports.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+        } finally {
+            returned.countDown();
+            AlexaHandler.setChangeReportPublisher(previousPublisher);
+            AlexaHandler.setDeviceStateStore(previousStore);
+            AlexaHandler.setDeduplicator(previousDeduplicator);
+            AlexaHandler.setUserIdCache(previousCache);
+            publisher.close(1000);
+        }
+
+        assertEquals("One report should be sent", 1, reports.size());
+        assertEquals("Report should be sent with the user's token", "Bearer token-user-1", authorizations.get(0));
+    }
+}
@@ -0,0 +1,172 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DeviceStateCacheTest {
+
+    @Test
+    public void HitAndMissTest() {
+        DeviceStateCache cache = new DeviceStateCache(10, 1000);
+
+        assertNull("Empty cache should miss", cache.get("sample-switch-01", "powerState"));
+        cache.put("sample-switch-01", "powerState", "ON");
+        assertEquals("Cached value should be returned", "ON", cache.get("sample-switch-01", "powerState"));
+
+        assertEquals("One hit should be counted", 1, cache.getHitCount());
+        assertEquals("One miss should be counted", 1, cache.getMissCount());
+        assertEquals("Hit rate should be 0.5", 0.5, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void LeastRecentlyUsedEvictionTest() {
+        DeviceStateCache cache = new DeviceStateCache(2, 1000);
+        cache.put("switch-1", "powerState", "ON");
+        cache.put("switch-2", "powerState", "ON");
+        cache.get("switch-1", "powerState");
+        cache.put("switch-3", "powerState", "ON");
+
+        assertEquals("Cache should stay bounded", 2, cache.size());
+        assertEquals("One entry should be evicted", 1, cache.getEvictionCount());
+        assertNotNull("Recently used entry should be kept", cache.get("switch-1", "powerState"));
+        assertNull("Least recently used entry should be evicted", cache.get("switch-2", "powerState"));
+    }
+
+    @Test
+    public void TimeToLiveTest() {
+        AtomicLong now = new AtomicLong(1000);
+        DeviceStateCache cache = new DeviceStateCache(10, 500, now::get);
+        cache.put("sample-switch-01", "powerState", "ON");
+
+        now.set(1499);
+        assertEquals("Entry should be live before the TTL", "ON", cache.get("sample-switch-01", "powerState"));
+        now.set(1500);
+        assertNull("Entry should expire after the TTL", cache.get("sample-switch-01", "powerState"));
+        assertEquals("Expiration should be counted", 1, cache.getExpirationCount());
+    }
+
+    @Test
+    public void CachingStoreTest() {
+        InMemoryDeviceStateStore backing = new InMemoryDeviceStateStore();
+        backing.setDeviceState("sample-switch-01", "powerState", "OFF");
+        CachingDeviceStateStore store = new CachingDeviceStateStore(backing, new DeviceStateCache(10, 60000));
+
+        assertEquals("Miss should fall back to the store", "OFF", store.getDeviceState("sample-switch-01", "powerState"));
+        store.getDeviceState("sample-switch-01", "powerState");
+        assertEquals("Second read should hit the cache", 1, store.getCache().getHitCount());
+
+        store.setDeviceState("sample-switch-01", "powerState", "ON");
+        assertEquals("Write should go to the store", "ON", backing.getDeviceState("sample-switch-01", "powerState"));
+        backing.clear();
+        assertEquals("Write should go through to the cache", "ON", store.getDeviceState("sample-switch-01", "powerState"));
+        assertNull("Unknown endpoint should return null", store.getDeviceState("unknown", "powerState"));
+    }
+
+    @Test
+    public void AbsentValueIsCachedTest() {
+        FaultInjectingDeviceStateStore backing = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore());
+        CachingDeviceStateStore store = new CachingDeviceStateStore(backing, new DeviceStateCache(10, 60000));
+
+        assertNull("Endpoint that was never set should have no value", store.getDeviceState("sample-switch-01", "powerState"));
+        assertNull("Absence should be answered from the cache", store.getDeviceState("sample-switch-01", "powerState"));
+        assertEquals("Store should be read once", 1, backing.getCallCount());
+        assertEquals("Cached absence should count as a hit", 1, store.getCache().getHitCount());
+
+        store.setDeviceState("sample-switch-01", "powerState", "ON");
+        assertEquals("Write should replace the cached absence", "ON", store.getDeviceState("sample-switch-01", "powerState"));
+        assertEquals("Write should not be skipped over a cached absence", 0, store.getWritesSkipped());
+    }
+
+    @Test
+    public void PutIfUnchangedTest() {
+        DeviceStateCache cache = new DeviceStateCache(10, 60000);
+        long sequence = cache.sequence();
+        assertTrue("Value read with nothing written should be cached", cache.putIfUnchanged("switch-1", "powerState", "OFF", sequence));
+
+        sequence = cache.sequence();
+        cache.put("switch-1", "powerState", "ON");
+        assertFalse("Value read before a write should not be cached", cache.putIfUnchanged("switch-1", "powerState", "OFF", sequence));
+        assertEquals("Written value should be kept", "ON", cache.get("switch-1", "powerState"));
+
+        sequence = cache.sequence();
+        cache.invalidate("switch-2", "powerState");
+        assertFalse("Value read before an invalidation should not be cached", cache.putIfUnchanged("switch-2", "powerState", "OFF", sequence));
+        assertNull("Invalidated key should stay empty", cache.get("switch-2", "powerState"));
+    }
+
+    @Test
+    public void ReadDoesNotOverwriteWriteTest() {
+        CachingDeviceStateStore[] caching = new CachingDeviceStateStore[1];
+        InMemoryDeviceStateStore backing = new InMemoryDeviceStateStore() {
+            private boolean written;
+
+            @Override
+            public String getDeviceState(String endpointId, String state) {
+                String value = super.getDeviceState(endpointId, state);
+                // Another directive's write goes through between the read and caching its value
+                if (!written) {
+                    written = true;
+                    caching[0].setDeviceState(endpointId, state, "ON");
+                }
+                return value;
+            }
+        };
+        backing.setDeviceState("sample-switch-01", "powerState", "OFF");
+        caching[0] = new CachingDeviceStateStore(backing, new DeviceStateCache(10, 60000));
+
+        assertEquals("Read should return the value it read", "OFF", caching[0].getDeviceState("sample-switch-01", "powerState"));
+        assertEquals("Written value should not be overwritten by the older read", "ON", caching[0].getCache().get("sample-switch-01", "powerState"));
+    }
+
+    @Test
+    public void RepeatedStateSkipsWriteTest() {
+        InMemoryDeviceStateStore backing = new InMemoryDeviceStateStore();
+        CachingDeviceStateStore store = new CachingDeviceStateStore(backing, new DeviceStateCache(10, 60000));
+
+        store.setDeviceState("sample-switch-01", "powerState", "ON");
+        backing.clear();
+        assertTrue("No-op write should succeed", store.setDeviceState("sample-switch-01", "powerState", "ON"));
+        assertNull("Repeated state should not be written", backing.getDeviceState("sample-switch-01", "powerState"));
+        assertEquals("One write should be skipped", 1, store.getWritesSkipped());
+        assertEquals("Skipped writes should not count as cache hits", 0, store.getCache().getHitCount());
+
+        store.setDeviceState("sample-switch-01", "powerState", "OFF");
+        assertEquals("Changed state should be written", "OFF", backing.getDeviceState("sample-switch-01", "powerState"));
+    }
+
+    @Test
+    public void BatchSkipsKnownEndpointsTest() {
+        InMemoryDeviceStateStore backing = new InMemoryDeviceStateStore();
+        CachingDeviceStateStore store = new CachingDeviceStateStore(backing, new DeviceStateCache(10, 60000));
+        store.setDeviceState("switch-0", "powerState", "ON");
+        store.setDeviceState("switch-1", "powerState", "ON");
+        backing.clear();
+
+        boolean[] stored = store.setDeviceStates(Arrays.asList(
+                new DeviceStateWrite("switch-0", "powerState", "ON"),
+                new DeviceStateWrite("switch-1", "powerState", "ON"),
+                new DeviceStateWrite("switch-1", "brightness", "50")));
+
+        for (boolean s : stored)
+            assertTrue("Every write should be stored", s);
+        assertNull("Known endpoint should not be sent", backing.getDeviceState("switch-0", "powerState"));
+        assertEquals("Endpoint with a new value should be sent whole", "ON", backing.getDeviceState("switch-1", "powerState"));
+        assertEquals("New value should be sent", "50", backing.getDeviceState("switch-1", "brightness"));
+        assertEquals("One endpoint should be skipped", 1, store.getWritesSkipped());
+    }
+}
@@ -0,0 +1,136 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceStateStoreTest {
+
+    private DeviceStateStore previousStore;
+    private InMemoryDeviceStateStore store;
+
+    @Before
+    public void SetUp() {
+        previousStore = AlexaHandler.getDeviceStateStore();
+        store = new InMemoryDeviceStateStore();
+        AlexaHandler.setDeviceStateStore(store);
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setDeviceStateStore(previousStore);
+    }
+
+    @Test
+    public void SendDeviceStateTest() {
+        assertTrue("State should be stored", AlexaHandler.sendDeviceState("sample-switch-01", "powerState", "ON"));
+        assertEquals("Value should be ON", "ON", store.getDeviceState("sample-switch-01", "powerState"));
+
+        AlexaHandler.sendDeviceState("sample-switch-01", "powerState", "OFF");
+        assertEquals("Value should be OFF", "OFF", store.getDeviceState("sample-switch-01", "powerState"));
+        assertEquals("Only one item should exist", 1, store.size());
+    }
+
+    private static String Directive(String namespace, String name, String endpointId) {
+        return "{\"directive\":{\"header\":{\"namespace\":\"" + namespace + "\",\"name\":\"" + name + "\",\"payloadVersion\":\"3\"," +
+                "\"messageId\":\"m-" + endpointId + "\",\"correlationToken\":\"c-" + endpointId + "\"}," +
+                "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"t\"},\"endpointId\":\"" + endpointId + "\",\"cookie\":{}},\"payload\":{}}}";
+    }
+
+    private static JSONArray Batch(String... directives) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.batchHandler(new ByteArrayInputStream(("[" + String.join(",", directives) + "]").getBytes(StandardCharsets.UTF_8)),
+                outputStream, new ServerContext(5000));
+        return new JSONArray(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static JSONObject Header(JSONArray responses, int index) {
+        return responses.getJSONObject(index).getJSONObject("event").getJSONObject("header");
+    }
+
+    @Test
+    public void BatchHandlerTest() {
+        JSONArray responses = Batch(
+                Directive("Alexa", "ReportState", "sample-switch-01"),
+                Directive("Alexa.PowerController", "TurnOn", "sample-switch-01"),
+                "\"not a directive\"",
+                Directive("Alexa.PowerController", "TurnOff", "sample-switch-02"));
+
+        assertEquals("Every directive should be answered", 4, responses.length());
+        assertEquals("State changes should be visible to the whole batch", "ON",
+                responses.getJSONObject(0).getJSONObject("context").getJSONArray("properties").getJSONObject(0).getString("value"));
+        assertEquals("Name should be Response", "Response", Header(responses, 1).getString("name"));
+        assertEquals("Correlation token should be kept", "c-sample-switch-01", Header(responses, 1).getString("correlationToken"));
+        assertEquals("Unreadable directive should be an ErrorResponse", "ErrorResponse", Header(responses, 2).getString("name"));
+        assertEquals("Name should be Response", "Response", Header(responses, 3).getString("name"));
+        assertEquals("Value should be ON", "ON", store.getDeviceState("sample-switch-01", "powerState"));
+        assertEquals("Value should be OFF", "OFF", store.getDeviceState("sample-switch-02", "powerState"));
+    }
+
+    @Test
+    public void BatchHandlerUnprocessedTest() {
+        AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore() {
+            @Override
+            public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+                boolean[] stored = super.setDeviceStates(writes);
+                stored[1] = false;
+                return stored;
+            }
+        });
+
+        JSONArray responses = Batch(
+                Directive("Alexa.PowerController", "TurnOn", "sample-switch-01"),
+                Directive("Alexa.PowerController", "TurnOn", "sample-switch-02"));
+
+        assertEquals("Name should be Response", "Response", Header(responses, 0).getString("name"));
+        assertEquals("Unprocessed write should be an ErrorResponse", "ErrorResponse", Header(responses, 1).getString("name"));
+        assertEquals("Type should be ENDPOINT_UNREACHABLE", "ENDPOINT_UNREACHABLE",
+                responses.getJSONObject(1).getJSONObject("event").getJSONObject("payload").getString("type"));
+        assertEquals("Correlation token should be kept", "c-sample-switch-02", Header(responses, 1).getString("correlationToken"));
+    }
+
+    @Test
+    public void DynamoDBClientIsSharedTest() {
+        assertNotNull("Client configuration should be created", DynamoDBDeviceStateStore.createClientConfiguration());
+        assertTrue("Keep-alive should be enabled", DynamoDBDeviceStateStore.createClientConfiguration().useTcpKeepAlive());
+
+        // Building the client needs a region but no credentials
+        String previousRegion = System.getProperty("aws.region");
+        if (System.getenv("AWS_REGION") == null && previousRegion == null)
+            System.setProperty("aws.region", "us-east-1");
+        try {
+            AmazonDynamoDB client = DynamoDBDeviceStateStore.getClient();
+            assertSame("Repeated calls should return the same client", client, DynamoDBDeviceStateStore.getClient());
+            assertSame("Every store should use the shared client", client, new DynamoDBDeviceStateStore().getTableClient());
+            assertSame("Every store should use the shared client", client, new DynamoDBDeviceStateStore("OtherTable").getTableClient());
+
+            DynamoDBDeviceStateStore.shutdownClient();
+            assertNotSame("A shut down client should be replaced", client, DynamoDBDeviceStateStore.getClient());
+        } finally {
+            DynamoDBDeviceStateStore.shutdownClient();
+            if (previousRegion == null)
+                System.clearProperty("aws.region");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DirectiveDeduplicatorTest {
+
+    private DeviceStateStore previousStore;
+    private DirectiveDeduplicator previousDeduplicator;
+
+    @Before
+    public void SetUp() {
+        previousStore = AlexaHandler.getDeviceStateStore();
+        previousDeduplicator = AlexaHandler.getDeduplicator();
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setDeviceStateStore(previousStore);
+        AlexaHandler.setDeduplicator(previousDeduplicator);
+    }
+
+    private static DirectiveResponse Response(String body) {
+        return outputStream -> outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void DuplicateIsSuppressedTest() throws Exception {
+        DirectiveDeduplicator deduplicator = new DirectiveDeduplicator(10, 60000);
+        AtomicInteger calls = new AtomicInteger();
+
+        byte[] first = deduplicator.execute("key", () -> Response("response-" + calls.incrementAndGet()));
+        byte[] second = deduplicator.execute("key", () -> Response("response-" + calls.incrementAndGet()));
+
+        assertEquals("Action should run once", 1, calls.get());
+        assertArrayEquals("Duplicate should get the cached bytes", first, second);
+        assertEquals("One duplicate should be suppressed", 1, deduplicator.getSuppressedCount());
+    }
+
+    @Test
+    public void ErrorResponseIsNotCachedTest() throws Exception {
+        DirectiveDeduplicator deduplicator = new DirectiveDeduplicator(10, 60000);
+        deduplicator.execute("key", () -> new AlexaResponse("Alexa", "ErrorResponse"));
+
+        assertEquals("Error response should not be kept", 0, deduplicator.size());
+    }
+
+    @Test
+    public void TimeToLiveAndSizeTest() throws Exception {
+        AtomicLong now = new AtomicLong(0);
+        DirectiveDeduplicator deduplicator = new DirectiveDeduplicator(2, 1000, now::get);
+        AtomicInteger calls = new AtomicInteger();
+
+        deduplicator.execute("a", () -> Response("a"));
+        now.set(1000);
+        deduplicator.execute("a", () -> Response("a-" + calls.incrementAndGet()));
+        assertEquals("Expired entry should be handled again", 1, calls.get());
+
+        deduplicator.execute("b", () -> Response("b"));
+        deduplicator.execute("c", () -> Response("c"));
+        assertTrue("Window should stay bounded", deduplicator.size() <= 2);
+        assertTrue("Entries should be evicted", deduplicator.getEvictedCount() >= 1);
+    }
+
+    @Test
+    public void ConcurrentDuplicateWaitsTest() throws Exception {
+        DirectiveDeduplicator deduplicator = new DirectiveDeduplicator(10, 60000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> first = executor.submit(() -> deduplicator.execute("key", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return Response("slow");
+            }));
+            started.await();
+
+            Thread releaser = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            });
+            releaser.start();
+
+            byte[] second = deduplicator.execute("key", () -> Response("retry-" + calls.incrementAndGet()));
+            assertArrayEquals("Retry should wait for the first attempt", first.get(), second);
+            assertEquals("Action should run once", 1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void HandlerRetryWritesOnceTest() throws IOException {
+        AtomicInteger writes = new AtomicInteger();
+        AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore() {
+            @Override
+            public boolean setDeviceState(String endpointId, String state, String value) {
+                writes.incrementAndGet();
+                return super.setDeviceState(endpointId, state, value);
+            }
+        });
+        DirectiveDeduplicator deduplicator = new DirectiveDeduplicator(10, 60000);
+        AlexaHandler.setDeduplicator(deduplicator);
+
+        String first = Handle("PowerController/PowerController.TurnOn.request.json");
+        String retry = Handle("PowerController/PowerController.TurnOn.request.json");
+        Handle("PowerController/PowerController.TurnOff.request.json");
+
+        assertEquals("Retry should get the same response", first, retry);
+        assertEquals("Retry should not write again", 2, writes.get());
+        assertEquals("One duplicate should be suppressed", 1, deduplicator.getSuppressedCount());
+    }
+
+    private String Handle(String sample) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = getClass().getResourceAsStream("/sample_messages/" + sample)) {
+            AlexaHandler.handler(inputStream, outputStream, null);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DirectiveMetricsTest {
+
+    private static final String TURN_ON = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.PowerController\",\"name\":\"TurnOn\",\"payloadVersion\":\"3\",\"messageId\":\"m-1\"}," +
+            "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"t\"},\"endpointId\":\"sample-switch-01\",\"cookie\":{}},\"payload\":{}}}";
+
+    private ByteArrayOutputStream output;
+    private StructuredLogger logger;
+    private StructuredLogger previousLogger;
+    private DirectiveMetrics previousMetrics;
+    private DeviceStateStore previousStore;
+    private DirectiveDeduplicator previousDeduplicator;
+
+    @Before
+    public void SetUp() throws IOException {
+        output = new ByteArrayOutputStream();
+        logger = new StructuredLogger(new PrintStream(output, true, "UTF-8"), 64, 0.0);
+        previousLogger = AlexaHandler.getLogger();
+        previousMetrics = AlexaHandler.getMetrics();
+        previousStore = AlexaHandler.getDeviceStateStore();
+        previousDeduplicator = AlexaHandler.getDeduplicator();
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setLogger(previousLogger);
+        AlexaHandler.setMetrics(previousMetrics);
+        AlexaHandler.setDeviceStateStore(previousStore);
+        AlexaHandler.setDeduplicator(previousDeduplicator);
+        logger.close();
+    }
+
+    private List<JSONObject> Records() {
+        assertTrue("Records should be written", logger.flush(5000));
+        List<JSONObject> records = new ArrayList<>();
+        for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n"))
+            if (!line.isEmpty())
+                records.add(new JSONObject(line));
+        return records;
+    }
+
+    @Test
+    public void EmbeddedMetricFormatTest() {
+        DirectiveMetrics metrics = new DirectiveMetrics("SampleSmartHome");
+        metrics.recordDirective("Alexa.PowerController", "TurnOn", 3000000L, 100000L, 200000L, false);
+        metrics.recordDirective("Alexa.PowerController", "TurnOn", 5000000L, 100000L, 200000L, true);
+        metrics.recordOperation("UpdateItem", 2000000L, false);
+        metrics.flush(logger);
+
+        List<JSONObject> records = Records();
+        assertEquals("One record per directive type and operation", 2, records.size());
+
+        JSONObject directive = records.get(0);
+        JSONObject aws = directive.getJSONObject("_aws").getJSONArray("CloudWatchMetrics").getJSONObject(0);
+        assertEquals("Namespace should be set", "SampleSmartHome", aws.getString("Namespace"));
+        assertEquals("Dimensions should be the directive type", "DirectiveNamespace", aws.getJSONArray("Dimensions").getJSONArray(0).getString(0));
+        assertEquals("Latency, parse, serialize and errors should be declared", 4, aws.getJSONArray("Metrics").length());
+        assertEquals("Namespace dimension should be set", "Alexa.PowerController", directive.getString("DirectiveNamespace"));
+        assertEquals("Latency should count both directives", 2, directive.getJSONObject("Latency").getInt("Count"));
+        assertEquals("One error should be counted", 1, directive.getLong("Errors"));
+        assertTrue("p99 should be reported", directive.has("LatencyP99"));
+
+        JSONObject operation = records.get(1);
+        assertEquals("Operation dimension should be set", "UpdateItem", operation.getString("Operation"));
+        assertEquals("DynamoDB latency should be reported", 1, operation.getJSONObject("DynamoDBLatency").getInt("Count"));
+    }
+
+    @Test
+    public void FlushOnlyReportsNewTrafficTest() {
+        DirectiveMetrics metrics = new DirectiveMetrics("SampleSmartHome");
+        metrics.recordDirective("Alexa.PowerController", "TurnOn", 3000000L, -1, -1, false);
+        metrics.flush(logger);
+        metrics.flush(logger);
+        metrics.recordDirective("Alexa.PowerController", "TurnOn", 3000000L, -1, -1, false);
+        metrics.flush(logger);
+
+        List<JSONObject> records = Records();
+        assertEquals("Idle flush should write nothing", 2, records.size());
+        assertFalse("Phases that did not run should be left out", records.get(0).has("ParseLatency"));
+        assertEquals("Second record should only count new traffic", 1, records.get(1).getJSONObject("Latency").getInt("Count"));
+        assertEquals("Percentiles should cover all traffic", 2, metrics.getLatency("Alexa.PowerController", "TurnOn").getCount());
+    }
+
+    @Test
+    public void DirectiveTypesAreBoundedTest() {
+        DirectiveMetrics metrics = new DirectiveMetrics("SampleSmartHome");
+        for (int i = 0; i < DirectiveMetrics.MAX_DIRECTIVE_TYPES + 10; i++)
+            metrics.recordDirective("Namespace" + i, "Name", 1000000L, -1, -1, false);
+
+        assertNotNull("Early types should be tracked", metrics.getLatency("Namespace0", "Name"));
+        assertNull("Types past the limit should not be tracked", metrics.getLatency("Namespace" + (DirectiveMetrics.MAX_DIRECTIVE_TYPES + 5), "Name"));
+    }
+
+    @Test
+    public void HandlerRecordsAndFlushesTest() {
+        DirectiveMetrics metrics = new DirectiveMetrics("SampleSmartHome");
+        AlexaHandler.setLogger(logger);
+        AlexaHandler.setMetrics(metrics);
+        AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore());
+        AlexaHandler.setDeduplicator(new DirectiveDeduplicator(0, 0));
+
+        AlexaHandler.handler(new ByteArrayInputStream(TURN_ON.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(), null);
+        AlexaHandler.handler(new ByteArrayInputStream("not json".getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(), null);
+
+        assertEquals("Directive should be recorded", 1, metrics.getLatency("Alexa.PowerController", "TurnOn").getCount());
+        assertEquals("Unparseable input should be an error", 1, metrics.getErrorCount("INVALID", "INVALID"));
+        // A frozen Lambda container would never write what is still buffered
+        assertTrue("EMF records should be written before the handler returns",
+                new String(output.toByteArray(), StandardCharsets.UTF_8).contains("\"DirectiveName\":\"TurnOn\""));
+
+        boolean emitted = false;
+        for (JSONObject record : Records()) {
+            if (record.has("_aws") && "TurnOn".equals(record.optString("DirectiveName"))) {
+                emitted = true;
+                assertTrue("Parse time should be reported", record.has("ParseLatency"));
+                assertTrue("Serialize time should be reported", record.has("SerializeLatency"));
+            }
+        }
+        assertTrue("Handler should flush an EMF record per invocation", emitted);
+    }
+}
@@ -0,0 +1,228 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DirectiveRouterTest {
+
+    private DeviceStateStore previousStore;
+    private DirectiveRouter previousRouter;
+    private InMemoryDeviceStateStore store;
+    // Retried directives are answered from the dedupe window, so every directive gets its own correlation token
+    private static int sequence;
+
+    @Before
+    public void SetUp() {
+        previousStore = AlexaHandler.getDeviceStateStore();
+        previousRouter = AlexaHandler.getRouter();
+        store = new InMemoryDeviceStateStore();
+        AlexaHandler.setDeviceStateStore(store);
+        AlexaHandler.setRouter(AlexaHandler.createRouter("Alexa.PowerController", "Alexa.BrightnessController",
+                "Alexa.PercentageController", "Alexa.EndpointHealth"));
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setDeviceStateStore(previousStore);
+        AlexaHandler.setRouter(previousRouter);
+    }
+
+    private String Directive(String namespace, String name, JSONObject payload) {
+        JSONObject header = new JSONObject().put("namespace", namespace).put("name", name)
+                .put("payloadVersion", "3").put("messageId", "message-" + sequence).put("correlationToken", "token-" + sequence++);
+        JSONObject endpoint = new JSONObject().put("endpointId", "sample-switch-01")
+                .put("scope", new JSONObject().put("type", "BearerToken").put("token", "access-token"));
+        return new JSONObject().put("directive", new JSONObject().put("header", header).put("endpoint", endpoint)
+                .put("payload", payload)).toString();
+    }
+
+    private JSONObject Handle(String namespace, String name, JSONObject payload) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.handler(new ByteArrayInputStream(Directive(namespace, name, payload).getBytes(StandardCharsets.UTF_8)), outputStream, null);
+        return new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private JSONObject Property(JSONObject response, String namespace) {
+        JSONArray properties = response.getJSONObject("context").getJSONArray("properties");
+        for (int i = 0; i < properties.length(); i++) {
+            if (namespace.equals(properties.getJSONObject(i).getString("namespace")))
+                return properties.getJSONObject(i);
+        }
+        return null;
+    }
+
+    @Test
+    public void FindTest() {
+        DirectiveRouter router = AlexaHandler.getRouter();
+        assertNotNull("TurnOn should be routed", router.find("Alexa.PowerController", "TurnOn"));
+        assertNotNull("AdjustPercentage should be routed", router.find("Alexa.PercentageController", "AdjustPercentage"));
+        assertNotNull("ReportState should be routed", router.find("Alexa", "ReportState"));
+        assertNull("Unknown names should not be routed", router.find("Alexa.PowerController", "Toggle"));
+        assertNull("Unknown namespaces should not be routed", router.find("Alexa.ColorController", "SetColor"));
+        assertFalse("Brightness is stored as well as the power state", router.storesOnly("powerState"));
+        assertTrue("Only the power state is stored by default",
+                new DirectiveRouter().with(new PowerControllerHandler()).with(new EndpointHealthHandler()).storesOnly("powerState"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void UnsupportedCapabilityTest() {
+        AlexaHandler.createRouter("Alexa.ColorController");
+    }
+
+    @Test
+    public void BrightnessTest() {
+        JSONObject response = Handle("Alexa.BrightnessController", "SetBrightness", new JSONObject().put("brightness", 40));
+        assertEquals("Name should be Response", "Response", response.getJSONObject("event").getJSONObject("header").getString("name"));
+        assertEquals("Brightness should be 40", 40, Property(response, "Alexa.BrightnessController").getInt("value"));
+        assertEquals("Brightness should be stored", "40", store.getDeviceState("sample-switch-01", "brightness"));
+
+        response = Handle("Alexa.BrightnessController", "AdjustBrightness", new JSONObject().put("brightnessDelta", 70));
+        assertEquals("Brightness should be clamped to 100", 100, Property(response, "Alexa.BrightnessController").getInt("value"));
+        response = Handle("Alexa.BrightnessController", "AdjustBrightness", new JSONObject().put("brightnessDelta", -30));
+        assertEquals("Brightness should be 70", 70, Property(response, "Alexa.BrightnessController").getInt("value"));
+
+        response = Handle("Alexa.BrightnessController", "SetBrightness", new JSONObject().put("brightness", 150));
+        assertEquals("Name should be ErrorResponse", "ErrorResponse", response.getJSONObject("event").getJSONObject("header").getString("name"));
+        assertEquals("Type should be INVALID_VALUE", "INVALID_VALUE", response.getJSONObject("event").getJSONObject("payload").getString("type"));
+        assertEquals("Brightness should be unchanged", "70", store.getDeviceState("sample-switch-01", "brightness"));
+    }
+
+    @Test
+    public void ConcurrentAdjustTest() {
+        InMemoryDeviceStateStore backing = new InMemoryDeviceStateStore() {
+            private boolean changed;
+
+            @Override
+            public String getDeviceState(String endpointId, String state) {
+                String value = super.getDeviceState(endpointId, state);
+                // Another container adjusts the brightness between this read and the write
+                if (!changed && "brightness".equals(state)) {
+                    changed = true;
+                    setDeviceState(endpointId, state, "60");
+                }
+                return value;
+            }
+        };
+        backing.setDeviceState("sample-switch-01", "brightness", "40");
+        AlexaHandler.setDeviceStateStore(new CachingDeviceStateStore(backing, new DeviceStateCache(10, 60000)));
+
+        JSONObject response = Handle("Alexa.BrightnessController", "AdjustBrightness", new JSONObject().put("brightnessDelta", 10));
+        assertEquals("Adjustment should apply to the changed brightness", 70, Property(response, "Alexa.BrightnessController").getInt("value"));
+        assertEquals("Stored brightness should be the one answered", "70", backing.getDeviceState("sample-switch-01", "brightness"));
+    }
+
+    @Test
+    public void ReportStateTest() {
+        Handle("Alexa.PowerController", "TurnOn", new JSONObject());
+        Handle("Alexa.PercentageController", "SetPercentage", new JSONObject().put("percentage", 25));
+        JSONObject response = Handle("Alexa", "ReportState", new JSONObject());
+
+        assertEquals("Name should be StateReport", "StateReport", response.getJSONObject("event").getJSONObject("header").getString("name"));
+        assertEquals("Power state should be ON", "ON", Property(response, "Alexa.PowerController").getString("value"));
+        assertEquals("Percentage should be 25", 25, Property(response, "Alexa.PercentageController").getInt("value"));
+        assertEquals("Connectivity should be OK", "OK",
+                Property(response, "Alexa.EndpointHealth").getJSONObject("value").getString("value"));
+        assertNull("Brightness has never been set", Property(response, "Alexa.BrightnessController"));
+    }
+
+    @Test
+    public void CapabilitiesTest() {
+        JSONArray capabilities = AlexaHandler.getRouter().getCapabilities(true);
+        assertEquals("Alexa and four interfaces should be discovered", 5, capabilities.length());
+        assertEquals("Alexa should be first", "Alexa", capabilities.getJSONObject(0).getString("interface"));
+        JSONObject health = capabilities.getJSONObject(4);
+        assertEquals("EndpointHealth should be last", "Alexa.EndpointHealth", health.getString("interface"));
+        assertEquals("Connectivity should be supported", "connectivity",
+                health.getJSONObject("properties").getJSONArray("supported").getJSONObject(0).getString("name"));
+        assertTrue("Properties should be proactively reported", health.getJSONObject("properties").getBoolean("proactivelyReported"));
+
+        JSONArray defaults = EndpointCatalogue.createDefault(false).getEndpoints().get(0).getCapabilities();
+        assertEquals("The default switch should only be a PowerController",
+                "[{\"type\":\"AlexaInterface\",\"interface\":\"Alexa\",\"version\":\"3\"},"
+                        + "{\"type\":\"AlexaInterface\",\"interface\":\"Alexa.PowerController\",\"version\":\"3\","
+                        + "\"properties\":{\"supported\":[{\"name\":\"powerState\"}]}}]",
+                defaults.toString());
+    }
+
+    @Test
+    public void BatchTest() {
+        String batch = "[" + Directive("Alexa.PowerController", "TurnOn", new JSONObject()) + ","
+                + Directive("Alexa.BrightnessController", "SetBrightness", new JSONObject().put("brightness", 60)) + "]";
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.batchHandler(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), outputStream, null);
+        JSONArray responses = new JSONArray(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+        assertEquals("Both directives should be answered", 2, responses.length());
+        assertEquals("Power state should be stored", "ON", store.getDeviceState("sample-switch-01", "powerState"));
+        assertEquals("Brightness should be kept alongside the power state", "60", store.getDeviceState("sample-switch-01", "brightness"));
+    }
+
+    // A batch write replaces each endpoint's whole item, so it must not be used while other properties are stored
+    @Test
+    public void BatchWriteOnlyForPowerStateTest() {
+        AtomicInteger batchWrites = new AtomicInteger();
+        store = new InMemoryDeviceStateStore() {
+            @Override
+            public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+                batchWrites.incrementAndGet();
+                return super.setDeviceStates(writes);
+            }
+        };
+        AlexaHandler.setDeviceStateStore(store);
+        String batch = "[" + Directive("Alexa.PowerController", "TurnOn", new JSONObject()) + "]";
+
+        AlexaHandler.batchHandler(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(), null);
+        assertEquals("Power states should not be batch written while brightness is stored", 0, batchWrites.get());
+        assertEquals("Power state should be stored", "ON", store.getDeviceState("sample-switch-01", "powerState"));
+
+        AlexaHandler.setRouter(AlexaHandler.createRouter("Alexa.PowerController", "Alexa.EndpointHealth"));
+        batch = "[" + Directive("Alexa.PowerController", "TurnOff", new JSONObject()) + "]";
+        AlexaHandler.batchHandler(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(), null);
+        assertEquals("Power states should be batch written when nothing else is stored", 1, batchWrites.get());
+    }
+
+    // State items share the table with grants and endpoint descriptions, which a batch put would replace
+    @Test
+    public void BatchWriteRefusesReservedEndpointIdsTest() {
+        AtomicInteger batchWrites = new AtomicInteger();
+        store = new InMemoryDeviceStateStore() {
+            @Override
+            public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+                batchWrites.incrementAndGet();
+                return super.setDeviceStates(writes);
+            }
+        };
+        AlexaHandler.setDeviceStateStore(store);
+        AlexaHandler.setRouter(AlexaHandler.createRouter("Alexa.PowerController", "Alexa.EndpointHealth"));
+        String batch = "[" + Directive("Alexa.PowerController", "TurnOn", new JSONObject())
+                .replace("sample-switch-01", DynamoDBGrantStore.ITEM_PREFIX + "user-1") + "]";
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.batchHandler(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), outputStream, null);
+        JSONObject event = new JSONArray(new String(outputStream.toByteArray(), StandardCharsets.UTF_8)).getJSONObject(0).getJSONObject("event");
+
+        assertEquals("Reserved endpointId should be answered with an error", "NO_SUCH_ENDPOINT", event.getJSONObject("payload").getString("type"));
+        assertEquals("Nothing should be written", 0, batchWrites.get());
+    }
+}
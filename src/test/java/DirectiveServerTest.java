@@ -0,0 +1,103 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class DirectiveServerTest {
+
+    private static final String DISCOVERY = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.Discovery\",\"name\":\"Discover\",\"payloadVersion\":\"3\",\"messageId\":\"m-1\"},\"payload\":{}}}";
+
+    private DeviceStateStore previousStore;
+    private DirectiveServer server;
+
+    @Before
+    public void SetUp() throws IOException {
+        previousStore = AlexaHandler.getDeviceStateStore();
+        AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore());
+        server = new DirectiveServer(0, 4, 1000, 8000);
+        server.start();
+    }
+
+    @After
+    public void TearDown() {
+        server.stop(0);
+        AlexaHandler.setDeviceStateStore(previousStore);
+    }
+
+    private HttpURLConnection Open(String path, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    private String Read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int read;
+        while ((read = inputStream.read(chunk)) != -1)
+            buffer.write(chunk, 0, read);
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void DirectiveTest() throws IOException {
+        HttpURLConnection connection = Open("/directive", "POST");
+        connection.setDoOutput(true);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(DISCOVERY.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals("Status should be 200", 200, connection.getResponseCode());
+        JSONObject response = new JSONObject(Read(connection.getInputStream()));
+        assertEquals("Name should be Discover.Response", "Discover.Response", response.getJSONObject("event").getJSONObject("header").getString("name"));
+        assertEquals("One directive should be handled", 1, server.getHandledCount());
+    }
+
+    @Test
+    public void MetricsTest() throws IOException {
+        HttpURLConnection connection = Open("/metrics", "GET");
+
+        assertEquals("Status should be 200", 200, connection.getResponseCode());
+        JSONObject metrics = new JSONObject(Read(connection.getInputStream()));
+        assertEquals("Max concurrency should be reported", 4, metrics.getInt("maxConcurrency"));
+        assertTrue("Queue depth should be reported", metrics.has("queueDepth"));
+        assertTrue("In flight count should be reported", metrics.has("inFlight"));
+    }
+
+    @Test
+    public void MethodNotAllowedTest() throws IOException {
+        assertEquals("GET on /directive should be rejected", 405, Open("/directive", "GET").getResponseCode());
+    }
+
+    @Test
+    public void ServerContextTest() {
+        ServerContext context = new ServerContext(5000);
+        assertNotNull("Identity should not be null", context.getIdentity());
+        assertNotNull("Client context should not be null", context.getClientContext().getClient());
+        assertNotNull("Logger should not be null", context.getLogger());
+        assertTrue("Remaining time should count down from the timeout", context.getRemainingTimeInMillis() <= 5000);
+    }
+}
@@ -0,0 +1,127 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class DirectiveTest {
+
+    private static final String POWER_CONTROLLER_REQUEST = "{\n" +
+            "  \"directive\": {\n" +
+            "    \"header\": {\n" +
+            "      \"namespace\": \"Alexa.PowerController\",\n" +
+            "      \"name\": \"TurnOff\",\n" +
+            "      \"payloadVersion\": \"3\",\n" +
+            "      \"messageId\": \"1bd5d003-31b9-476f-ad03-71d471922820\",\n" +
+            "      \"correlationToken\": \"dFMb0z+PgpgdDmluhJ1LddFvSqZ/jCc8ptlAKulUj90jSqg==\"\n" +
+            "    },\n" +
+            "    \"endpoint\": {\n" +
+            "      \"scope\": {\n" +
+            "        \"type\": \"BearerToken\",\n" +
+            "        \"token\": \"access-token-from-skill\"\n" +
+            "      },\n" +
+            "      \"endpointId\": \"sample-switch-01\",\n" +
+            "      \"cookie\": { \"nested\": [ 1, { \"deep\": \"}]\" } ] }\n" +
+            "    },\n" +
+            "    \"payload\": {}\n" +
+            "  }\n" +
+            "}";
+
+    private Directive Parse(String json) throws IOException {
+        return Directive.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void ParseHeaderTest() throws IOException {
+        Directive directive = Parse(POWER_CONTROLLER_REQUEST);
+
+        assertEquals("Namespace should be Alexa.PowerController", "Alexa.PowerController", directive.getNamespace());
+        assertEquals("Name should be TurnOff", "TurnOff", directive.getName());
+        assertEquals("Payload version should be 3", "3", directive.getPayloadVersion());
+        assertEquals("MessageId should match", "1bd5d003-31b9-476f-ad03-71d471922820", directive.getMessageId());
+        assertEquals("CorrelationToken should match", "dFMb0z+PgpgdDmluhJ1LddFvSqZ/jCc8ptlAKulUj90jSqg==", directive.getCorrelationToken());
+        assertEquals("EndpointId should be sample-switch-01", "sample-switch-01", directive.getEndpointId());
+        assertEquals("Token should match", "access-token-from-skill", directive.getToken());
+        assertEquals("Payload should be empty", 0, directive.getPayload().length());
+    }
+
+    @Test
+    public void ParseLazyPayloadTest() throws IOException {
+        Directive directive = Parse("{\"directive\":{\"payload\":{\"grant\":{\"type\":\"OAuth2.AuthorizationCode\",\"code\":\"VGhpcyBpcyBhbiBhdXRob3JpemF0aW9uIGNvZGUuIDotKQ==\"},\"grantee\":{\"type\":\"BearerToken\",\"token\":\"access-token\"}},\"header\":{\"namespace\":\"Alexa.Authorization\",\"name\":\"AcceptGrant\"}}}");
+
+        assertEquals("Namespace should be Alexa.Authorization", "Alexa.Authorization", directive.getNamespace());
+        assertNull("Token should only be read from the endpoint scope", directive.getToken());
+        assertTrue("Payload should be present", directive.hasPayload());
+        assertEquals("Grant type should be OAuth2.AuthorizationCode", "OAuth2.AuthorizationCode", directive.getPayload().getJSONObject("grant").getString("type"));
+    }
+
+    @Test
+    public void ParseEscapedStringTest() throws IOException {
+        Directive directive = Parse("{\"directive\":{\"header\":{\"namespace\":\"Alexa.\\u0050owerController\",\"name\":\"Turn\\\"On\\\"\"}}}");
+
+        assertEquals("Escaped unicode should be decoded", "Alexa.PowerController", directive.getNamespace());
+        assertEquals("Escaped quotes should be decoded", "Turn\"On\"", directive.getName());
+    }
+
+    @Test
+    public void ParseNonStringValuesTest() throws IOException {
+        Directive directive = Parse("{\"other\":[true,null,1.5e3],\"directive\":{\"header\":{\"namespace\":42,\"name\":\"TurnOn\"}}}");
+
+        assertNull("Non string namespace should be ignored", directive.getNamespace());
+        assertEquals("Name should be TurnOn", "TurnOn", directive.getName());
+        assertFalse("Payload should be absent", directive.hasPayload());
+    }
+
+    @Test(expected = JSONException.class)
+    public void ParseTruncatedTest() throws IOException {
+        Parse("{\"directive\":{\"header\":{\"namespace\":\"Alexa");
+    }
+
+    @Test(expected = JSONException.class)
+    public void ParseEmptyTest() throws IOException {
+        Parse("");
+    }
+
+    @Test
+    public void ParseArrayTest() throws IOException {
+        Directive[] directives = Directive.parseArray(new ByteArrayInputStream((" [ " + POWER_CONTROLLER_REQUEST
+                + " , \"not a directive\", {\"directive\":{\"header\":{\"name\":\"Turn]On,\"},\"payload\":{\"a\":[1,2]}}} ]")
+                .getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("Every element should have an entry", 3, directives.length);
+        assertEquals("First directive should be parsed in place", "sample-switch-01", directives[0].getEndpointId());
+        assertEquals("Directive should keep only its own bytes", POWER_CONTROLLER_REQUEST, directives[0].toString());
+        assertNull("Element that is not a directive should be null", directives[1]);
+        assertEquals("Brackets and commas in strings should not end the element", "Turn]On,", directives[2].getName());
+        assertEquals("Payload should be read from the element", 2, directives[2].getPayload().getJSONArray("a").length());
+        assertEquals("Empty array should have no directives", 0,
+                Directive.parseArray(new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8))).length);
+    }
+
+    @Test(expected = JSONException.class)
+    public void ParseArrayNotArrayTest() throws IOException {
+        Directive.parseArray(new ByteArrayInputStream(POWER_CONTROLLER_REQUEST.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void GetRequestTest() throws IOException {
+        String request = AlexaHandler.getRequest(new ByteArrayInputStream("{\"name\":\"Schalter \u00fc\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Request should be decoded as UTF-8", "{\"name\":\"Schalter \u00fc\"}", request);
+    }
+}
@@ -0,0 +1,70 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryTemplateTest {
+
+    private String Write(DirectiveResponse response) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        response.writeTo(outputStream);
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void TemplateMatchesAlexaResponseTest() throws IOException {
+        EndpointCatalogue catalogue = EndpointCatalogue.createDefault();
+
+        AlexaResponse ar = new AlexaResponse("Alexa.Discovery", "Discover.Response");
+        ar.SetMessageId("5f8a426e-01e4-4cc9-8b79-65f8bd0fd8a4");
+        for (EndpointCatalogue.Endpoint endpoint : catalogue.getEndpoints())
+            ar.AddPayloadEndpoint(endpoint.getFriendlyName(), endpoint.getEndpointId(), endpoint.getCapabilities());
+
+        String templated = Write(catalogue.getDiscoveryTemplate().newResponse("5f8a426e-01e4-4cc9-8b79-65f8bd0fd8a4"));
+        assertEquals("Template output should match the AlexaResponse output", ar.toString(), templated);
+    }
+
+    @Test
+    public void TemplateIsCachedTest() {
+        EndpointCatalogue catalogue = EndpointCatalogue.createDefault();
+        assertSame("Template should be reused", catalogue.getDiscoveryTemplate(), catalogue.getDiscoveryTemplate());
+    }
+
+    @Test
+    public void TemplateInvalidatedOnChangeTest() throws IOException {
+        EndpointCatalogue catalogue = EndpointCatalogue.createDefault();
+        DiscoveryTemplate before = catalogue.getDiscoveryTemplate();
+
+        catalogue.addEndpoint(new EndpointCatalogue.Endpoint("Second Switch", "sample-switch-02", catalogue.getEndpoints().get(0).getCapabilities()));
+        DiscoveryTemplate after = catalogue.getDiscoveryTemplate();
+
+        assertNotSame("Template should be rebuilt", before, after);
+        assertTrue("Version should increase", after.getVersion() > before.getVersion());
+
+        JSONObject response = new JSONObject(Write(after.newResponse("message-1")));
+        JSONArray endpoints = response.getJSONObject("event").getJSONObject("payload").getJSONArray("endpoints");
+        assertEquals("There should be two endpoints", 2, endpoints.length());
+        assertEquals("MessageId should be spliced in", "message-1", response.getJSONObject("event").getJSONObject("header").getString("messageId"));
+
+        assertTrue("Endpoint should be removed", catalogue.removeEndpoint("sample-switch-02"));
+        assertEquals("There should be one endpoint", 1, new JSONObject(Write(catalogue.getDiscoveryTemplate().newResponse("message-2")))
+                .getJSONObject("event").getJSONObject("payload").getJSONArray("endpoints").length());
+    }
+}
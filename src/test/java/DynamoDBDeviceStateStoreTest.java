@@ -0,0 +1,194 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DynamoDBDeviceStateStoreTest {
+
+    // Records the updates instead of sending them, optionally failing the condition.
+    private static class RecordingStore extends DynamoDBDeviceStateStore {
+
+        final List<UpdateItemSpec> updates = new ArrayList<>();
+        final List<List<WriteRequest>> batches = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> neverProcessed = new HashSet<>();
+        boolean conditionFails;
+
+        RecordingStore() {
+            super(TABLE_NAME);
+        }
+
+        @Override
+        void updateItem(UpdateItemSpec updateItemSpec) {
+            updates.add(updateItemSpec);
+            if (conditionFails)
+                throw new ConditionalCheckFailedException("The conditional request failed");
+        }
+
+        // Leaves the items of the endpoints in neverProcessed unprocessed on every call.
+        @Override
+        Map<String, List<WriteRequest>> batchWriteItem(Map<String, List<WriteRequest>> requestItems) {
+            List<WriteRequest> requests = requestItems.get(TABLE_NAME);
+            batches.add(requests);
+            List<WriteRequest> unprocessed = new ArrayList<>();
+            for (WriteRequest request : requests) {
+                if (neverProcessed.contains(request.getPutRequest().getItem().get("ItemId").getS()))
+                    unprocessed.add(request);
+            }
+            return unprocessed.isEmpty() ? Collections.emptyMap() : Collections.singletonMap(TABLE_NAME, unprocessed);
+        }
+    }
+
+    @Test
+    public void ConditionalLeanUpdateTest() {
+        RecordingStore store = new RecordingStore();
+
+        assertTrue("Write should succeed", store.setDeviceState("sample-switch-01", "powerState", "ON"));
+
+        assertEquals("One update should be issued", 1, store.updates.size());
+        UpdateItemSpec spec = store.updates.get(0);
+        assertEquals("Update should be conditional on a changed value",
+                "attribute_not_exists(#v) OR #v <> :val1", spec.getConditionExpression());
+        assertEquals("Update should not read the item back", ReturnValue.NONE.toString(), spec.getReturnValues());
+        assertEquals("One write should be counted", 1, store.getWritesIssued());
+    }
+
+    @Test
+    public void RepeatedStateIsConditionalTest() {
+        RecordingStore store = new RecordingStore();
+
+        store.setDeviceState("sample-switch-01", "powerState", "ON");
+        store.conditionFails = true;
+        assertTrue("No-op write should succeed", store.setDeviceState("sample-switch-01", "powerState", "ON"));
+
+        assertEquals("Repeated state should be left to the condition", 2, store.updates.size());
+        assertEquals("One write should be unchanged", 1, store.getWritesUnchanged());
+    }
+
+    @Test
+    public void ConditionalCheckFailureIsSuccessTest() {
+        RecordingStore store = new RecordingStore();
+        store.conditionFails = true;
+
+        assertTrue("Unchanged value should be reported as success",
+                store.setDeviceState("sample-switch-01", "powerState", "ON"));
+        assertEquals("Unchanged write should be counted", 1, store.getWritesUnchanged());
+    }
+
+    @Test
+    public void CompareAndSetTest() {
+        RecordingStore store = new RecordingStore();
+
+        assertTrue("Write of the expected value should succeed",
+                store.compareAndSetDeviceState("sample-switch-01", "brightness", "40", "50", "write-1"));
+        UpdateItemSpec spec = store.updates.get(0);
+        assertEquals("Update should store the write's id", "set #v = :val1, #w = :id", spec.getUpdateExpression());
+        assertEquals("Update should be conditional on the expected value or its own earlier write",
+                "#v = :expected OR #w = :id", spec.getConditionExpression());
+
+        store.compareAndSetDeviceState("sample-switch-01", "brightness", null, "10", "write-2");
+        assertEquals("Unset value should be expected to be missing",
+                "attribute_not_exists(#v) OR #w = :id", store.updates.get(1).getConditionExpression());
+
+        store.conditionFails = true;
+        assertFalse("Changed value should be refused",
+                store.compareAndSetDeviceState("sample-switch-01", "brightness", "40", "50", "write-3"));
+
+        store.setDeviceState("sample-switch-01", "brightness", "20");
+        assertEquals("Other writes should remove the write's id", "set #v = :val1 remove #w", store.updates.get(3).getUpdateExpression());
+    }
+
+    @Test
+    public void BatchWriteChunksTest() {
+        RecordingStore store = new RecordingStore();
+        List<DeviceStateWrite> writes = new ArrayList<>();
+        for (int i = 0; i < 60; i++)
+            writes.add(new DeviceStateWrite("switch-" + i, "powerState", "ON"));
+        writes.add(new DeviceStateWrite("switch-59", "powerState", "OFF"));
+
+        boolean[] stored = store.setDeviceStates(writes);
+
+        assertEquals("Every write should have a result", 61, stored.length);
+        for (boolean s : stored)
+            assertTrue("Every write should be stored", s);
+        assertEquals("60 items should need 3 requests", 3, store.batches.size());
+        int items = 0;
+        for (List<WriteRequest> batch : store.batches) {
+            assertTrue("A request should hold at most 25 items", batch.size() <= DynamoDBDeviceStateStore.BATCH_WRITE_MAX_ITEMS);
+            items += batch.size();
+        }
+        assertEquals("Writes to one endpoint should be merged into one item", 60, items);
+        String latest = null;
+        for (List<WriteRequest> batch : store.batches) {
+            for (WriteRequest request : batch) {
+                Map<String, AttributeValue> item = request.getPutRequest().getItem();
+                if ("switch-59".equals(item.get("ItemId").getS()))
+                    latest = item.get("powerStateValue").getS();
+            }
+        }
+        assertEquals("The later value should win", "OFF", latest);
+        assertEquals("No single updates should be issued", 0, store.updates.size());
+    }
+
+    @Test
+    public void BatchWriteUnprocessedTest() {
+        RecordingStore store = new RecordingStore();
+        store.neverProcessed.add("switch-1");
+        List<DeviceStateWrite> writes = new ArrayList<>();
+        writes.add(new DeviceStateWrite("switch-0", "powerState", "ON"));
+        writes.add(new DeviceStateWrite("switch-1", "powerState", "ON"));
+
+        boolean[] stored = store.setDeviceStates(writes);
+
+        assertTrue("Processed write should be stored", stored[0]);
+        assertFalse("Unprocessed write should be reported", stored[1]);
+        assertEquals("Unprocessed items should be resent until the attempts run out", 3, store.batches.size());
+        assertEquals("Resends should only hold the unprocessed item", 1, store.batches.get(2).size());
+        assertEquals("One item should stay unprocessed", 1, store.getBatchItemsUnprocessed());
+    }
+
+    @Test
+    public void ReservedItemIdsAreNotWrittenTest() {
+        RecordingStore store = new RecordingStore();
+        List<DeviceStateWrite> writes = new ArrayList<>();
+        writes.add(new DeviceStateWrite("switch-0", "powerState", "ON"));
+        writes.add(new DeviceStateWrite(DynamoDBGrantStore.ITEM_PREFIX + "user-1", "powerState", "ON"));
+        writes.add(new DeviceStateWrite(DynamoDBEndpointSource.ITEM_PREFIX + "switch-0", "powerState", "ON"));
+
+        boolean[] stored = store.setDeviceStates(writes);
+
+        assertTrue("State write should be stored", stored[0]);
+        assertFalse("Write to a grant item should be refused", stored[1]);
+        assertFalse("Write to an endpoint item should be refused", stored[2]);
+        assertEquals("Only the state item should be sent", 1, store.batches.get(0).size());
+        assertEquals("Only the state item should be sent", "switch-0", store.batches.get(0).get(0).getPutRequest().getItem().get("ItemId").getS());
+
+        assertFalse("Single write to a grant item should be refused", store.setDeviceState(DynamoDBGrantStore.ITEM_PREFIX + "user-1", "powerState", "ON"));
+        assertFalse("Conditional write to an endpoint item should be refused",
+                store.compareAndSetDeviceState(DynamoDBEndpointSource.ITEM_PREFIX + "switch-0", "brightness", null, "20", "w-1"));
+        assertEquals("No update should be issued", 0, store.updates.size());
+    }
+}
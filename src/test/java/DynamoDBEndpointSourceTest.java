@@ -0,0 +1,119 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import org.json.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DynamoDBEndpointSourceTest {
+
+    private static final JSONArray CAPABILITIES = EndpointCatalogue.createDefault().getEndpoints().get(0).getCapabilities();
+
+    // Serves pages of generated items instead of querying the index.
+    private static class PagedSource extends DynamoDBEndpointSource {
+
+        private final int pageCount;
+        private final int itemsPerPage;
+        final List<String> queriedUsers = Collections.synchronizedList(new ArrayList<>());
+
+        PagedSource(int pageCount, int itemsPerPage) {
+            super(DynamoDBDeviceStateStore.TABLE_NAME, "UserId-ItemId-index", itemsPerPage, 5000);
+            this.pageCount = pageCount;
+            this.itemsPerPage = itemsPerPage;
+        }
+
+        @Override
+        Iterable<? extends Iterable<Item>> queryPages(String userId) {
+            queriedUsers.add(userId);
+            List<List<Item>> pages = new ArrayList<>();
+            for (int p = 0; p < pageCount; p++) {
+                List<Item> page = new ArrayList<>();
+                for (int i = 0; i < itemsPerPage; i++) {
+                    String endpointId = "switch-" + p + "-" + i;
+                    page.add(toItem(userId, new EndpointCatalogue.Endpoint("Switch " + endpointId, endpointId, CAPABILITIES)));
+                }
+                pages.add(page);
+            }
+            return pages;
+        }
+    }
+
+    @Test
+    public void ItemRoundTripTest() {
+        Item item = DynamoDBEndpointSource.toItem("user-1", new EndpointCatalogue.Endpoint("Sample Switch", "sample-switch-01", CAPABILITIES));
+        assertEquals("Descriptor should not share the state item key", "endpoint#sample-switch-01", item.getString("ItemId"));
+        assertEquals("User should be stored", "user-1", item.getString("UserId"));
+
+        EndpointCatalogue.Endpoint endpoint = DynamoDBEndpointSource.toEndpoint(item);
+        assertEquals("EndpointId should be restored", "sample-switch-01", endpoint.getEndpointId());
+        assertEquals("Friendly name should be restored", "Sample Switch", endpoint.getFriendlyName());
+        assertEquals("Capabilities should be restored", CAPABILITIES.toString(), endpoint.getCapabilities().toString());
+    }
+
+    @Test
+    public void QueryPagesTest() throws IOException {
+        PagedSource source = new PagedSource(3, 25);
+        Set<String> endpointIds = new HashSet<>();
+        source.forEachEndpoint("user-1", endpoint -> endpointIds.add(endpoint.getEndpointId()));
+
+        assertEquals("Every endpoint of every page should be read", 3 * 25, endpointIds.size());
+        assertEquals("Every page should be read", 3, source.getPageCount());
+        assertEquals("Query should be for the user", Collections.singletonList("user-1"), source.queriedUsers);
+    }
+
+    @Test
+    public void StopEarlyTest() throws IOException {
+        PagedSource source = new PagedSource(50, 10);
+        int[] seen = new int[1];
+        source.forEachEndpoint("user-1", endpoint -> ++seen[0] < 5);
+
+        assertEquals("Consumer should not be called after it stops", 5, seen[0]);
+    }
+
+    @Test
+    public void UnknownUserTest() throws IOException {
+        PagedSource source = new PagedSource(1, 10);
+        try {
+            source.forEachEndpoint(null, endpoint -> true);
+            fail("Discovery without a user should be refused");
+        } catch (IllegalStateException e) {
+            assertTrue("Every user's endpoints should not be read", source.queriedUsers.isEmpty());
+        }
+    }
+
+    @Test
+    public void FailureTest() {
+        DynamoDBEndpointSource source = new DynamoDBEndpointSource(DynamoDBDeviceStateStore.TABLE_NAME, "UserId-ItemId-index", 10, 5000) {
+            @Override
+            Iterable<? extends Iterable<Item>> queryPages(String userId) {
+                throw new IllegalStateException("Throughput exceeded");
+            }
+        };
+
+        try {
+            source.forEachEndpoint("user-1", endpoint -> true);
+            fail("Query failure should be reported");
+        } catch (IOException e) {
+            assertEquals("Cause should be kept", "Throughput exceeded", e.getCause().getMessage());
+        }
+    }
+}
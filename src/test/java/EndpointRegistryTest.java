@@ -0,0 +1,142 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class EndpointRegistryTest {
+
+    private static final String REPORT_STATE = "{\"directive\":{\"header\":{\"namespace\":\"Alexa\",\"name\":\"ReportState\",\"payloadVersion\":\"3\",\"messageId\":\"m-1\",\"correlationToken\":\"c-1\"}," +
+            "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"t\"},\"endpointId\":\"sample-switch-01\",\"cookie\":{}},\"payload\":{}}}";
+
+    private static JSONArray Capabilities(String... interfaces) {
+        JSONArray capabilities = new JSONArray();
+        for (String name : interfaces)
+            capabilities.put(new JSONObject().put("type", "AlexaInterface").put("interface", name).put("version", "3"));
+        return capabilities;
+    }
+
+    @Test
+    public void HandlesSurviveGrowthTest() {
+        EndpointRegistry registry = new EndpointRegistry();
+        JSONArray capabilities = Capabilities("Alexa", "Alexa.PowerController");
+        for (int i = 0; i < 10000; i++)
+            assertEquals("Handles should be assigned in order", i, registry.register("switch-" + i, "Switch " + i, capabilities));
+
+        assertEquals("Every endpoint should be registered", 10000, registry.size());
+        for (int i = 0; i < 10000; i += 997) {
+            int handle = registry.handleOf("switch-" + i);
+            assertEquals("Handle should be found after growth", i, handle);
+            assertEquals("Id should be kept", "switch-" + i, registry.getEndpointId(handle));
+        }
+        assertEquals("Unknown endpoint should have no handle", -1, registry.handleOf("switch-10000"));
+        assertEquals("Registering again should keep the handle", 5, registry.register("switch-5", "Renamed", capabilities));
+        assertEquals("Registering again should update the name", "Renamed", registry.getFriendlyName(5));
+    }
+
+    @Test
+    public void TypesAreSharedTest() {
+        EndpointRegistry registry = new EndpointRegistry();
+        int a = registry.register("switch-a", "A", Capabilities("Alexa", "Alexa.PowerController"));
+        int b = registry.register("switch-b", "B", Capabilities("Alexa", "Alexa.PowerController"));
+        int c = registry.register("light-c", "C", Capabilities("Alexa", "Alexa.BrightnessController"));
+
+        assertSame("Equal capabilities should share a type", registry.getType(a), registry.getType(b));
+        assertNotSame("Different capabilities should get their own type", registry.getType(a), registry.getType(c));
+        assertEquals("Two types should exist", 2, registry.getTypeCount());
+        assertTrue("Type should keep the capabilities", Capabilities("Alexa", "Alexa.PowerController").similar(registry.getType(a).getCapabilities()));
+    }
+
+    @Test
+    public void PowerStateChangesTest() {
+        EndpointRegistry registry = new EndpointRegistry();
+        int handle = registry.register("switch-1", "Switch", Capabilities("Alexa"));
+
+        assertEquals("State should start unknown", EndpointRegistry.UNKNOWN, registry.getPowerState(handle));
+        assertTrue("First state should be a change", registry.setPowerState(handle, EndpointRegistry.ON, 1000));
+        assertFalse("Same state should not be a change", registry.setPowerState(handle, EndpointRegistry.ON, 2000));
+        assertEquals("Confirming the state should refresh it", 2000, registry.getPowerStateKnownAt(handle));
+        assertTrue("New state should be a change", registry.setPowerState(handle, EndpointRegistry.OFF, 3000));
+        assertEquals("Value should be OFF", "OFF", EndpointRegistry.powerStateValue(registry.getPowerState(handle)));
+        assertFalse("An older state should not replace a newer one", registry.setPowerState(handle, EndpointRegistry.ON, 2500));
+        assertEquals("Value should stay OFF", EndpointRegistry.OFF, registry.getPowerState(handle));
+    }
+
+    @Test
+    public void StateExpiresTest() {
+        EndpointRegistry registry = new EndpointRegistry(1000);
+        int handle = registry.register("switch-1", "Switch", Capabilities("Alexa"));
+
+        registry.setPowerState(handle, EndpointRegistry.ON, 10000);
+        assertEquals("A fresh state should be trusted", EndpointRegistry.ON, registry.getFreshPowerState(handle, 10500));
+        assertEquals("An expired state should be read again", EndpointRegistry.UNKNOWN, registry.getFreshPowerState(handle, 11500));
+    }
+
+    @Test
+    public void ReportStateReadsRegistryTest() {
+        EndpointRegistry previousRegistry = AlexaHandler.getEndpointRegistry();
+        DeviceStateStore previousStore = AlexaHandler.getDeviceStateStore();
+        try {
+            EndpointRegistry registry = EndpointRegistry.of(AlexaHandler.getEndpointCatalogue());
+            registry.setPowerState(registry.handleOf("sample-switch-01"), EndpointRegistry.ON, System.currentTimeMillis());
+            FaultInjectingDeviceStateStore store = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore());
+            AlexaHandler.setEndpointRegistry(registry);
+            AlexaHandler.setDeviceStateStore(store);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            AlexaHandler.handler(new ByteArrayInputStream(REPORT_STATE.getBytes(StandardCharsets.UTF_8)), outputStream, new ServerContext(5000));
+
+            JSONObject response = new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals("State should come from the registry", "ON",
+                    response.getJSONObject("context").getJSONArray("properties").getJSONObject(0).getString("value"));
+            assertEquals("Store should not be read", 0, store.getCallCount());
+        } finally {
+            AlexaHandler.setEndpointRegistry(previousRegistry);
+            AlexaHandler.setDeviceStateStore(previousStore);
+        }
+    }
+
+    @Test
+    public void ReportStateRereadsExpiredStateTest() {
+        EndpointRegistry previousRegistry = AlexaHandler.getEndpointRegistry();
+        DeviceStateStore previousStore = AlexaHandler.getDeviceStateStore();
+        try {
+            EndpointRegistry registry = EndpointRegistry.of(AlexaHandler.getEndpointCatalogue(), 1000);
+            int handle = registry.handleOf("sample-switch-01");
+            registry.setPowerState(handle, EndpointRegistry.ON, System.currentTimeMillis() - 5000);
+            // Another container has turned the switch off since
+            InMemoryDeviceStateStore store = new InMemoryDeviceStateStore();
+            store.setDeviceState("sample-switch-01", "powerState", "OFF");
+            AlexaHandler.setEndpointRegistry(registry);
+            AlexaHandler.setDeviceStateStore(store);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            AlexaHandler.handler(new ByteArrayInputStream(REPORT_STATE.getBytes(StandardCharsets.UTF_8)), outputStream, new ServerContext(5000));
+
+            JSONObject response = new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals("An expired state should be read from the store", "OFF",
+                    response.getJSONObject("context").getJSONArray("properties").getJSONObject(0).getString("value"));
+            assertEquals("The registry should be refreshed", EndpointRegistry.OFF, registry.getPowerState(handle));
+        } finally {
+            AlexaHandler.setEndpointRegistry(previousRegistry);
+            AlexaHandler.setDeviceStateStore(previousStore);
+        }
+    }
+}
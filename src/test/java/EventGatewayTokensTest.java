@@ -0,0 +1,257 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventGatewayTokensTest {
+
+    private static final String ACCEPT_GRANT = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.Authorization\",\"name\":\"AcceptGrant\",\"messageId\":\"m-1\",\"payloadVersion\":\"3\"}," +
+            "\"payload\":{\"grant\":{\"type\":\"OAuth2.AuthorizationCode\",\"code\":\"code-1\"},\"grantee\":{\"type\":\"BearerToken\",\"token\":\"t\"}}}}";
+
+    // A stand-in for the Login with Amazon token endpoint that answers with the queued status codes,
+    // then with a token that expires after expiresIn seconds.
+    private HttpServer lwa;
+    private final List<Map<String, String>> requests = new CopyOnWriteArrayList<>();
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private volatile int expiresIn = 3600;
+    private InMemoryGrantStore grants;
+    private EventGatewayTokens tokens;
+
+    @Before
+    public void SetUp() throws IOException {
+        lwa = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        lwa.createContext("/auth/o2/token", exchange -> {
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[1024];
+                int read;
+                while ((read = inputStream.read(chunk)) != -1)
+                    buffer.write(chunk, 0, read);
+                Map<String, String> form = new HashMap<>();
+                for (String pair : new String(buffer.toByteArray(), StandardCharsets.UTF_8).split("&")) {
+                    String[] parts = pair.split("=", 2);
+                    form.put(parts[0], URLDecoder.decode(parts[1], "UTF-8"));
+                }
+                requests.add(form);
+
+                Integer status = statuses.poll();
+                if (status != null) {
+                    exchange.sendResponseHeaders(status, -1);
+                    return;
+                }
+                byte[] body = new JSONObject()
+                        .put("access_token", "access-" + requests.size())
+                        .put("refresh_token", "refresh-" + requests.size())
+                        .put("token_type", "bearer")
+                        .put("expires_in", expiresIn)
+                        .toString().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        lwa.start();
+        grants = new InMemoryGrantStore();
+        tokens = new EventGatewayTokens(new URL("http://localhost:" + lwa.getAddress().getPort() + "/auth/o2/token"),
+                "client-id", "client secret", () -> grants, 2000);
+    }
+
+    @After
+    public void TearDown() {
+        lwa.stop(0);
+    }
+
+    @Test
+    public void ExchangesGrantOnceTest() throws IOException {
+        grants.saveGrant("user-1", "code-1");
+        assertEquals("Code should be exchanged for a token", "access-1", tokens.getToken("user-1"));
+        assertEquals("Token should be cached", "access-1", tokens.getToken("user-1"));
+        assertEquals("One request should be made", 1, tokens.getRequestCount());
+
+        Map<String, String> request = requests.get(0);
+        assertEquals("Grant type should be authorization_code", "authorization_code", request.get("grant_type"));
+        assertEquals("Code should be sent", "code-1", request.get("code"));
+        assertEquals("Client secret should be sent", "client secret", request.get("client_secret"));
+        assertEquals("Refresh token should be stored", "refresh-1", grants.getRefreshToken("user-1"));
+    }
+
+    @Test
+    public void RefreshesExpiringTokenTest() throws IOException {
+        grants.saveGrant("user-1", "code-1");
+        // Within the expiry margin, so the next lookup refreshes it
+        expiresIn = 30;
+        assertEquals("Code should be exchanged for a token", "access-1", tokens.getToken("user-1"));
+        expiresIn = 3600;
+        assertEquals("Expiring token should be refreshed", "access-2", tokens.getToken("user-1"));
+
+        Map<String, String> request = requests.get(1);
+        assertEquals("Grant type should be refresh_token", "refresh_token", request.get("grant_type"));
+        assertEquals("Stored refresh token should be sent", "refresh-1", request.get("refresh_token"));
+        assertEquals("Rotated refresh token should be stored", "refresh-2", grants.getRefreshToken("user-1"));
+    }
+
+    @Test
+    public void NoGrantTest() throws IOException {
+        assertNull("User without a grant should have no token", tokens.getToken("user-1"));
+        assertNull("Unresolved user should have no token", tokens.getToken(null));
+        assertEquals("Nothing should be requested", 0, tokens.getRequestCount());
+    }
+
+    @Test
+    public void RefusedGrantTest() throws IOException {
+        statuses.add(400);
+        grants.saveGrant("user-1", "code-1");
+        assertNull("Refused grant should have no token", tokens.exchangeGrant("user-1"));
+        assertNull("No refresh token should be stored", grants.getRefreshToken("user-1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void UnavailableTest() throws IOException {
+        statuses.add(503);
+        grants.saveGrant("user-1", "code-1");
+        tokens.getToken("user-1");
+    }
+
+    @Test
+    public void SlowRefreshDoesNotBlockOtherUsersTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        grants = new InMemoryGrantStore() {
+            @Override
+            public String getGrant(String userId) {
+                if (userId.equals("user-slow")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getGrant(userId);
+            }
+        };
+        grants.saveGrant("user-slow", "code-slow");
+        grants.saveGrant("user-1", "code-1");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = executor.submit(() -> tokens.getToken("user-slow"));
+            long start = System.nanoTime();
+            assertNotNull("Other user should get a token", tokens.getToken("user-1"));
+            assertTrue("Other user should not wait for the slow refresh", (System.nanoTime() - start) / 1000000 < 1000);
+            assertFalse("Slow refresh should still be running", slow.isDone());
+
+            release.countDown();
+            assertNotNull("Slow user should get a token", slow.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ConcurrentRefreshesAreCoalescedTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        grants = new InMemoryGrantStore() {
+            @Override
+            public String getGrant(String userId) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getGrant(userId);
+            }
+        };
+        grants.saveGrant("user-1", "code-1");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> lookups = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                lookups.add(executor.submit(() -> tokens.getToken("user-1")));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> lookup : lookups)
+                assertEquals("Every lookup should get the same token", "access-1", lookup.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals("One request should be made", 1, tokens.getRequestCount());
+    }
+
+    @Test
+    public void AcceptGrantExchangesCodeTest() {
+        UserIdCache previousCache = AlexaHandler.getUserIdCache();
+        GrantStore previousGrants = AlexaHandler.getGrantStore();
+        EventGatewayTokens previousTokens = AlexaHandler.getGatewayTokens();
+        DirectiveDeduplicator previousDeduplicator = AlexaHandler.getDeduplicator();
+        JSONObject accepted;
+        JSONObject refused;
+        try {
+            AlexaHandler.setUserIdCache(new UserIdCache(new StubIdentityProvider("user-1"), 16, 60000, 60000));
+            AlexaHandler.setGrantStore(grants);
+            AlexaHandler.setGatewayTokens(tokens);
+            AlexaHandler.setDeduplicator(new DirectiveDeduplicator(0, 0));
+            accepted = Handle(ACCEPT_GRANT);
+            statuses.add(400);
+            refused = Handle(ACCEPT_GRANT);
+        } finally {
+            AlexaHandler.setUserIdCache(previousCache);
+            AlexaHandler.setGrantStore(previousGrants);
+            AlexaHandler.setGatewayTokens(previousTokens);
+            AlexaHandler.setDeduplicator(previousDeduplicator);
+        }
+
+        assertEquals("Grant should be accepted", "AcceptGrant", accepted.getJSONObject("header").getString("name"));
+        assertEquals("Code should be exchanged", "code-1", requests.get(0).get("code"));
+        assertEquals("Refused grant should be answered with an error", "ErrorResponse", refused.getJSONObject("header").getString("name"));
+        assertEquals("Error should be ACCEPT_GRANT_FAILED", "ACCEPT_GRANT_FAILED", refused.getJSONObject("payload").getString("type"));
+    }
+
+    private static JSONObject Handle(String directive) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.handler(new ByteArrayInputStream(directive.getBytes(StandardCharsets.UTF_8)), outputStream, new ServerContext(5000));
+        return new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8)).getJSONObject("event");
+    }
+}
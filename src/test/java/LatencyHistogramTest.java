@@ -0,0 +1,86 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void BucketBoundsTest() {
+        for (long micros : new long[] {0, 1, 31, 32, 63, 64, 65, 127, 128, 1000, 123456, (1L << 27) - 1}) {
+            int index = LatencyHistogram.index(micros);
+            assertTrue("Value should not be below its bucket: " + micros, LatencyHistogram.lowerBound(index) <= micros);
+            assertTrue("Value should not be above its bucket: " + micros, LatencyHistogram.upperBound(index) >= micros);
+            assertTrue("Bucket should be within 1/32 of the value: " + micros,
+                    LatencyHistogram.upperBound(index) - LatencyHistogram.lowerBound(index) <= Math.max(1, micros / 32));
+        }
+        assertEquals("Largest value should use the last bucket", LatencyHistogram.BUCKETS - 1, LatencyHistogram.index((1L << 27) - 1));
+    }
+
+    @Test
+    public void PercentileTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000000L);
+
+        assertEquals("Count should be kept", 1000, histogram.getCount());
+        assertEquals("p50 should be about 500 ms", 500.0, histogram.getPercentileMillis(50.0), 500 * 0.04);
+        assertEquals("p99 should be about 990 ms", 990.0, histogram.getPercentileMillis(99.0), 990 * 0.04);
+        assertEquals("p99.9 should be about 999 ms", 999.0, histogram.getPercentileMillis(99.9), 999 * 0.04);
+        assertEquals("Max should be exact", 1000.0, histogram.getMaxMillis(), 0.0001);
+    }
+
+    @Test
+    public void IntervalTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2000000L);
+        histogram.record(2000000L);
+        histogram.record(40000000L);
+
+        StringBuilder sb = new StringBuilder();
+        assertTrue("Interval should be reported", histogram.appendInterval(sb));
+        JSONObject interval = new JSONObject(sb.toString());
+        assertEquals("Two distinct values should be reported", 2, interval.getJSONArray("Values").length());
+        assertEquals("Repeated value should be counted", 2, interval.getJSONArray("Counts").getInt(0));
+        assertEquals("Count should cover the interval", 3, interval.getInt("Count"));
+        assertEquals("Sum should be in milliseconds", 44.0, interval.getDouble("Sum"), 0.0001);
+
+        assertFalse("Nothing new should be reported", histogram.appendInterval(new StringBuilder()));
+
+        histogram.record(5000000L);
+        sb.setLength(0);
+        assertTrue("New value should be reported", histogram.appendInterval(sb));
+        assertEquals("Only the new value should be counted", 1, new JSONObject(sb.toString()).getInt("Count"));
+    }
+
+    @Test
+    public void IntervalValueLimitTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100000; i += 7)
+            histogram.record(i * 10000L);
+
+        StringBuilder sb = new StringBuilder();
+        histogram.appendInterval(sb);
+        JSONObject interval = new JSONObject(sb.toString());
+        assertTrue("At most 100 values should be reported", interval.getJSONArray("Values").length() <= LatencyHistogram.MAX_VALUES);
+
+        long counted = 0;
+        JSONArray counts = interval.getJSONArray("Counts");
+        for (int i = 0; i < counts.length(); i++)
+            counted += counts.getLong(i);
+        assertEquals("Merged counts should add up", interval.getLong("Count"), counted);
+    }
+}
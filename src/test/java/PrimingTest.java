@@ -0,0 +1,101 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import static org.junit.Assert.*;
+
+public class PrimingTest {
+
+    private StructuredLogger previousLogger;
+    private boolean previousRestored;
+    private boolean previousFirstInvocation;
+    private boolean previousClient;
+    private String previousRegion;
+
+    @Before
+    public void SetUp() {
+        previousLogger = AlexaHandler.getLogger();
+        previousRestored = Priming.isRestored();
+        previousFirstInvocation = Priming.isFirstInvocation();
+        previousClient = DynamoDBDeviceStateStore.hasClient();
+        previousRegion = System.getProperty("aws.region");
+        // Lets the client be built without AWS_REGION; it is never called
+        if (previousRegion == null)
+            System.setProperty("aws.region", "us-east-1");
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setLogger(previousLogger);
+        Priming.setRestored(previousRestored);
+        Priming.setFirstInvocation(previousFirstInvocation);
+        if (!previousClient)
+            DynamoDBDeviceStateStore.shutdownClient();
+        if (previousRegion == null)
+            System.clearProperty("aws.region");
+    }
+
+    @Test
+    public void PrimeRestoresResourcesTest() {
+        DeviceStateStore store = AlexaHandler.getDeviceStateStore();
+        StructuredLogger logger = AlexaHandler.getLogger();
+
+        assertEquals("Each synthetic directive should be handled per iteration", 10, Priming.prime(2));
+        assertSame("Device state store should be restored", store, AlexaHandler.getDeviceStateStore());
+        assertSame("Logger should be restored", logger, AlexaHandler.getLogger());
+    }
+
+    @Test
+    public void CheckpointRestoreTest() throws UnsupportedEncodingException {
+        AmazonDynamoDB client = DynamoDBDeviceStateStore.getClient();
+        Priming priming = new Priming();
+
+        priming.beforeCheckpoint(null);
+        assertFalse("Client should be shut down before the checkpoint", DynamoDBDeviceStateStore.hasClient());
+
+        Priming.setFirstInvocation(false);
+        priming.afterRestore(null);
+        assertTrue("Client should be rebuilt after restore", DynamoDBDeviceStateStore.hasClient());
+        assertNotSame("No client from the snapshot should be reused", client, DynamoDBDeviceStateStore.getClient());
+        assertTrue("Container should be marked restored", Priming.isRestored());
+        assertTrue("First invocation after restore should be recorded", Priming.isFirstInvocation());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StructuredLogger logger = new StructuredLogger(new PrintStream(output, true, "UTF-8"), 16, 0.0);
+        AlexaHandler.setLogger(logger);
+        try {
+            Priming.recordInvocation(1000000L);
+            Priming.recordInvocation(2000000L);
+            assertTrue("Records should be written", logger.flush(1000));
+        } finally {
+            logger.close();
+        }
+        assertFalse("Only the first invocation should be recorded", Priming.isFirstInvocation());
+
+        String[] records = output.toString("UTF-8").trim().split("\n");
+        assertEquals("One record should be written", 1, records.length);
+        JSONObject record = new JSONObject(records[0]);
+        assertEquals("Record should be the first invocation", "firstInvocation", record.getString("type"));
+        assertTrue("Record should say the container was restored", record.getBoolean("restored"));
+        assertEquals("Record should carry the first invocation's latency", 1.0, record.getDouble("latencyMs"), 0.0);
+    }
+}
@@ -0,0 +1,76 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ReportStateTest {
+
+    private DeviceStateStore previousStore;
+    private InMemoryDeviceStateStore store;
+
+    @Before
+    public void SetUp() {
+        previousStore = AlexaHandler.getDeviceStateStore();
+        store = new InMemoryDeviceStateStore();
+        AlexaHandler.setDeviceStateStore(store);
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setDeviceStateStore(previousStore);
+    }
+
+    private JSONObject Handle(String sample) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = getClass().getResourceAsStream("/sample_messages/" + sample)) {
+            AlexaHandler.handler(inputStream, outputStream, null);
+        }
+        return new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private String PowerState(JSONObject response) {
+        return response.getJSONObject("context").getJSONArray("properties").getJSONObject(0).getString("value");
+    }
+
+    @Test
+    public void ReportStateTest() throws IOException {
+        Handle("PowerController/PowerController.TurnOn.request.json");
+        JSONObject response = Handle("ReportState/ReportState.request.json");
+
+        JSONObject header = response.getJSONObject("event").getJSONObject("header");
+        assertEquals("Namespace should be Alexa", "Alexa", header.getString("namespace"));
+        assertEquals("Name should be StateReport", "StateReport", header.getString("name"));
+        assertEquals("CorrelationToken should be echoed", "dFMb0z+PgpgdDmluhJ1LddFvSqZ/jCc8ptlAKulUj90jSqg==", header.getString("correlationToken"));
+        assertEquals("EndpointId should be echoed", "sample-switch-01", response.getJSONObject("event").getJSONObject("endpoint").getString("endpointId"));
+        assertEquals("Power state should be ON", "ON", PowerState(response));
+
+        Handle("PowerController/PowerController.TurnOff.request.json");
+        assertEquals("Power state should be OFF", "OFF", PowerState(Handle("ReportState/ReportState.request.json")));
+    }
+
+    @Test
+    public void ReportStateUnknownEndpointTest() throws IOException {
+        assertEquals("Unknown state should be reported as OFF", "OFF", PowerState(Handle("ReportState/ReportState.request.json")));
+    }
+}
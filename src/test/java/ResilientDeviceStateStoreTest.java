@@ -0,0 +1,336 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import com.amazonaws.AmazonServiceException;
+import org.json.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ResilientDeviceStateStoreTest {
+
+    private static final String TURN_ON = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.PowerController\",\"name\":\"TurnOn\",\"payloadVersion\":\"3\",\"messageId\":\"m-1\",\"correlationToken\":\"c-1\"}," +
+            "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"t\"},\"endpointId\":\"sample-switch-01\",\"cookie\":{}},\"payload\":{}}}";
+
+    @After
+    public void TearDown() {
+        Deadline.clear();
+    }
+
+    private ResilientDeviceStateStore Resilient(DeviceStateStore store, CircuitBreaker circuitBreaker, boolean hedging) {
+        return new ResilientDeviceStateStore(store, 3, 1000, 1, hedging, circuitBreaker);
+    }
+
+    @Test
+    public void RetryTest() {
+        FaultInjectingDeviceStateStore faulty = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore());
+        faulty.failNext(2);
+        ResilientDeviceStateStore store = Resilient(faulty, new CircuitBreaker(5, 10000), false);
+
+        assertTrue("Write should succeed on the third attempt", store.setDeviceState("sample-switch-01", "powerState", "ON"));
+        assertEquals("Two retries should be counted", 2, store.getRetryCount());
+        assertEquals("Value should be stored", "ON", store.getDeviceState("sample-switch-01", "powerState"));
+    }
+
+    @Test
+    public void RetriesExhaustedTest() {
+        FaultInjectingDeviceStateStore faulty = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore()).withFailureRate(1.0);
+        ResilientDeviceStateStore store = Resilient(faulty, new CircuitBreaker(5, 10000), false);
+
+        try {
+            store.setDeviceState("sample-switch-01", "powerState", "ON");
+            fail("Failing store should be unreachable");
+        } catch (EndpointUnreachableException e) {
+            assertEquals("Every attempt should be made", 3, faulty.getCallCount());
+        }
+    }
+
+    @Test
+    public void NonRetryableErrorTest() {
+        AtomicInteger calls = new AtomicInteger();
+        DeviceStateStore invalid = new InMemoryDeviceStateStore() {
+            @Override
+            public boolean setDeviceState(String endpointId, String state, String value) {
+                calls.incrementAndGet();
+                AmazonServiceException e = new AmazonServiceException("One or more parameter values were invalid");
+                e.setStatusCode(400);
+                e.setErrorCode("ValidationException");
+                throw e;
+            }
+        };
+        ResilientDeviceStateStore store = Resilient(invalid, new CircuitBreaker(1, 10000), false);
+
+        try {
+            store.setDeviceState("sample-switch-01", "powerState", "ON");
+            fail("Validation error should be thrown");
+        } catch (AmazonServiceException e) {
+            assertEquals("Validation error should not be retried", 1, calls.get());
+            assertEquals("Validation error should not open the circuit", CircuitBreaker.State.CLOSED, store.getCircuitBreaker().getState());
+        }
+    }
+
+    @Test
+    public void DeadlineTest() {
+        FaultInjectingDeviceStateStore slow = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore()).withLatency(2000, 0);
+        ResilientDeviceStateStore store = Resilient(slow, new CircuitBreaker(5, 10000), false);
+
+        Deadline.start(100);
+        long start = System.nanoTime();
+        try {
+            store.getDeviceState("sample-switch-01", "powerState");
+            fail("Slow store should miss the deadline");
+        } catch (EndpointUnreachableException e) {
+            assertTrue("Call should give up at the deadline", (System.nanoTime() - start) / 1000000 < 1000);
+            assertEquals("Timeout should be counted", 1, store.getTimeoutCount());
+        }
+    }
+
+    @Test
+    public void DeadlineExpiryIsNotStoreFailureTest() {
+        FaultInjectingDeviceStateStore slow = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore()).withLatency(2000, 0);
+        ResilientDeviceStateStore store = Resilient(slow, new CircuitBreaker(1, 10000), false);
+
+        Deadline.start(50);
+        try {
+            store.getDeviceState("sample-switch-01", "powerState");
+            fail("Slow store should miss the deadline");
+        } catch (EndpointUnreachableException expected) {
+        }
+        assertEquals("An attempt cut short by the deadline should not open the circuit",
+                CircuitBreaker.State.CLOSED, store.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void DeadlinePassedToStoreTest() {
+        AtomicLong seen = new AtomicLong();
+        DeviceStateStore store = new InMemoryDeviceStateStore() {
+            @Override
+            public String getDeviceState(String endpointId, String state) {
+                seen.set(Deadline.remainingNanos());
+                return "ON";
+            }
+        };
+
+        Deadline.start(500);
+        Resilient(store, new CircuitBreaker(5, 10000), false).getDeviceState("sample-switch-01", "powerState");
+        assertTrue("The store should see the directive's deadline on the pool thread",
+                seen.get() > 0 && seen.get() <= 500 * 1000000L);
+    }
+
+    @Test
+    public void BoundedStoreOnCallingThreadTest() {
+        List<Thread> threads = new ArrayList<>();
+        AtomicLong seen = new AtomicLong();
+        DeviceStateStore store = new InMemoryDeviceStateStore() {
+            @Override
+            public String getDeviceState(String endpointId, String state) {
+                threads.add(Thread.currentThread());
+                seen.set(Deadline.remainingNanos());
+                return "ON";
+            }
+
+            @Override
+            public boolean isBoundedByDeadline() {
+                return true;
+            }
+        };
+
+        Deadline.start(5000);
+        Resilient(store, new CircuitBreaker(5, 10000), false).getDeviceState("sample-switch-01", "powerState");
+        assertEquals("The store should be called on the calling thread", Collections.singletonList(Thread.currentThread()), threads);
+        assertTrue("The store should see the end of the attempt as its deadline", seen.get() > 0 && seen.get() <= 1000 * 1000000L);
+        assertEquals("The calling thread should get its own deadline back", 5000, Deadline.remainingNanos() / 1000000L, 100);
+    }
+
+    @Test
+    public void CircuitBreakerTest() {
+        AtomicLong now = new AtomicLong(0);
+        FaultInjectingDeviceStateStore faulty = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore()).withFailureRate(1.0);
+        ResilientDeviceStateStore store = Resilient(faulty, new CircuitBreaker(2, 1000, now::get), false);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                store.setDeviceState("sample-switch-01", "powerState", "ON");
+                fail("Failing store should be unreachable");
+            } catch (EndpointUnreachableException expected) {
+            }
+        }
+        assertEquals("Circuit should open", CircuitBreaker.State.OPEN, store.getCircuitBreaker().getState());
+
+        long calls = faulty.getCallCount();
+        try {
+            store.setDeviceState("sample-switch-01", "powerState", "ON");
+            fail("Open circuit should fail fast");
+        } catch (EndpointUnreachableException expected) {
+        }
+        assertEquals("Open circuit should not call the store", calls, faulty.getCallCount());
+        assertEquals("Short circuit should be counted", 1, store.getShortCircuitCount());
+
+        now.set(1000);
+        faulty.withFailureRate(0.0);
+        assertTrue("Probe should be let through", store.setDeviceState("sample-switch-01", "powerState", "ON"));
+        assertEquals("Successful probe should close the circuit", CircuitBreaker.State.CLOSED, store.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void FailedBatchOpensCircuitTest() {
+        AtomicInteger calls = new AtomicInteger();
+        DeviceStateStore failing = new InMemoryDeviceStateStore() {
+            @Override
+            public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+                calls.incrementAndGet();
+                return new boolean[writes.size()];
+            }
+        };
+        ResilientDeviceStateStore store = Resilient(failing, new CircuitBreaker(1, 10000), false);
+        List<DeviceStateWrite> writes = Collections.singletonList(new DeviceStateWrite("sample-switch-01", "powerState", "ON"));
+
+        try {
+            store.setDeviceStates(writes);
+            fail("Batch with no write stored should be unreachable");
+        } catch (EndpointUnreachableException expected) {
+        }
+        assertEquals("Every attempt should be made", 3, calls.get());
+        assertEquals("Failed batch should open the circuit", CircuitBreaker.State.OPEN, store.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void PartlyStoredBatchTest() {
+        DeviceStateStore partial = new InMemoryDeviceStateStore() {
+            @Override
+            public boolean[] setDeviceStates(List<DeviceStateWrite> writes) {
+                return new boolean[]{true, false};
+            }
+        };
+        ResilientDeviceStateStore store = Resilient(partial, new CircuitBreaker(1, 10000), false);
+
+        boolean[] stored = store.setDeviceStates(Arrays.asList(new DeviceStateWrite("sample-switch-01", "powerState", "ON"),
+                new DeviceStateWrite("sample-switch-02", "powerState", "ON")));
+        assertTrue("Stored write should be reported", stored[0]);
+        assertFalse("Failed write should be reported", stored[1]);
+        assertEquals("Partly stored batch should not open the circuit", CircuitBreaker.State.CLOSED, store.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void ProbeCutShortByDeadlineTest() {
+        AtomicLong now = new AtomicLong(0);
+        FaultInjectingDeviceStateStore faulty = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore()).withFailureRate(1.0);
+        ResilientDeviceStateStore store = Resilient(faulty, new CircuitBreaker(1, 1000, now::get), false);
+
+        try {
+            store.setDeviceState("sample-switch-01", "powerState", "ON");
+            fail("Failing store should be unreachable");
+        } catch (EndpointUnreachableException expected) {
+        }
+        assertEquals("Circuit should open", CircuitBreaker.State.OPEN, store.getCircuitBreaker().getState());
+
+        now.set(1000);
+        Deadline.start(0);
+        try {
+            store.setDeviceState("sample-switch-01", "powerState", "ON");
+            fail("Probe with no time left should be unreachable");
+        } catch (EndpointUnreachableException expected) {
+        }
+        assertEquals("Probe cut short by the deadline should open the circuit again",
+                CircuitBreaker.State.OPEN, store.getCircuitBreaker().getState());
+
+        faulty.withLatency(2000, 0).withFailureRate(0.0);
+        now.set(2000);
+        Deadline.start(50);
+        try {
+            store.setDeviceState("sample-switch-01", "powerState", "ON");
+            fail("Slow probe should miss the deadline");
+        } catch (EndpointUnreachableException expected) {
+        }
+        assertEquals("Probe that timed out at the deadline should open the circuit again",
+                CircuitBreaker.State.OPEN, store.getCircuitBreaker().getState());
+
+        faulty.withLatency(0, 0);
+        now.set(3000);
+        Deadline.clear();
+        assertTrue("Next probe should be let through", store.setDeviceState("sample-switch-01", "powerState", "ON"));
+        assertEquals("Successful probe should close the circuit", CircuitBreaker.State.CLOSED, store.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void HedgingTest() {
+        AtomicInteger calls = new AtomicInteger();
+        int slowCall = ResilientDeviceStateStore.HEDGE_MIN_SAMPLES + 1;
+        DeviceStateStore store = new InMemoryDeviceStateStore() {
+            @Override
+            public String getDeviceState(String endpointId, String state) {
+                try {
+                    Thread.sleep(calls.incrementAndGet() == slowCall ? 2000 : 5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "ON";
+            }
+        };
+        ResilientDeviceStateStore hedged = Resilient(store, new CircuitBreaker(5, 10000), true);
+
+        for (int i = 0; i < ResilientDeviceStateStore.HEDGE_MIN_SAMPLES; i++)
+            hedged.getDeviceState("sample-switch-01", "powerState");
+        assertEquals("Fast calls should not be hedged", 0, hedged.getHedgeCount());
+
+        long start = System.nanoTime();
+        assertEquals("Hedged call should answer", "ON", hedged.getDeviceState("sample-switch-01", "powerState"));
+        assertTrue("Hedged call should not wait for the slow request", (System.nanoTime() - start) / 1000000 < 1000);
+        assertEquals("One hedge should be sent", 1, hedged.getHedgeCount());
+        assertEquals("Hedge should win", 1, hedged.getHedgeWinCount());
+    }
+
+    @Test
+    public void HandlerEndpointUnreachableTest() {
+        DeviceStateStore previousStore = AlexaHandler.getDeviceStateStore();
+        DirectiveDeduplicator previousDeduplicator = AlexaHandler.getDeduplicator();
+        try {
+            FaultInjectingDeviceStateStore faulty = new FaultInjectingDeviceStateStore(new InMemoryDeviceStateStore()).withFailureRate(1.0);
+            AlexaHandler.setDeviceStateStore(Resilient(faulty, new CircuitBreaker(5, 10000), false));
+            AlexaHandler.setDeduplicator(new DirectiveDeduplicator(0, 0));
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            AlexaHandler.handler(new ByteArrayInputStream(TURN_ON.getBytes(StandardCharsets.UTF_8)), outputStream, new ServerContext(5000));
+
+            JSONObject event = new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8)).getJSONObject("event");
+            assertEquals("Name should be ErrorResponse", "ErrorResponse", event.getJSONObject("header").getString("name"));
+            assertEquals("CorrelationToken should be kept", "c-1", event.getJSONObject("header").getString("correlationToken"));
+            assertEquals("EndpointId should be kept", "sample-switch-01", event.getJSONObject("endpoint").getString("endpointId"));
+            assertEquals("Type should be ENDPOINT_UNREACHABLE", "ENDPOINT_UNREACHABLE", event.getJSONObject("payload").getString("type"));
+        } finally {
+            AlexaHandler.setDeviceStateStore(previousStore);
+            AlexaHandler.setDeduplicator(previousDeduplicator);
+        }
+    }
+
+    @Test
+    public void HandlerInvalidDirectiveTest() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.handler(new ByteArrayInputStream("not json".getBytes(StandardCharsets.UTF_8)), outputStream, null);
+
+        JSONObject event = new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8)).getJSONObject("event");
+        assertEquals("Name should be ErrorResponse", "ErrorResponse", event.getJSONObject("header").getString("name"));
+        assertEquals("Type should be INVALID_DIRECTIVE", "INVALID_DIRECTIVE", event.getJSONObject("payload").getString("type"));
+    }
+}
@@ -0,0 +1,112 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class StreamingDiscoveryResponseTest {
+
+    private static final String DISCOVERY = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.Discovery\",\"name\":\"Discover\",\"payloadVersion\":\"3\",\"messageId\":\"m-1\"},\"payload\":{}}}";
+
+    private EndpointSource previousSource;
+
+    @Before
+    public void SetUp() {
+        previousSource = AlexaHandler.getEndpointSource();
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setEndpointSource(previousSource);
+    }
+
+    private String Write(DirectiveResponse response) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        response.writeTo(outputStream);
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private EndpointCatalogue Catalogue(int endpoints) {
+        EndpointCatalogue catalogue = EndpointCatalogue.createDefault();
+        JSONArray capabilities = catalogue.getEndpoints().get(0).getCapabilities();
+        for (int i = 2; i <= endpoints; i++)
+            catalogue.addEndpoint(new EndpointCatalogue.Endpoint("Sample Switch " + i, "sample-switch-" + i, capabilities));
+        return catalogue;
+    }
+
+    @Test
+    public void StreamMatchesTemplateTest() throws IOException {
+        EndpointCatalogue catalogue = Catalogue(3);
+
+        String streamed = Write(new StreamingDiscoveryResponse(catalogue, null, "message-1", 300, 262144));
+        String templated = Write(catalogue.getDiscoveryTemplate().newResponse("message-1"));
+        assertEquals("Streamed response should match the template", templated, streamed);
+    }
+
+    @Test
+    public void EndpointLimitTest() throws IOException {
+        EndpointCatalogue catalogue = Catalogue(10);
+        StreamingDiscoveryResponse response = new StreamingDiscoveryResponse(catalogue, null, "message-1", 4, 262144);
+
+        JSONObject json = new JSONObject(Write(response));
+        assertEquals("Endpoints should be capped", 4, json.getJSONObject("event").getJSONObject("payload").getJSONArray("endpoints").length());
+        assertTrue("Truncation should be reported", response.isTruncated());
+    }
+
+    @Test
+    public void SizeLimitTest() throws IOException {
+        EndpointCatalogue catalogue = Catalogue(50);
+        StreamingDiscoveryResponse response = new StreamingDiscoveryResponse(catalogue, null, "message-1", 300, 4096);
+
+        String written = Write(response);
+        assertTrue("Response should fit the size limit", written.getBytes(StandardCharsets.UTF_8).length <= 4096);
+        assertTrue("Truncation should be reported", response.isTruncated());
+        assertEquals("Truncated response should still be valid", response.getEndpointCount(),
+                new JSONObject(written).getJSONObject("event").getJSONObject("payload").getJSONArray("endpoints").length());
+    }
+
+    @Test
+    public void ErrorOnFailureTest() throws IOException {
+        EndpointSource failing = (userId, consumer) -> {
+            throw new IOException("Scan failed");
+        };
+
+        StreamingDiscoveryResponse response = new StreamingDiscoveryResponse(failing, null, "message-1", 300, 262144);
+        JSONObject event = new JSONObject(Write(response)).getJSONObject("event");
+        assertEquals("Name should be ErrorResponse", "ErrorResponse", event.getJSONObject("header").getString("name"));
+        assertEquals("Type should be BRIDGE_UNREACHABLE", "BRIDGE_UNREACHABLE", event.getJSONObject("payload").getString("type"));
+        assertFalse("The sample switch should not be discovered in place of the user's endpoints", event.getJSONObject("payload").has("endpoints"));
+        assertTrue("The response should count as an error", response.isError());
+    }
+
+    @Test
+    public void HandlerUsesEndpointSourceTest() throws IOException {
+        AlexaHandler.setEndpointSource(Catalogue(5));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.handler(new ByteArrayInputStream(DISCOVERY.getBytes(StandardCharsets.UTF_8)), outputStream, null);
+
+        JSONObject response = new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("Endpoints should come from the source", 5,
+                response.getJSONObject("event").getJSONObject("payload").getJSONArray("endpoints").length());
+    }
+}
@@ -0,0 +1,87 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class StructuredLoggerTest {
+
+    private static final String REQUEST = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.PowerController\",\"name\":\"TurnOn\",\"messageId\":\"m-1\"},\n" +
+            "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"secret-token\"},\"endpointId\":\"sample-switch-01\"},\"payload\":{}}}";
+
+    @Test
+    public void RedactTest() {
+        String redacted = StructuredLogger.redact("{\"token\": \"abc\\\"def\", \"grant\":{\"code\":\"xyz\"},\"type\":\"BearerToken\"}");
+        assertFalse("Token should be removed", redacted.contains("abc"));
+        assertFalse("Grant code should be removed", redacted.contains("xyz"));
+        assertEquals("Structure should be kept", "{\"token\": \"REDACTED\", \"grant\":{\"code\":\"REDACTED\"},\"type\":\"BearerToken\"}", redacted);
+    }
+
+    @Test
+    public void LogDirectiveTest() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StructuredLogger logger = new StructuredLogger(new PrintStream(output, true, "UTF-8"), 16, 1.0);
+        Directive directive = Directive.parse(new ByteArrayInputStream(REQUEST.getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue("Payload should always be sampled", logger.samplePayload());
+        logger.logDirective(directive, 2500000L, directive.toString(), "{\"event\":{}}");
+        logger.logDirective(directive, 1000000L, null, null);
+        assertTrue("Records should be written", logger.flush(5000));
+
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals("Each record should be a single line", 2, lines.length);
+
+        JSONObject record = new JSONObject(lines[0]);
+        assertEquals("Namespace should be logged", "Alexa.PowerController", record.getString("namespace"));
+        assertEquals("Name should be logged", "TurnOn", record.getString("name"));
+        assertEquals("EndpointId should be logged", "sample-switch-01", record.getString("endpointId"));
+        assertEquals("Latency should be logged", 2.5, record.getDouble("latencyMs"), 0.0001);
+        assertFalse("Token should be redacted", record.getString("request").contains("secret-token"));
+
+        assertFalse("Unsampled record should not contain the request", new JSONObject(lines[1]).has("request"));
+        assertEquals("Two records should be written", 2, logger.getWrittenCount());
+    }
+
+    @Test
+    public void SampleRateZeroTest() {
+        StructuredLogger logger = new StructuredLogger(new PrintStream(new ByteArrayOutputStream()), 16, 0.0);
+        for (int i = 0; i < 100; i++)
+            assertFalse("Payload should never be sampled", logger.samplePayload());
+    }
+
+    @Test
+    public void HandlerFlushTest() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StructuredLogger logger = new StructuredLogger(new PrintStream(output, true, "UTF-8"), 16, 0.0);
+        StructuredLogger previousLogger = AlexaHandler.getLogger();
+        AlexaHandler.setLogger(logger);
+        try {
+            AlexaHandler.handler(new ByteArrayInputStream("not a directive".getBytes(StandardCharsets.UTF_8)),
+                    new ByteArrayOutputStream(), null);
+            // Without a ServerContext the handler is on Lambda and must not leave records buffered
+            String written = new String(output.toByteArray(), StandardCharsets.UTF_8);
+            assertTrue("The error should be written before the handler returns", written.contains("\"type\":\"error\""));
+        } finally {
+            AlexaHandler.setLogger(previousLogger);
+            logger.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class TimeOfSampleTest {
+
+    @Test
+    public void FormatEpochTest() {
+        assertEquals("Epoch should be formatted", "1970-01-01T00:00:00.000Z", TimeOfSample.format(0L));
+        assertEquals("Milliseconds should follow the seconds", "2009-02-13T23:31:30.123Z", TimeOfSample.format(1234567890123L));
+        assertEquals("Same second should reuse the prefix", "2009-02-13T23:31:30.999Z", TimeOfSample.format(1234567890999L));
+        assertEquals("Next second should get a new prefix", "2009-02-13T23:31:31.007Z", TimeOfSample.format(1234567891007L));
+    }
+
+    @Test
+    public void FormatMatchesSimpleDateFormatTest() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long millis = (long) (random.nextDouble() * 4102444800000L);
+            assertEquals("Formatted time should match SimpleDateFormat", sdf.format(millis), TimeOfSample.format(millis));
+        }
+    }
+
+    @Test
+    public void ContextPropertyTimeOfSampleTest() {
+        String timeOfSample = new AlexaResponse().BuildContextProperty("Alexa.PowerController", "powerState", "ON", 200).getString("timeOfSample");
+        assertTrue("timeOfSample should be ISO-8601 with milliseconds", timeOfSample.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}Z"));
+    }
+}
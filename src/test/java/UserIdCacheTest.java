@@ -0,0 +1,180 @@
+// -*- coding: utf-8 -*-
+
+// Copyright 2018 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+// Licensed under the Amazon Software License (the "License"). You may not use this file except in
+// compliance with the License. A copy of the License is located at
+
+//    http://aws.amazon.com/asl/
+
+// or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific
+// language governing permissions and limitations under the License.
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UserIdCacheTest {
+
+    private static final String ACCEPT_GRANT = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.Authorization\",\"name\":\"AcceptGrant\",\"messageId\":\"m-1\",\"payloadVersion\":\"3\"}," +
+            "\"payload\":{\"grant\":{\"type\":\"OAuth2.AuthorizationCode\",\"code\":\"code-1\"},\"grantee\":{\"type\":\"BearerToken\",\"token\":\"%s\"}}}}";
+
+    private static final String TURN_ON = "{\"directive\":{\"header\":{\"namespace\":\"Alexa.PowerController\",\"name\":\"TurnOn\",\"payloadVersion\":\"3\",\"messageId\":\"m-2\",\"correlationToken\":\"c-2\"}," +
+            "\"endpoint\":{\"scope\":{\"type\":\"BearerToken\",\"token\":\"%s\"},\"endpointId\":\"sample-switch-01\",\"cookie\":{}},\"payload\":{}}}";
+
+    private UserIdCache previousCache;
+    private GrantStore previousGrants;
+    private DeviceStateStore previousStore;
+    private DirectiveDeduplicator previousDeduplicator;
+    private InMemoryGrantStore grants;
+
+    @Before
+    public void SetUp() {
+        previousCache = AlexaHandler.getUserIdCache();
+        previousGrants = AlexaHandler.getGrantStore();
+        previousStore = AlexaHandler.getDeviceStateStore();
+        previousDeduplicator = AlexaHandler.getDeduplicator();
+        grants = new InMemoryGrantStore();
+        AlexaHandler.setGrantStore(grants);
+        AlexaHandler.setDeviceStateStore(new InMemoryDeviceStateStore());
+        AlexaHandler.setDeduplicator(new DirectiveDeduplicator(0, 0));
+    }
+
+    @After
+    public void TearDown() {
+        AlexaHandler.setUserIdCache(previousCache);
+        AlexaHandler.setGrantStore(previousGrants);
+        AlexaHandler.setDeviceStateStore(previousStore);
+        AlexaHandler.setDeduplicator(previousDeduplicator);
+    }
+
+    private static JSONObject Handle(String directive) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        AlexaHandler.handler(new ByteArrayInputStream(directive.getBytes(StandardCharsets.UTF_8)), outputStream, new ServerContext(5000));
+        return new JSONObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8)).getJSONObject("event");
+    }
+
+    @Test
+    public void CachedUntilExpiredTest() throws IOException {
+        AtomicLong now = new AtomicLong(1000);
+        StubIdentityProvider provider = new StubIdentityProvider(null).withUser("token-1", "user-1");
+        UserIdCache cache = new UserIdCache(provider, 10, 5000, 1000, now::get);
+
+        assertEquals("Token should resolve to its user", "user-1", cache.resolve("token-1"));
+        assertEquals("Second lookup should be cached", "user-1", cache.resolve("token-1"));
+        assertEquals("Provider should be asked once", 1, provider.getLookupCount());
+        assertEquals("One hit should be counted", 1, cache.getHitCount());
+
+        now.addAndGet(5000);
+        cache.resolve("token-1");
+        assertEquals("Expired entry should be looked up again", 2, provider.getLookupCount());
+    }
+
+    @Test
+    public void RejectedTokenIsCachedBrieflyTest() throws IOException {
+        AtomicLong now = new AtomicLong(1000);
+        StubIdentityProvider provider = new StubIdentityProvider(null);
+        UserIdCache cache = new UserIdCache(provider, 10, 5000, 1000, now::get);
+
+        assertNull("Unknown token should be rejected", cache.resolve("bad-token"));
+        assertNull("Rejection should be cached", cache.resolve("bad-token"));
+        assertEquals("Provider should be asked once", 1, provider.getLookupCount());
+
+        now.addAndGet(1000);
+        cache.resolve("bad-token");
+        assertEquals("Rejection should expire sooner than a user", 2, provider.getLookupCount());
+    }
+
+    @Test
+    public void FailedLookupIsNotCachedTest() {
+        AtomicInteger calls = new AtomicInteger();
+        UserIdCache cache = new UserIdCache(token -> {
+            if (calls.incrementAndGet() == 1)
+                throw new IOException("Profile service unavailable");
+            return "user-1";
+        }, 10, 5000, 1000);
+
+        try {
+            cache.resolve("token-1");
+            fail("Failure should be thrown");
+        } catch (IOException e) {
+            assertEquals("Failure should be counted", 1, cache.getFailureCount());
+        }
+        try {
+            assertEquals("Next lookup should ask the provider again", "user-1", cache.resolve("token-1"));
+        } catch (IOException e) {
+            fail("Second lookup should succeed");
+        }
+    }
+
+    @Test
+    public void ConcurrentLookupsAreCoalescedTest() throws Exception {
+        StubIdentityProvider provider = new StubIdentityProvider("user-1").withLatency(100);
+        UserIdCache cache = new UserIdCache(provider, 10, 5000, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<String>> lookups = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    return cache.resolve("token-1");
+                }));
+            }
+            start.countDown();
+            for (Future<String> lookup : lookups)
+                assertEquals("Every lookup should get the user", "user-1", lookup.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("Provider should be asked once", 1, provider.getLookupCount());
+        assertEquals("Waiting lookups should be counted", 7, cache.getCoalescedCount() + cache.getHitCount());
+    }
+
+    @Test
+    public void AcceptGrantStoresCodeTest() {
+        AlexaHandler.setUserIdCache(new UserIdCache(new StubIdentityProvider(null).withUser("token-1", "user-1"), 10, 5000, 1000));
+
+        JSONObject event = Handle(String.format(ACCEPT_GRANT, "token-1"));
+
+        assertEquals("Name should be AcceptGrant", "AcceptGrant", event.getJSONObject("header").getString("name"));
+        assertEquals("Grant code should be stored for the user", "code-1", grants.getGrant("user-1"));
+
+        event = Handle(String.format(ACCEPT_GRANT, "bad-token"));
+        assertEquals("Name should be ErrorResponse", "ErrorResponse", event.getJSONObject("header").getString("name"));
+        assertEquals("Type should be ACCEPT_GRANT_FAILED", "ACCEPT_GRANT_FAILED", event.getJSONObject("payload").getString("type"));
+    }
+
+    @Test
+    public void InvalidTokenIsRejectedTest() {
+        StubIdentityProvider provider = new StubIdentityProvider(null).withUser("token-1", "user-1");
+        AlexaHandler.setUserIdCache(new UserIdCache(provider, 10, 5000, 1000));
+
+        JSONObject event = Handle(String.format(TURN_ON, "bad-token"));
+        assertEquals("Name should be ErrorResponse", "ErrorResponse", event.getJSONObject("header").getString("name"));
+        assertEquals("Type should be INVALID_AUTHORIZATION_CREDENTIAL", "INVALID_AUTHORIZATION_CREDENTIAL",
+                event.getJSONObject("payload").getString("type"));
+
+        event = Handle(String.format(TURN_ON, "token-1"));
+        assertEquals("Name should be Response", "Response", event.getJSONObject("header").getString("name"));
+        Handle(String.format(TURN_ON, "token-1"));
+        assertEquals("Repeated token should be resolved from the cache", 2, provider.getLookupCount());
+    }
+}